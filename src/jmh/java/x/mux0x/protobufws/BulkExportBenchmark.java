@@ -0,0 +1,88 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.proxy.ProxyWebSocketMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Export tab's whole pipeline (batches, fork-join slices, ordered writer) over
+ * {@link #HISTORY_BYTES} of Proxy history, written to a temp file. One invocation exports the
+ * whole history, so throughput in MB/s is {@code HISTORY_BYTES / 2^20} divided by the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BulkExportBenchmark {
+
+    static final long HISTORY_BYTES = 64L << 20;
+    // Frames cycle through this many distinct payloads, a little apart in size
+    private static final int DISTINCT_FRAMES = 64;
+
+    @Param({"FLAT", "NESTED", "STRINGS"})
+    public FrameCorpus.Kind kind;
+
+    @Param({"1024", "16384"})
+    public int size;
+
+    @Param({"JSONL", "CSV"})
+    public String format; // BulkExport.Format is package-private, out of reach of the generated code
+
+    @Param({"1"})
+    public int threads;
+
+    private List<ProxyWebSocketMessage> history;
+    private ForkJoinPool pool;
+    private Path out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        MontoyaStubs.install();
+        List<ByteArray> payloads = new ArrayList<>(DISTINCT_FRAMES);
+        for (int i = 0; i < DISTINCT_FRAMES; i++) {
+            payloads.add(MontoyaStubs.byteArray(FrameCorpus.frame(kind, size + i)));
+        }
+        history = new ArrayList<>();
+        for (long bytes = 0; bytes < HISTORY_BYTES; ) {
+            ByteArray p = payloads.get(history.size() % DISTINCT_FRAMES);
+            history.add(MontoyaStubs.proxyWebSocketMessage(history.size(), p));
+            bytes += p.length();
+        }
+        pool = new ForkJoinPool(threads);
+        out = Files.createTempFile("sockobuf-export", "." + format.toLowerCase(Locale.ROOT));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        Files.deleteIfExists(out);
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        return new BulkExport(history, new SchemaRegistry(), BulkExport.Format.valueOf(format)).run(pool, out, (done, total, frames) -> { });
+    }
+}
@@ -0,0 +1,140 @@
+package x.mux0x.protobufws;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The command-line decoder over a raw varint-prefixed capture of small frames, twice the size of
+ * the forked JVM's 256 MB heap, to JSONL in a temp file. One invocation decodes the whole file.
+ * Besides the time, {@code liveHeapMb} reports the most heap left in use right after any
+ * collection during the run: what the decoder holds on to, as opposed to what it allocates. It
+ * is an upper bound (a young collection leaves old-generation garbage counted), and JMH sums it
+ * across iterations in the summary row, so read it from the per-iteration lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx256m", "-Djava.awt.headless=true"})
+public class DecodeCliBenchmark {
+
+    // Frames cycle through this many distinct payloads, a little apart in size
+    private static final int DISTINCT_FRAMES = 64;
+
+    @Param({"536870912"})
+    public long captureBytes;
+
+    @Param({"40"})
+    public int frameSize;
+
+    @Param({"1"})
+    public int threads;
+
+    private Path capture, out;
+
+    /** Heap occupancy after collections, sampled through GC notifications. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+        public long liveHeapMb;
+
+        private final AtomicLong maxAfterGc = new AtomicLong();
+        private final Set<String> heapPools = new HashSet<>();
+        private final NotificationListener listener = (n, handback) -> {
+            if (!n.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+            Map<String, MemoryUsage> after = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData())
+                    .getGcInfo().getMemoryUsageAfterGc();
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> e : after.entrySet()) {
+                if (heapPools.contains(e.getKey())) used += e.getValue().getUsed();
+            }
+            maxAfterGc.accumulateAndGet(used, Math::max);
+        };
+
+        @Setup(Level.Trial)
+        public void listen() {
+            for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (p.getType() == MemoryType.HEAP) heapPools.add(p.getName());
+            }
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            System.gc();
+            maxAfterGc.set(0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void record() {
+            liveHeapMb = maxAfterGc.get() >> 20;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[][] frames = new byte[DISTINCT_FRAMES][];
+        for (int i = 0; i < DISTINCT_FRAMES; i++) frames[i] = FrameCorpus.frame(FrameCorpus.Kind.FLAT, frameSize + i);
+        capture = Files.createTempFile("sockobuf-capture", ".bin");
+        out = Files.createTempFile("sockobuf-capture", ".jsonl");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(capture), 1 << 20)) {
+            long written = 0;
+            for (int i = 0; written < captureBytes; i++) {
+                byte[] f = frames[i % DISTINCT_FRAMES];
+                for (long v = f.length; ; v >>>= 7, written++) { // varint length prefix
+                    if (v < 0x80) { os.write((int) v); written++; break; }
+                    os.write((int) (v & 0x7F) | 0x80);
+                }
+                os.write(f);
+                written += f.length;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(capture);
+        Files.deleteIfExists(out);
+    }
+
+    @Benchmark
+    public int decode(Heap heap) throws IOException {
+        return new DecodeCli().run(new String[]{"--input", "raw", "--format", "jsonl", "--threads", String.valueOf(threads),
+                "--out", out.toString(), capture.toString()});
+    }
+}
@@ -0,0 +1,88 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.ui.contextmenu.WebSocketMessage;
+import burp.api.montoya.ui.editor.extension.EditorMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full editor pipeline as Burp drives it: isEnabledFor, setMessage, then getMessage.
+ * "cold" decodes through an empty cache every time; "cached" measures revisiting a frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EditorRoundTripBenchmark {
+
+    @Param({"FLAT", "NESTED", "STRINGS", "BASE64"})
+    public FrameCorpus.Kind kind;
+
+    @Param({"100", "16384", "1048576", "16777216"})
+    public int size;
+
+    @Param({"READ_ONLY", "DEFAULT"})
+    public EditorMode mode;
+
+    private WebSocketMessage message;
+    private DecodeCache sharedCache;
+    private ProtobufWsEditor cachedEditor;
+    // Nothing mapped: every frame takes the heuristic path
+    private static final SchemaRegistry NO_SCHEMAS = new SchemaRegistry();
+    // Never fed: no frame is reassembled
+    private static final FramedStreams NO_STREAMS = new FramedStreams(0);
+    // Direct executor: the benchmark measures decode work, not thread hand-off
+    private static final ExecutorService INLINE = new AbstractExecutorService() {
+        @Override public void execute(Runnable command) { command.run(); }
+        @Override public void shutdown() {}
+        @Override public List<Runnable> shutdownNow() { return List.of(); }
+        @Override public boolean isShutdown() { return false; }
+        @Override public boolean isTerminated() { return false; }
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) { return true; }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MontoyaStubs.install();
+        ByteArray payload = ByteArray.byteArray(FrameCorpus.frame(kind, size));
+        message = MontoyaStubs.webSocketMessage(payload);
+        sharedCache = new DecodeCache(Long.MAX_VALUE);
+        cachedEditor = new ProtobufWsEditor(MontoyaStubs.api(), sharedCache, INLINE, NO_SCHEMAS, NO_STREAMS, mode);
+        cachedEditor.setMessage(message);
+    }
+
+    @Benchmark
+    public ByteArray cold() {
+        ProtobufWsEditor editor = new ProtobufWsEditor(MontoyaStubs.api(), new DecodeCache(Long.MAX_VALUE), INLINE, NO_SCHEMAS, NO_STREAMS, mode);
+        return roundTrip(editor);
+    }
+
+    @Benchmark
+    public ByteArray cached() {
+        return roundTrip(cachedEditor);
+    }
+
+    private ByteArray roundTrip(ProtobufWsEditor editor) {
+        if (!editor.isEnabledFor(message)) return null;
+        editor.setMessage(message);
+        return editor.getMessage();
+    }
+}
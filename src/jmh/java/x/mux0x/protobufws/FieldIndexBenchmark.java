@@ -0,0 +1,107 @@
+package x.mux0x.protobufws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search tab queries over an index of {@link #frames} synthetic frames, held in memory or opened
+ * from a saved snapshot. PATH matches nearly every frame, VALUE one exact varint, PREFIX the
+ * strings under one path starting with a letter, ANY_PREFIX the same across every path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldIndexBenchmark {
+
+    public enum Query { PATH, VALUE, PREFIX, ANY_PREFIX }
+
+    // Frames cycle through this many distinct payloads, a little apart in size
+    private static final int DISTINCT_FRAMES = 1024;
+
+    @Param({"250000"})
+    public int frames;
+
+    @Param({"FLAT", "NESTED"})
+    public FrameCorpus.Kind kind;
+
+    @Param({"512"})
+    public int size;
+
+    @Param({"MEMORY", "SNAPSHOT"})
+    public String storage;
+
+    @Param({"PATH", "VALUE", "PREFIX", "ANY_PREFIX"})
+    public Query query;
+
+    private FieldIndex index;
+    private Path snapshot;
+    private String path, value;
+    private boolean prefix;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DecodedFrame[] decoded = new DecodedFrame[DISTINCT_FRAMES];
+        for (int i = 0; i < DISTINCT_FRAMES; i++) decoded[i] = DecodedFrame.decode(FrameCorpus.frame(kind, size + i));
+        index = new FieldIndex();
+        for (int id = 0; id < frames; id++) index.add(id, decoded[id % DISTINCT_FRAMES]);
+        if (storage.equals("SNAPSHOT")) {
+            snapshot = Files.createTempFile("sockobuf-index", ".sbix");
+            index.save(snapshot);
+            index = new FieldIndex();
+            index.open(snapshot);
+        }
+
+        // Terms taken from the first frame, so each query has hits
+        List<ProtoWire.NodePath> leaves = ProtoWire.collectLeaves(decoded[0].root());
+        ProtoWire.NodePath number = null, string = null;
+        for (ProtoWire.NodePath np : leaves) {
+            if (number == null && np.node.wireType == 0) number = np;
+            if (string == null && np.utf8 && np.node.length > 0) string = np;
+        }
+        switch (query) {
+            case PATH:
+                path = leaves.get(0).path;
+                break;
+            case VALUE:
+                path = number.path;
+                value = Long.toUnsignedString(new WireReader(number.node.buf, number.node.offset)
+                        .readVarint64(number.node.offset + number.node.length));
+                break;
+            default:
+                path = query == Query.PREFIX ? string.path : "";
+                value = String.valueOf((char) (string.node.buf[string.node.offset] & 0xFF));
+                prefix = true;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.clear();
+        if (snapshot != null) Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public int[] query() {
+        return index.query(path, value, prefix);
+    }
+}
@@ -0,0 +1,192 @@
+package x.mux0x.protobufws;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic frames for the benchmarks. The same (kind, size) pair always yields
+ * the same bytes, so numbers are comparable across runs and machines.
+ */
+public final class FrameCorpus {
+
+    public enum Kind {
+        FLAT,          // many top-level scalar and short string fields
+        NESTED,        // embedded messages up to (and past) the recursion limit
+        STRINGS,       // long printable UTF-8 leaves, including JSON blobs
+        PACKED,        // packed repeated varints and fixed64s
+        BASE64,        // a STRINGS frame wrapped as base64 text
+        NEAR_MISS,     // a valid NESTED frame followed by a truncated length-delimited field
+        DEEP_NEAR_MISS // embedded candidates that each end in a truncated field, at every depth
+    }
+
+    private FrameCorpus() {}
+
+    static byte[] frame(Kind kind, int targetSize) {
+        SplittableRandom rnd = new SplittableRandom(0x50C0B0FL ^ ((long) kind.ordinal() << 32) ^ targetSize);
+        switch (kind) {
+            case FLAT: return flat(rnd, targetSize);
+            case NESTED: return nested(rnd, targetSize);
+            case STRINGS: return strings(rnd, targetSize);
+            case PACKED: return packed(rnd, targetSize);
+            case BASE64: {
+                // base64 inflates by 4/3; aim the wrapped text at the requested size
+                byte[] body = strings(rnd, Math.max(16, targetSize * 3 / 4));
+                return Base64.getEncoder().encodeToString(body).getBytes(StandardCharsets.US_ASCII);
+            }
+            case NEAR_MISS: {
+                byte[] f = nested(rnd, Math.max(1, targetSize - 2));
+                // A trailing field 1 whose length claims 127 bytes that are not there: the whole
+                // frame tokenizes fine until the very last field
+                byte[] miss = Arrays.copyOf(f, f.length + 2);
+                miss[f.length] = 0x0A;
+                miss[f.length + 1] = 0x7F;
+                return miss;
+            }
+            case DEEP_NEAR_MISS: return deepNearMiss(rnd, targetSize);
+            default:
+                throw new IllegalArgumentException("Unknown kind: " + kind);
+        }
+    }
+
+    private static byte[] flat(SplittableRandom rnd, int target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target + 64);
+        while (out.size() < target) {
+            int field = 1 + rnd.nextInt(30);
+            switch (rnd.nextInt(4)) {
+                case 0: varintField(out, field, rnd.nextLong() >>> rnd.nextInt(64)); break;
+                case 1: fixedField(out, field, 1, 8, rnd); break;
+                case 2: fixedField(out, field, 5, 4, rnd); break;
+                default: bytesField(out, field, ascii(rnd, 4 + rnd.nextInt(24)));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] nested(SplittableRandom rnd, int target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target + 64);
+        while (out.size() < target) {
+            int budget = Math.min(target - out.size(), 64 * 1024);
+            bytesField(out, 1 + rnd.nextInt(8), message(rnd, 0, Math.max(budget, 32)));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] message(SplittableRandom rnd, int depth, int budget) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(budget + 32);
+        while (out.size() < budget) {
+            int field = 1 + rnd.nextInt(15);
+            int pick = rnd.nextInt(10);
+            if (depth < 7 && pick < 3) {
+                bytesField(out, field, message(rnd, depth + 1, Math.max(16, (budget - out.size()) / 2)));
+            } else if (pick < 6) {
+                bytesField(out, field, ascii(rnd, 3 + rnd.nextInt(20)));
+            } else {
+                varintField(out, field, rnd.nextInt(1 << 20));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Top-level fields whose values look like messages of tiny varint fields and nested
+     * candidates, but every one of them, at every depth, ends in a field whose length runs past
+     * the end. Each candidate is tokenized in full before it is rejected: the worst case for
+     * guessing, and what the parse budget exists for.
+     */
+    private static byte[] deepNearMiss(SplittableRandom rnd, int target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target + 64);
+        while (out.size() < target) {
+            int budget = Math.min(target - out.size(), 512 * 1024);
+            bytesField(out, 1 + rnd.nextInt(8), nearMissMessage(rnd, 0, Math.max(budget, 32)));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] nearMissMessage(SplittableRandom rnd, int depth, int budget) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(budget + 32);
+        while (out.size() < budget - 2) {
+            int field = 1 + rnd.nextInt(15);
+            if (depth < 7 && rnd.nextInt(8) == 0) {
+                bytesField(out, field, nearMissMessage(rnd, depth + 1, Math.max(16, (budget - out.size()) / 4)));
+            } else {
+                varintField(out, field, rnd.nextInt(128));
+            }
+        }
+        out.write(0x0A); // field 1, length 127: not there
+        out.write(0x7F);
+        return out.toByteArray();
+    }
+
+    private static byte[] strings(SplittableRandom rnd, int target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target + 64);
+        while (out.size() < target) {
+            int len = Math.min(Math.max(8, target - out.size()), 256 + rnd.nextInt(4096));
+            byte[] value = rnd.nextInt(4) == 0 ? json(rnd, len) : ascii(rnd, len);
+            bytesField(out, 1 + rnd.nextInt(6), value);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] packed(SplittableRandom rnd, int target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target + 64);
+        while (out.size() < target) {
+            int count = Math.max(1, Math.min((target - out.size()) / 4, 2048));
+            ByteArrayOutputStream body = new ByteArrayOutputStream(count * 8);
+            if (rnd.nextBoolean()) {
+                for (int i = 0; i < count; i++) varint(body, rnd.nextLong() >>> (20 + rnd.nextInt(44)));
+                bytesField(out, 4, body.toByteArray());
+            } else {
+                for (int i = 0; i < count; i++) {
+                    long v = Double.doubleToLongBits(rnd.nextDouble() * 1000);
+                    for (int b = 0; b < 8; b++) body.write((int) (v >>> (8 * b)));
+                }
+                bytesField(out, 5, body.toByteArray());
+            }
+            varintField(out, 1, rnd.nextInt(1 << 16));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(SplittableRandom rnd, int len) {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) b[i] = (byte) (0x20 + rnd.nextInt(0x5F));
+        return b;
+    }
+
+    private static byte[] json(SplittableRandom rnd, int len) {
+        StringBuilder sb = new StringBuilder(len + 32).append('{');
+        for (int k = 0; sb.length() < len; k++) {
+            if (k > 0) sb.append(',');
+            sb.append("\"k").append(k).append("\":\"").append(new String(ascii(rnd, 8), StandardCharsets.US_ASCII)
+                    .replace('"', '\'').replace('\\', '/')).append('"');
+        }
+        return sb.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void varintField(ByteArrayOutputStream out, int field, long value) {
+        varint(out, (long) field << 3);
+        varint(out, value);
+    }
+
+    private static void fixedField(ByteArrayOutputStream out, int field, int wireType, int width, SplittableRandom rnd) {
+        varint(out, ((long) field << 3) | wireType);
+        for (int i = 0; i < width; i++) out.write(rnd.nextInt(256));
+    }
+
+    private static void bytesField(ByteArrayOutputStream out, int field, byte[] value) {
+        varint(out, ((long) field << 3) | 2);
+        varint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void varint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
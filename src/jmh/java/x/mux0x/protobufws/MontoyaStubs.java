@@ -0,0 +1,82 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.internal.MontoyaObjectFactory;
+import burp.api.montoya.internal.ObjectFactoryLocator;
+import burp.api.montoya.proxy.ProxyWebSocketMessage;
+import burp.api.montoya.ui.contextmenu.WebSocketMessage;
+import burp.api.montoya.websocket.Direction;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Just enough of the Montoya API to drive the editor outside Burp: byte arrays are backed by
+ * plain arrays, and every other call is a no-op returning null, false or another stub.
+ */
+final class MontoyaStubs {
+
+    private MontoyaStubs() {}
+
+    static void install() {
+        if (ObjectFactoryLocator.FACTORY != null) return;
+        ObjectFactoryLocator.FACTORY = stub(MontoyaObjectFactory.class, (method, args) -> {
+            if (!method.getName().equals("byteArray") || args.length != 1) return null;
+            Object a = args[0];
+            if (a instanceof byte[]) return byteArray((byte[]) a);
+            if (a instanceof String) return byteArray(((String) a).getBytes(StandardCharsets.ISO_8859_1));
+            return null;
+        });
+    }
+
+    static MontoyaApi api() {
+        return stub(MontoyaApi.class, (method, args) -> null);
+    }
+
+    static WebSocketMessage webSocketMessage(ByteArray payload) {
+        return stub(WebSocketMessage.class, (method, args) -> method.getName().equals("payload") ? payload : null);
+    }
+
+    /** A Proxy history entry with no upgrade request or time, as the Export tab reads it. */
+    static ProxyWebSocketMessage proxyWebSocketMessage(int id, ByteArray payload) {
+        return stub(ProxyWebSocketMessage.class, (method, args) -> {
+            switch (method.getName()) {
+                case "id": return id;
+                case "payload": return payload;
+                case "direction": return Direction.SERVER_TO_CLIENT;
+                default: return null;
+            }
+        });
+    }
+
+    static ByteArray byteArray(byte[] bytes) {
+        return stub(ByteArray.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getBytes": return bytes.clone();
+                case "length": return bytes.length;
+                case "toString": return new String(bytes, StandardCharsets.ISO_8859_1);
+                default: return null;
+            }
+        });
+    }
+
+    private interface Handler {
+        Object handle(java.lang.reflect.Method method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object[] a = args != null ? args : new Object[0];
+            Object result = handler.handle(method, a);
+            if (result != null) return result;
+            Class<?> rt = method.getReturnType();
+            if (rt == boolean.class) return false;
+            if (rt == int.class) return 0;
+            if (rt == long.class) return 0L;
+            if (rt.isInterface()) return stub(rt, (m, x) -> null); // fluent sub-APIs (userInterface(), logging(), ...)
+            return null;
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package x.mux0x.protobufws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One heuristic parse of a {@link FrameCorpus.Kind#DEEP_NEAR_MISS} frame, under the default
+ * {@link ParseBudget} or with only the depth and embedded-size limits left. "cold" is the first
+ * parse in a fresh JVM, as when a frame is opened right after Burp starts; "warm" is after JIT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBudgetBenchmark {
+
+    @Param({"DEFAULT", "UNBOUNDED"})
+    public String budget;
+
+    @Param({"25165824"})
+    public int size;
+
+    private byte[] frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = FrameCorpus.frame(FrameCorpus.Kind.DEEP_NEAR_MISS, size);
+        ParseBudget.Limits d = ParseBudget.Limits.DEFAULT;
+        ParseBudget.limits = budget.equals("DEFAULT") ? d
+                : new ParseBudget.Limits(d.maxDepth, d.maxEmbeddedBytes, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ParseBudget.limits = ParseBudget.Limits.DEFAULT;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public ProtoWire.ParseResult cold() {
+        return ProtoWire.tryParse(frame);
+    }
+
+    @Benchmark
+    public ProtoWire.ParseResult warm() {
+        return ProtoWire.tryParse(frame);
+    }
+}
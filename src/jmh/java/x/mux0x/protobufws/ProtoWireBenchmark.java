@@ -0,0 +1,93 @@
+package x.mux0x.protobufws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of the individual ProtoWire stages over the synthetic corpus. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtoWireBenchmark {
+
+    @Param({"FLAT", "NESTED", "STRINGS", "PACKED", "BASE64", "NEAR_MISS"})
+    public FrameCorpus.Kind kind;
+
+    @Param({"100", "16384", "1048576", "16777216"})
+    public int size;
+
+    private byte[] frame;
+    private String frameText;
+    private byte[] body;              // protobuf bytes after base64 unwrapping, if any
+    private ProtoWire.Node root;      // null for frames that do not parse
+    private List<ProtoWire.NodePath> leaves;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = FrameCorpus.frame(kind, size);
+        frameText = new String(frame, StandardCharsets.ISO_8859_1);
+        byte[] decoded = kind == FrameCorpus.Kind.BASE64 ? ProtoWire.tryDecodeBase64(frameText) : null;
+        body = decoded != null ? decoded : frame;
+        ProtoWire.ParseResult parsed = ProtoWire.tryParse(body);
+        root = parsed != null ? parsed.root : null;
+        leaves = root != null ? ProtoWire.collectEditableLeaves(root) : List.of();
+    }
+
+    @Benchmark
+    public boolean looksLikeProtobuf() {
+        return ProtoWire.looksLikeProtobuf(body);
+    }
+
+    @Benchmark
+    public ProtoWire.ParseResult parse() {
+        return ProtoWire.tryParse(body);
+    }
+
+    @Benchmark
+    public byte[] serializeClean() {
+        return root != null ? ProtoWire.serialize(root) : null;
+    }
+
+    @Benchmark
+    public byte[] serializeEdited() {
+        if (root == null || leaves.isEmpty()) return null;
+        ProtoWire.Node working = ProtoWire.copy(root);
+        List<ProtoWire.NodePath> workingLeaves = ProtoWire.collectEditableLeaves(working);
+        workingLeaves.get(workingLeaves.size() / 2).node.setValue("edited".getBytes(StandardCharsets.UTF_8));
+        return ProtoWire.serialize(working);
+    }
+
+    @Benchmark
+    public List<ProtoWire.NodePath> collectEditableLeaves() {
+        return root != null ? ProtoWire.collectEditableLeaves(root) : null;
+    }
+
+    @Benchmark
+    public void isUtf8Printable(Blackhole bh) {
+        for (ProtoWire.NodePath np : leaves) {
+            bh.consume(ProtoWire.isUtf8Printable(np.node.buf, np.node.offset, np.node.length));
+        }
+    }
+
+    @Benchmark
+    public byte[] tryDecodeBase64() {
+        return ProtoWire.tryDecodeBase64(frameText);
+    }
+}
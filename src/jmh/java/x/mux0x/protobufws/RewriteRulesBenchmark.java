@@ -0,0 +1,74 @@
+package x.mux0x.protobufws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proxy rewriting as the WebSocket handler runs it: five rules, two of them regexes, applied to
+ * one frame per invocation (frames per second). MATCHING rules name fields the corpus uses;
+ * MISSING rules name fields it never has, which is the cost every unaffected frame pays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RewriteRulesBenchmark {
+
+    // Frames cycle through this many distinct payloads, a little apart in size
+    private static final int DISTINCT_FRAMES = 64;
+
+    @Param({"FLAT", "NESTED"})
+    public FrameCorpus.Kind kind;
+
+    @Param({"100", "1024"})
+    public int size;
+
+    @Param({"MATCHING", "MISSING"})
+    public String rules;
+
+    private byte[][] frames;
+    private RewriteRules compiled;
+    private RewriteRules.Trie trie;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frames = new byte[DISTINCT_FRAMES][];
+        for (int i = 0; i < DISTINCT_FRAMES; i++) frames[i] = FrameCorpus.frame(kind, size + i);
+        int shift = rules.equals("MISSING") ? 100 : 0;
+        List<RewriteRules.Rule> list = new ArrayList<>();
+        list.add(rule((2 + shift) + "", "", RewriteRules.Action.SET, "0"));
+        list.add(rule((5 + shift) + "", "", RewriteRules.Action.DROP, ""));
+        list.add(rule((7 + shift) + "", "[aeiou]+", RewriteRules.Action.REPLACE, "_"));
+        list.add(rule((1 + shift) + ".*", "^[0-9]+$", RewriteRules.Action.REPLACE, "1"));
+        list.add(rule((3 + shift) + ".2", "", RewriteRules.Action.SET, "rewritten"));
+        compiled = RewriteRules.compile(list);
+        trie = compiled.trieFor("wss://bench.test/socket", null);
+    }
+
+    private static RewriteRules.Rule rule(String path, String match, RewriteRules.Action action, String replacement) {
+        return new RewriteRules.Rule(true, "", null, path, match, action, replacement);
+    }
+
+    @Benchmark
+    public byte[] apply() {
+        byte[] frame = frames[next++ & (DISTINCT_FRAMES - 1)];
+        return compiled.apply(trie, frame);
+    }
+}
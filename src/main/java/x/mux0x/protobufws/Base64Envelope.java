@@ -0,0 +1,132 @@
+package x.mux0x.protobufws;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Locates base64 text inside a frame and remembers how to put it back. Detection is a single
+ * table-driven pass over the payload bytes that rejects non-base64 input without throwing or
+ * building a String, so plain-text sockets pay almost nothing for it.
+ *
+ * Two shapes are recognised: the whole payload (surrounding whitespace allowed), or a quoted token
+ * inside a JSON/text envelope such as {@code {"data":"CgRoaS..."}}. Standard and URL-safe
+ * alphabets are both accepted, padded or not, but never mixed within one token.
+ */
+final class Base64Envelope {
+
+    // Envelope tokens shorter than this are too likely to be ordinary words or IDs
+    static final int MIN_ENVELOPE_TOKEN = 16;
+
+    private static final byte STD = 1, URL = 2, BOTH = STD | URL, PAD = 4;
+    private static final byte[] CLASS = new byte[256];
+    static {
+        for (int c = 'A'; c <= 'Z'; c++) CLASS[c] = BOTH;
+        for (int c = 'a'; c <= 'z'; c++) CLASS[c] = BOTH;
+        for (int c = '0'; c <= '9'; c++) CLASS[c] = BOTH;
+        CLASS['+'] = STD;
+        CLASS['/'] = STD;
+        CLASS['-'] = URL;
+        CLASS['_'] = URL;
+        CLASS['='] = PAD;
+    }
+
+    final int start;          // token span within the payload
+    final int end;
+    final boolean urlSafe;
+    final boolean padded;
+    final boolean wholePayload; // false when the token sits inside a text envelope
+
+    private Base64Envelope(int start, int end, boolean urlSafe, boolean padded, boolean wholePayload) {
+        this.start = start;
+        this.end = end;
+        this.urlSafe = urlSafe;
+        this.padded = padded;
+        this.wholePayload = wholePayload;
+    }
+
+    /** The whole (whitespace-trimmed) payload as base64, else the longest quoted token; null if neither. */
+    static Base64Envelope find(byte[] payload) {
+        Base64Envelope whole = whole(payload, 0, payload.length);
+        return whole != null ? whole : quotedToken(payload);
+    }
+
+    /** [off, end) minus surrounding whitespace, if that is a single well-formed base64 token. */
+    static Base64Envelope whole(byte[] a, int off, int end) {
+        int s = off, e = end;
+        while (s < e && isSpace(a[s])) s++;
+        while (e > s && isSpace(a[e - 1])) e--;
+        if (e - s < 4) return null;
+        return token(a, s, e, true);
+    }
+
+    private static Base64Envelope quotedToken(byte[] a) {
+        Base64Envelope best = null;
+        int i = 0, n = a.length;
+        while (i < n) {
+            if (a[i++] != '"') continue;
+            int s = i;
+            while (i < n && CLASS[a[i] & 0xFF] != 0) i++;
+            if (i < n && a[i] == '"' && i - s >= MIN_ENVELOPE_TOKEN && (best == null || i - s > best.end - best.start)) {
+                Base64Envelope t = token(a, s, i, false);
+                if (t != null) best = t;
+            }
+            if (i < n && a[i] == '"') i++; // closing quote; never reuse it as an opening one
+        }
+        return best;
+    }
+
+    /** Validates alphabet consistency, padding position and length for the token [s, e). */
+    private static Base64Envelope token(byte[] a, int s, int e, boolean wholePayload) {
+        int alphabet = BOTH;
+        int pad = 0;
+        for (int i = s; i < e; i++) {
+            int c = CLASS[a[i] & 0xFF];
+            if (c == 0) return null;
+            if (c == PAD) {
+                pad++;
+                continue;
+            }
+            if (pad > 0) return null; // data after padding
+            alphabet &= c;
+            if (alphabet == 0) return null; // '+' or '/' mixed with '-' or '_'
+        }
+        int len = e - s;
+        if (pad > 2) return null;
+        if (pad > 0 ? (len & 3) != 0 : (len & 3) == 1) return null;
+        return new Base64Envelope(s, e, alphabet == URL, pad > 0, wholePayload);
+    }
+
+    /** Decodes the token straight from the payload bytes; no String and no intermediate copy. */
+    byte[] decode(byte[] payload) {
+        return decode(payload, end - start);
+    }
+
+    /** Decodes only the first {@code maxChars} characters (whole 4-character groups) of a longer token. */
+    byte[] decodePrefix(byte[] payload, int maxChars) {
+        return end - start <= maxChars ? decode(payload) : decode(payload, maxChars & ~3);
+    }
+
+    private byte[] decode(byte[] payload, int chars) {
+        Base64.Decoder decoder = urlSafe ? Base64.getUrlDecoder() : Base64.getDecoder();
+        ByteBuffer out = decoder.decode(ByteBuffer.wrap(payload, start, chars)); // pre-validated: cannot throw
+        byte[] arr = out.array();
+        return out.remaining() == arr.length ? arr : Arrays.copyOfRange(arr, out.position(), out.limit());
+    }
+
+    /** Re-encodes {@code body} in this token's alphabet and padding, keeping the surrounding bytes. */
+    byte[] wrap(byte[] payload, byte[] body) {
+        Base64.Encoder encoder = urlSafe ? Base64.getUrlEncoder() : Base64.getEncoder();
+        if (!padded) encoder = encoder.withoutPadding();
+        byte[] encoded = encoder.encode(body);
+        byte[] out = new byte[start + encoded.length + (payload.length - end)];
+        System.arraycopy(payload, 0, out, 0, start);
+        System.arraycopy(encoded, 0, out, start, encoded.length);
+        System.arraycopy(payload, end, out, start + encoded.length, payload.length - end);
+        return out;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,278 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.proxy.ProxyWebSocketMessage;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes Proxy WebSocket history in parallel and streams one record per protobuf frame to disk.
+ * History is cut into fixed-size batches; each batch is decoded by a fork-join task that splits
+ * down to small slices, and the calling thread writes finished batches in history order. At most
+ * {@link #IN_FLIGHT_BATCHES} batches exist at once, so memory stays flat however long the history
+ * is and decoding never runs far ahead of a slow disk.
+ */
+final class BulkExport {
+
+    enum Format { JSONL, CSV }
+
+    /** Receives progress from the writing thread after every batch. */
+    interface Progress {
+        void update(int done, int total, long protobufFrames);
+    }
+
+    private static final int BATCH_FRAMES = 2048;
+    private static final int SLICE_FRAMES = 64;          // below this a fork costs more than it saves
+    private static final int IN_FLIGHT_BATCHES = 4;
+    private static final int WRITE_BUFFER_CHARS = 1 << 20;
+
+    private final List<ProxyWebSocketMessage> history;
+    private final SchemaRegistry schemas;
+    private final Format format;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    BulkExport(List<ProxyWebSocketMessage> history, SchemaRegistry schemas, Format format) {
+        this.history = history;
+        this.schemas = schemas;
+        this.format = format;
+    }
+
+    void cancel() { cancelled.set(true); }
+
+    boolean isCancelled() { return cancelled.get(); }
+
+    /**
+     * Runs the export on {@code pool} and blocks until it is written; returns the number of
+     * protobuf frames exported. Throws CancellationException if {@link #cancel} was called.
+     */
+    long run(ForkJoinPool pool, Path out, Progress progress) throws IOException {
+        int total = history.size();
+        long protobufFrames = 0;
+        try (Writer w = new BufferedWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_CHARS)) {
+            if (format == Format.CSV) w.write("message_id,websocket_id,time,direction,url,message,path,field,type,value\n");
+
+            ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+            int next = 0, done = 0;
+            try {
+                while (done < total) {
+                    // Keep the pool fed, but never more than IN_FLIGHT_BATCHES ahead of the writer
+                    while (next < total && inFlight.size() < IN_FLIGHT_BATCHES) {
+                        int end = Math.min(total, next + BATCH_FRAMES);
+                        inFlight.add(pool.submit(new Batch(next, end)));
+                        next = end;
+                    }
+                    Chunk chunk = inFlight.poll().join();
+                    if (cancelled.get()) throw new CancellationException();
+                    for (String part : chunk.parts) w.write(part);
+                    done += chunk.frames;
+                    protobufFrames += chunk.protobufFrames;
+                    progress.update(done, total, protobufFrames);
+                }
+            } finally {
+                for (ForkJoinTask<Chunk> t : inFlight) t.cancel(true);
+            }
+        }
+        return protobufFrames;
+    }
+
+    /** Rendered output for a contiguous range of history, one string per slice. */
+    private static final class Chunk {
+        final String[] parts;
+        final int frames;
+        final long protobufFrames;
+
+        Chunk(String[] parts, int frames, long protobufFrames) {
+            this.parts = parts;
+            this.frames = frames;
+            this.protobufFrames = protobufFrames;
+        }
+    }
+
+    /** One batch: forks a slice per {@link #SLICE_FRAMES} frames and gathers them in order. */
+    private final class Batch extends RecursiveTask<Chunk> {
+        private final int from, to;
+
+        Batch(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Chunk compute() {
+            int n = (to - from + SLICE_FRAMES - 1) / SLICE_FRAMES;
+            String[] parts = new String[n];
+            long[] protobuf = new long[n];
+            List<ForkJoinTask<?>> slices = new ArrayList<>(n);
+            for (int k = 0; k < n; k++) {
+                int s = from + k * SLICE_FRAMES, e = Math.min(to, s + SLICE_FRAMES), slot = k;
+                slices.add(ForkJoinTask.adapt(() -> {
+                    if (cancelled.get()) { parts[slot] = ""; return; }
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = s; i < e; i++) {
+                        if (render(history.get(i), sb)) protobuf[slot]++;
+                    }
+                    parts[slot] = sb.toString();
+                }));
+            }
+            invokeAll(slices);
+            long total = 0;
+            for (long c : protobuf) total += c;
+            return new Chunk(parts, to - from, total);
+        }
+    }
+
+    /** Appends the record(s) for one frame; returns false (appending nothing) if it is not protobuf. */
+    private boolean render(ProxyWebSocketMessage m, StringBuilder sb) {
+        String url;
+        DecodedFrame frame;
+        try {
+            url = m.upgradeRequest() != null ? m.upgradeRequest().url() : null;
+            // Not through DecodeCache: a bulk pass would only evict what the editors are using
+            frame = DecodedFrame.decode(m.payload().getBytes(), schemas.resolve(url, m.direction()));
+        } catch (RuntimeException e) {
+            return false; // a frame Burp can no longer produce is skipped, not fatal
+        }
+        if (!frame.isProtobuf()) return false;
+
+        String time = m.time() != null ? m.time().toOffsetDateTime().toString() : "";
+        // One record per message; a framed payload carrying several gets several, numbered from 1
+        for (int i = 0; i < frame.messages.size(); i++) {
+            List<ProtoWire.NodePath> leaves = ProtoWire.collectEditableLeaves(frame.messages.get(i).root());
+            int message = i + 1;
+            if (format == Format.JSONL) {
+                sb.append(json(j -> {
+                    j.name("message_id").value(m.id());
+                    j.name("websocket_id").value(m.webSocketId());
+                    j.name("time").value(time);
+                    j.name("direction").value(String.valueOf(m.direction()));
+                    j.name("url").value(url);
+                    describe(j, frame, message);
+                    fields(j, leaves);
+                })).append('\n');
+                continue;
+            }
+            StringBuilder columns = new StringBuilder().append(m.id()).append(',').append(m.webSocketId()).append(',')
+                    .append(time).append(',').append(m.direction()).append(',');
+            csv(columns, url).append(',').append(message).append(',');
+            csvRows(sb, columns, leaves);
+        }
+        return true;
+    }
+
+    /** Writes the members of one JSON object. */
+    interface JsonMembers {
+        void write(JsonWriter j) throws IOException;
+    }
+
+    /** One JSON object on a single line. */
+    static String json(JsonMembers members) {
+        StringWriter s = new StringWriter();
+        try (JsonWriter j = new JsonWriter(s)) {
+            j.setHtmlSafe(false);
+            j.beginObject();
+            members.write(j);
+            j.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter never throws
+        }
+        return s.toString();
+    }
+
+    /** How message {@code message} (from 1) of {@code frame} was carried: size, envelope, compression, framing and type. */
+    static void describe(JsonWriter j, DecodedFrame frame, int message) throws IOException {
+        j.name("length").value(frame.payload.length);
+        j.name("base64").value(frame.isBase64());
+        Compression compression = frame.messages.get(message - 1).compression;
+        if (compression != null) j.name("compression").value(compression.name());
+        if (frame.framing != null) {
+            j.name("framing").value(frame.framing.kind.name());
+            j.name("message").value(message);
+        }
+        if (frame.layout != null) j.name("type").value(frame.layout.fullName);
+    }
+
+    /** The "fields" array: path, schema name, type and value of each leaf. */
+    static void fields(JsonWriter j, List<ProtoWire.NodePath> leaves) throws IOException {
+        j.name("fields").beginArray();
+        for (ProtoWire.NodePath leaf : leaves) {
+            j.beginObject();
+            j.name("path").value(leaf.path);
+            if (leaf.node.fieldName != null) j.name("field").value(leaf.node.fieldName);
+            j.name("type").value(kind(leaf.node, leaf.utf8));
+            j.name("value").value(value(leaf.node, leaf.utf8));
+            j.endObject();
+        }
+        j.endArray();
+    }
+
+    /** One CSV row per leaf: {@code columns} (escaped, ending in a comma), then path, field, type and value. */
+    static void csvRows(StringBuilder sb, CharSequence columns, List<ProtoWire.NodePath> leaves) {
+        for (ProtoWire.NodePath leaf : leaves) {
+            sb.append(columns).append(leaf.path).append(',');
+            csv(sb, leaf.node.fieldName != null ? leaf.node.fieldName : "").append(',')
+              .append(kind(leaf.node, leaf.utf8)).append(',');
+            csv(sb, value(leaf.node, leaf.utf8)).append('\n');
+        }
+    }
+
+    static String kind(ProtoWire.Node n, boolean utf8) {
+        switch (n.wireType) {
+            case 0: return "varint";
+            case 1: return "fixed64";
+            case 5: return "fixed32";
+            case ProtoWire.UNPARSED_SPAN: return "unparsed";
+            default:
+                if (utf8) return "string";
+                return n.packed != null ? "packed " + n.packed.typeName() : "bytes";
+        }
+    }
+
+    /**
+     * Numbers as unsigned decimal (fixed-width ones read little-endian), strings as text, packed
+     * arrays as "[1, 2, 3]", other binary leaves as standard base64.
+     */
+    static String value(ProtoWire.Node n, boolean utf8) {
+        if (n.wireType == 0) return Long.toUnsignedString(new WireReader(n.buf, n.offset).readVarint64(n.offset + n.length));
+        if (n.wireType == 1 || n.wireType == 5) {
+            long v = 0;
+            for (int i = n.length - 1; i >= 0; i--) v = v << 8 | (n.buf[n.offset + i] & 0xFF);
+            return Long.toUnsignedString(v);
+        }
+        if (n.packed != null) return n.packed.toString();
+        if (utf8) return new String(n.buf, n.offset, n.length, StandardCharsets.UTF_8);
+        return Base64.getEncoder().encodeToString(n.valueBytes());
+    }
+
+    static StringBuilder csv(StringBuilder sb, String v) {
+        if (v == null) return sb;
+        boolean quote = false;
+        for (int i = 0; i < v.length() && !quote; i++) {
+            char c = v.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) return sb.append(v);
+        sb.append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+}
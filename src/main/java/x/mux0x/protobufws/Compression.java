@@ -0,0 +1,208 @@
+package x.mux0x.protobufws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A gzip or zlib wrapper around a protobuf body, recognised by its header magic, and how to put
+ * it back. Headers and trailers are handled here so the native {@link Inflater}/{@link Deflater}
+ * run in raw (nowrap) mode and can be pooled across frames instead of allocated per frame; a
+ * busy socket would otherwise churn native zlib state for every message.
+ *
+ * Recompression keeps the format, the original header bytes (gzip mtime/OS/name, zlib level
+ * flags) and the level those headers advertise. The compressed bytes need not match the
+ * original, only decode to the same body.
+ */
+final class Compression {
+
+    enum Format { GZIP, ZLIB }
+
+    // Larger bodies are treated as a decompression bomb rather than a message
+    static final int MAX_INFLATED_BYTES = Framing.MAX_MESSAGE_BYTES;
+
+    private static final int POOL_SIZE = 8;
+    // Largest output presized per compressed byte; protobuf rarely compresses better than this
+    private static final int MAX_PRESIZE_RATIO = 32;
+    private static final int MIN_OUTPUT_BYTES = 256;
+    private static final int GZIP_TRAILER_BYTES = 8;
+    private static final int ZLIB_TRAILER_BYTES = 4;
+    private static final int FHCRC = 0x02, FEXTRA = 0x04, FNAME = 0x08, FCOMMENT = 0x10, FRESERVED = 0xE0;
+
+    private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final List<ArrayBlockingQueue<Deflater>> DEFLATERS = new ArrayList<>(10); // by level
+    static {
+        for (int level = 0; level < 10; level++) DEFLATERS.add(new ArrayBlockingQueue<>(POOL_SIZE));
+    }
+
+    final Format format;
+    final int level;
+    private final byte[] header; // original header, written back verbatim
+
+    private Compression(Format format, int level, byte[] header) {
+        this.format = format;
+        this.level = level;
+        this.header = header;
+    }
+
+    /** The wrapper of [off, end) if it starts with a well-formed gzip or zlib header; null otherwise. */
+    static Compression detect(byte[] a, int off, int end) {
+        int n = end - off;
+        if (n >= 10 + GZIP_TRAILER_BYTES && (a[off] & 0xFF) == 0x1F && (a[off + 1] & 0xFF) == 0x8B && a[off + 2] == 8) {
+            int len = gzipHeaderLength(a, off, end);
+            if (len < 0 || n - len < GZIP_TRAILER_BYTES) return null;
+            int xfl = a[off + 8] & 0xFF;
+            int level = xfl == 2 ? Deflater.BEST_COMPRESSION : xfl == 4 ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION;
+            return new Compression(Format.GZIP, level, Arrays.copyOfRange(a, off, off + len));
+        }
+        if (n >= 2 + ZLIB_TRAILER_BYTES + 1) {
+            int cmf = a[off] & 0xFF, flg = a[off + 1] & 0xFF;
+            // deflate, window <= 32K, check bits valid, no preset dictionary
+            if ((cmf & 0x0F) != 8 || (cmf >>> 4) > 7 || ((cmf << 8) | flg) % 31 != 0 || (flg & 0x20) != 0) return null;
+            int[] levels = {Deflater.BEST_SPEED, 5, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+            return new Compression(Format.ZLIB, levels[flg >>> 6], new byte[]{(byte) cmf, (byte) flg});
+        }
+        return null;
+    }
+
+    /**
+     * Inflates [off, end), which must be exactly one gzip member or zlib stream with a valid
+     * checksum. Returns the body, or null if it is corrupt, truncated, followed by other bytes,
+     * or larger than {@link #MAX_INFLATED_BYTES}.
+     */
+    byte[] inflate(byte[] a, int off, int end) {
+        int trailer = format == Format.GZIP ? GZIP_TRAILER_BYTES : ZLIB_TRAILER_BYTES;
+        int start = off + header.length;
+        if (end - start < trailer) return null;
+
+        // gzip records the body size (mod 2^32) in its last four bytes: presize exactly when sane.
+        // The frame supplies it, so it is capped relative to the input; the loop below grows past that
+        int capacity = Math.max(MIN_OUTPUT_BYTES, Math.min(MAX_INFLATED_BYTES, (end - start) * 4));
+        if (format == Format.GZIP) {
+            long isize = le32(a, end - 4);
+            long cap = Math.max(MIN_OUTPUT_BYTES, (long) (end - start) * MAX_PRESIZE_RATIO);
+            if (isize <= MAX_INFLATED_BYTES) capacity = (int) Math.min(isize, cap);
+        }
+
+        Metrics.Span span = Metrics.start(Metrics.Stage.INFLATE);
+        Inflater inf = INFLATERS.poll();
+        if (inf == null) inf = new Inflater(true);
+        try {
+            inf.setInput(a, start, end - start);
+            byte[] out = new byte[capacity];
+            int n = 0;
+            while (!inf.finished()) {
+                if (n == out.length) {
+                    if (out.length >= MAX_INFLATED_BYTES) return null;
+                    out = Arrays.copyOf(out, (int) Math.min(MAX_INFLATED_BYTES, Math.max(MIN_OUTPUT_BYTES, 2L * out.length)));
+                }
+                int k = inf.inflate(out, n, out.length - n);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary())) return null; // truncated
+                n += k;
+            }
+            int tail = end - inf.getRemaining();
+            if (end - tail != trailer) return null;
+            if (!checksumMatches(out, n, a, tail)) return null;
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inf.reset();
+            if (!INFLATERS.offer(inf)) inf.end();
+            span.end(end - off);
+        }
+    }
+
+    /** {@code body} compressed the same way as the original: same format, header and level. */
+    byte[] deflate(byte[] body) {
+        ArrayBlockingQueue<Deflater> pool = DEFLATERS.get(level < 0 ? 6 : level);
+        Deflater def = pool.poll();
+        if (def == null) def = new Deflater(level, true);
+        try {
+            def.setInput(body);
+            def.finish();
+            WireWriter out = new WireWriter(header.length + body.length / 2 + GZIP_TRAILER_BYTES + 64);
+            out.write(header, 0, header.length);
+            byte[] chunk = new byte[Math.max(MIN_OUTPUT_BYTES, Math.min(64 * 1024, body.length + 64))];
+            while (!def.finished()) {
+                int k = def.deflate(chunk);
+                out.write(chunk, 0, k);
+            }
+            byte[] t = new byte[4];
+            if (format == Format.GZIP) {
+                CRC32 crc = new CRC32();
+                crc.update(body, 0, body.length);
+                putLe32(t, crc.getValue());
+                out.write(t, 0, 4);
+                putLe32(t, body.length);
+            } else {
+                Adler32 adler = new Adler32();
+                adler.update(body, 0, body.length);
+                long v = adler.getValue();
+                t[0] = (byte) (v >>> 24);
+                t[1] = (byte) (v >>> 16);
+                t[2] = (byte) (v >>> 8);
+                t[3] = (byte) v;
+            }
+            out.write(t, 0, 4);
+            return out.toByteArray();
+        } finally {
+            def.reset();
+            if (!pool.offer(def)) def.end();
+        }
+    }
+
+    /** "gzip" or "zlib", for labels and exports. */
+    String name() {
+        return format == Format.GZIP ? "gzip" : "zlib";
+    }
+
+    private boolean checksumMatches(byte[] body, int n, byte[] a, int tail) {
+        if (format == Format.GZIP) {
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, n);
+            return crc.getValue() == le32(a, tail) && (n & 0xFFFFFFFFL) == le32(a, tail + 4);
+        }
+        Adler32 adler = new Adler32();
+        adler.update(body, 0, n);
+        long expected = ((a[tail] & 0xFFL) << 24) | ((a[tail + 1] & 0xFF) << 16) | ((a[tail + 2] & 0xFF) << 8) | (a[tail + 3] & 0xFF);
+        return adler.getValue() == expected;
+    }
+
+    /** Length of the gzip header at {@code off} (RFC 1952 optional fields included), or -1 if malformed. */
+    private static int gzipHeaderLength(byte[] a, int off, int end) {
+        int flg = a[off + 3] & 0xFF;
+        if ((flg & FRESERVED) != 0) return -1;
+        int p = off + 10;
+        if ((flg & FEXTRA) != 0) {
+            if (end - p < 2) return -1;
+            p += 2 + ((a[p] & 0xFF) | (a[p + 1] & 0xFF) << 8);
+        }
+        if ((flg & FNAME) != 0) p = skipZeroTerminated(a, p, end);
+        if (p >= 0 && (flg & FCOMMENT) != 0) p = skipZeroTerminated(a, p, end);
+        if (p >= 0 && (flg & FHCRC) != 0) p += 2;
+        return p < 0 || p > end ? -1 : p - off;
+    }
+
+    private static int skipZeroTerminated(byte[] a, int p, int end) {
+        while (p < end && a[p] != 0) p++;
+        return p < end ? p + 1 : -1;
+    }
+
+    private static long le32(byte[] a, int p) {
+        return (a[p] & 0xFFL) | ((a[p + 1] & 0xFFL) << 8) | ((a[p + 2] & 0xFFL) << 16) | ((a[p + 3] & 0xFFL) << 24);
+    }
+
+    private static void putLe32(byte[] t, long v) {
+        t[0] = (byte) v;
+        t[1] = (byte) (v >>> 8);
+        t[2] = (byte) (v >>> 16);
+        t[3] = (byte) (v >>> 24);
+    }
+}
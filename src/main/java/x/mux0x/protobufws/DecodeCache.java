@@ -0,0 +1,87 @@
+package x.mux0x.protobufws;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of {@link DecodedFrame}s, keyed by a 64-bit hash of the payload.
+ * Burp creates an editor per message view and asks each one both isEnabledFor and setMessage,
+ * so without this the same frame is detected, base64-decoded and parsed over and over while
+ * scrolling through history. Eviction is by total retained bytes, not entry count.
+ * The same payload decoded against different schema layouts gets separate entries.
+ */
+final class DecodeCache {
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long maxRetainedBytes;
+    private final LinkedHashMap<Long, DecodedFrame> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long retainedBytes;
+
+    DecodeCache(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /** Returns the cached decode of {@code payload} against {@code layout} (null = heuristic), decoding and caching it on a miss. */
+    DecodedFrame decode(byte[] payload, MessageLayout layout) {
+        long key = hash(payload);
+        if (layout != null) key ^= System.identityHashCode(layout) * 0x9E3779B97F4A7C15L;
+        synchronized (this) {
+            DecodedFrame hit = entries.get(key);
+            // The stored payload and layout guard against hash collisions
+            if (hit != null && hit.layout == layout && Arrays.equals(hit.payload, payload)) {
+                Metrics.CACHE_HITS.increment();
+                return hit;
+            }
+        }
+        Metrics.CACHE_MISSES.increment();
+
+        DecodedFrame frame = DecodedFrame.decode(payload, layout); // outside the lock; races only waste work
+        // A decode the clock cut short may get further next time, when the JIT is warm or the machine idle
+        if (frame.retainedBytes > maxRetainedBytes || frame.timedOut()) return frame;
+
+        synchronized (this) {
+            DecodedFrame previous = entries.put(key, frame);
+            if (previous != null) retainedBytes -= previous.retainedBytes;
+            retainedBytes += frame.retainedBytes;
+            evict();
+        }
+        return frame;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        retainedBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, DecodedFrame>> it = entries.entrySet().iterator();
+        while (retainedBytes > maxRetainedBytes && it.hasNext()) {
+            retainedBytes -= it.next().getValue().retainedBytes;
+            it.remove();
+        }
+    }
+
+    /** Fast non-cryptographic hash over 8-byte words; the length is mixed in up front. */
+    static long hash(byte[] a) {
+        long h = 0x9E3779B97F4A7C15L ^ a.length;
+        int i = 0;
+        for (; i + 8 <= a.length; i += 8) {
+            long k = (long) LONG_LE.get(a, i) * 0xC2B2AE3D27D4EB4FL;
+            h = Long.rotateLeft(h ^ Long.rotateLeft(k, 31), 27) * 0x9E3779B97F4A7C15L + 0x52DCE729L;
+        }
+        for (; i < a.length; i++) {
+            h = Long.rotateLeft(h ^ ((a[i] & 0xFFL) * 0x27D4EB2F165667C5L), 11) * 0x9E3779B97F4A7C15L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
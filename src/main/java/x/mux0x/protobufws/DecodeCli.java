@@ -0,0 +1,569 @@
+package x.mux0x.protobufws;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Headless decoder for captures taken outside Burp: {@code java -jar sockobuf.jar [options]
+ * capture...}. The capture is memory-mapped and cut into chunks of about {@link #CHUNK_BYTES}
+ * that are decoded in parallel, each frame copied once from the mapping into the array its tree
+ * points into; the main thread writes finished chunks in file order, with at most two per worker
+ * in flight, so multi-gigabyte files run in a flat heap. Raw length-prefixed dumps are split by
+ * hopping over the prefixes and JSONL at line breaks; a HAR file is one JSON document, so it is
+ * tokenized front to back and its frames are handed to the workers in batches.
+ */
+public final class DecodeCli {
+
+    enum Input { RAW, JSONL, HAR }
+
+    enum Output { JSONL, CSV, TREE }
+
+    enum Prefix { VARINT, U32 }
+
+    private static final long CHUNK_BYTES = 1 << 20;
+    private static final int CHUNK_FRAMES = 4096;
+    private static final int HAR_BATCH_FRAMES = 512;
+    private static final int HAR_BATCH_CHARS = 1 << 20;
+    private static final int WRITE_BUFFER_CHARS = 1 << 20;
+    private static final int MAX_FRAME_BYTES = Integer.MAX_VALUE - 8;
+
+    private static final String USAGE = String.join("\n",
+            "usage: java -jar sockobuf.jar [options] capture...",
+            "",
+            "Decodes every protobuf frame in the captures and streams the result to stdout.",
+            "",
+            "  --input raw|jsonl|har   capture format (default: from the extension; .har, .jsonl/.ndjson, else raw)",
+            "  --prefix varint|u32     raw dumps: length prefix before each frame (default varint; u32 = 4-byte big-endian)",
+            "  --format jsonl|csv|tree output: one record per message with all its leaf fields, one row per leaf field,",
+            "                          or one record per message with the whole field tree (default jsonl)",
+            "  --descriptor FILE       descriptor set (protoc --descriptor_set_out); may be repeated",
+            "  --type NAME             fully-qualified root message type to decode against",
+            "  --out FILE              write to FILE instead of stdout",
+            "  --threads N             decoding threads (default: one per core)",
+            "",
+            "JSONL captures hold one object per line with the frame as base64 in \"payload\", or as HAR-style",
+            "\"data\" and \"opcode\" (1 = text); \"direction\", \"url\" and \"time\" are copied to the output.",
+            "",
+            "Exit status: 0 on success, 1 on an I/O error, 2 on bad arguments, 3 if a raw capture ended in a",
+            "malformed or cut-off frame and the rest of it was skipped.");
+
+    private Input input;
+    private Output format = Output.JSONL;
+    private Prefix prefix = Prefix.VARINT;
+    private final List<Path> descriptors = new ArrayList<>();
+    private String type;
+    private Path outFile;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final List<Path> captures = new ArrayList<>();
+
+    private MessageLayout layout;
+    private ForkJoinPool pool;
+    private final ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+    private Writer out;
+    private long frames, protobufFrames, skipped;
+    private boolean truncated; // a capture ended in a malformed or cut-off frame and was only partly decoded
+
+    DecodeCli() { }
+
+    public static void main(String[] args) {
+        int status;
+        try {
+            status = new DecodeCli().run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("sockobuf: " + e.getMessage());
+            System.err.println(USAGE);
+            status = 2;
+        } catch (NoSuchFileException e) {
+            System.err.println("sockobuf: no such file: " + e.getFile());
+            status = 1;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("sockobuf: " + e.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /** One invocation with {@code args}; returns the exit status, or throws what {@link #main} reports. */
+    int run(String[] args) throws IOException {
+        parseArgs(args);
+        if (captures.isEmpty()) {
+            System.out.println(USAGE);
+            return 0;
+        }
+        if (type != null) {
+            SchemaRegistry schemas = new SchemaRegistry();
+            for (Path d : descriptors) {
+                try {
+                    schemas.load(d);
+                } catch (Exception e) {
+                    throw new IOException(d + " is not a usable descriptor set: " + e.getMessage(), e);
+                }
+            }
+            layout = schemas.layout(type);
+            if (layout == null) throw new IllegalArgumentException("message type " + type + " is not in the descriptor sets");
+        }
+
+        long began = System.nanoTime(), bytes = 0;
+        pool = new ForkJoinPool(threads);
+        Writer target = outFile != null
+                ? Files.newBufferedWriter(outFile, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8); // unlike System.out, reports a closed pipe
+        try (Writer w = new BufferedWriter(target, WRITE_BUFFER_CHARS)) {
+            out = w;
+            if (format == Output.CSV) w.write("at,time,direction,url,message,path,field,type,value\n");
+            for (Path capture : captures) {
+                String label = captures.size() > 1 ? capture.getFileName() + ":" : "";
+                try (MappedCapture cap = new MappedCapture(capture)) {
+                    bytes += cap.size();
+                    switch (input != null ? input : inputOf(capture)) {
+                        case RAW: raw(cap, label); break;
+                        case JSONL: jsonl(cap, label); break;
+                        default: har(cap, label); break;
+                    }
+                    while (!inFlight.isEmpty()) writeNext();
+                }
+            }
+        } finally {
+            for (ForkJoinTask<Chunk> t : inFlight) t.cancel(true);
+            pool.shutdownNow();
+        }
+        System.err.printf(Locale.ROOT, "%,d frames, %,d protobuf, %,d skipped; %,d MB in %.1f s%n", frames, protobufFrames,
+                skipped, bytes >> 20, (System.nanoTime() - began) / 1e9);
+        return truncated ? 3 : 0;
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (!a.startsWith("--")) {
+                captures.add(Paths.get(a));
+                continue;
+            }
+            if (a.equals("--help")) {
+                captures.clear();
+                return;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException(a + " needs a value");
+            String v = args[++i];
+            switch (a) {
+                case "--input": input = option(Input.class, a, v); break;
+                case "--prefix": prefix = option(Prefix.class, a, v); break;
+                case "--format": format = option(Output.class, a, v); break;
+                case "--descriptor": descriptors.add(Paths.get(v)); break;
+                case "--type": type = v; break;
+                case "--out": outFile = Paths.get(v); break;
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(v);
+                    } catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) throw new IllegalArgumentException("--threads must be a positive number");
+                    break;
+                default: throw new IllegalArgumentException("unknown option " + a);
+            }
+        }
+        if (type == null && !descriptors.isEmpty()) throw new IllegalArgumentException("--descriptor needs --type");
+    }
+
+    private static <E extends Enum<E>> E option(Class<E> kind, String name, String value) {
+        try {
+            return Enum.valueOf(kind, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("bad value for " + name + ": " + value);
+        }
+    }
+
+    private static Input inputOf(Path capture) {
+        String name = capture.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".har")) return Input.HAR;
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) return Input.JSONL;
+        return Input.RAW;
+    }
+
+    // ————— Pipeline —————
+
+    /** Rendered output of one chunk of the capture. */
+    private static final class Chunk {
+        final StringBuilder text = new StringBuilder();
+        long frames, protobufFrames, skipped;
+    }
+
+    /** Queues a chunk, first writing the oldest one if the workers are two chunks each ahead of the writer. */
+    private void submit(Callable<Chunk> chunk) throws IOException {
+        while (inFlight.size() >= threads * 2) writeNext();
+        inFlight.add(pool.submit(chunk));
+    }
+
+    private void writeNext() throws IOException {
+        Chunk c = inFlight.poll().join();
+        out.append(c.text);
+        frames += c.frames;
+        protobufFrames += c.protobufFrames;
+        skipped += c.skipped;
+    }
+
+    // ————— Raw length-prefixed dumps —————
+
+    /** Hops from prefix to prefix, which touches one or a few bytes per frame, and cuts a chunk every {@link #CHUNK_BYTES}. */
+    private void raw(MappedCapture cap, String label) throws IOException {
+        long size = cap.size(), pos = 0, start = 0;
+        int n = 0;
+        int[] length = new int[1];
+        while (pos < size) {
+            long body = prefix(cap, pos, length);
+            if (body < 0 || body + length[0] > size) {
+                System.err.println("sockobuf: bad or cut-off length prefix at byte " + pos + "; the rest of the file is skipped");
+                truncated = true;
+                break;
+            }
+            pos = body + length[0];
+            if (++n == CHUNK_FRAMES || pos - start >= CHUNK_BYTES) {
+                long from = start, to = pos;
+                submit(() -> rawChunk(cap, label, from, to));
+                start = pos;
+                n = 0;
+            }
+        }
+        if (pos > start) {
+            long from = start, to = pos;
+            submit(() -> rawChunk(cap, label, from, to));
+        }
+    }
+
+    private Chunk rawChunk(MappedCapture cap, String label, long from, long to) {
+        Chunk c = new Chunk();
+        int[] length = new int[1];
+        for (long pos = from; pos < to; ) {
+            long body = prefix(cap, pos, length);
+            Frame f = new Frame(label + pos);
+            f.payload = new byte[length[0]];
+            cap.get(body, f.payload, 0, length[0]);
+            render(f, c);
+            pos = body + length[0];
+        }
+        return c;
+    }
+
+    /** Reads the length prefix at {@code pos}: returns where the frame starts and sets {@code length[0]}, or -1 if malformed. */
+    private long prefix(MappedCapture cap, long pos, int[] length) {
+        long size = cap.size();
+        long value = 0;
+        if (prefix == Prefix.U32) {
+            if (pos + 4 > size) return -1;
+            for (int i = 0; i < 4; i++) value = value << 8 | cap.get(pos++);
+        } else {
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28 || pos >= size) return -1;
+                int b = cap.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) break;
+            }
+        }
+        if (value > MAX_FRAME_BYTES) return -1;
+        length[0] = (int) value;
+        return pos;
+    }
+
+    // ————— JSONL —————
+
+    private void jsonl(MappedCapture cap, String label) throws IOException {
+        long size = cap.size();
+        for (long start = 0; start < size; ) {
+            long from = start, to = cap.nextLine(Math.min(size, start + CHUNK_BYTES) - 1);
+            submit(() -> jsonlChunk(cap, label, from, to));
+            start = to;
+        }
+    }
+
+    private Chunk jsonlChunk(MappedCapture cap, String label, long from, long to) {
+        Chunk c = new Chunk();
+        byte[] line = new byte[4096];
+        for (long pos = from; pos < to; ) {
+            long end = cap.nextLine(pos);
+            long len = end - pos;
+            if (len > MAX_FRAME_BYTES) {
+                c.skipped++;
+                pos = end;
+                continue;
+            }
+            if (line.length < len) line = new byte[(int) Math.max(len, line.length * 2L)];
+            cap.get(pos, line, 0, (int) len);
+            String text = new String(line, 0, (int) len, StandardCharsets.UTF_8);
+            if (!text.isBlank()) {
+                Frame f = new Frame(label + pos);
+                try {
+                    JsonObject o = JsonParser.parseString(text).getAsJsonObject();
+                    f.direction = direction(string(o, "direction"), string(o, "type"));
+                    f.url = string(o, "url");
+                    f.time = string(o, "time");
+                    String payload = string(o, "payload");
+                    if (payload != null) {
+                        f.data = payload;
+                        f.base64 = true;
+                    } else {
+                        f.data = string(o, "data");
+                        f.base64 = !"1".equals(string(o, "opcode"));
+                    }
+                } catch (RuntimeException e) {
+                    f.data = null; // not JSON, or not an object
+                }
+                if (f.data != null) render(f, c);
+                else c.skipped++;
+            }
+            pos = end;
+        }
+        return c;
+    }
+
+    private static String string(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return e != null && e.isJsonPrimitive() ? e.getAsString() : null;
+    }
+
+    // ————— HAR —————
+
+    /** Streams log.entries: WebSocket messages, plus request and response bodies whose MIME type looks binary or protobuf. */
+    private void har(MappedCapture cap, String label) throws IOException {
+        List<Frame> batch = new ArrayList<>(HAR_BATCH_FRAMES);
+        long[] chars = new long[1];
+        try (JsonReader r = new JsonReader(new BufferedReader(new InputStreamReader(cap.stream(), StandardCharsets.UTF_8), 1 << 16))) {
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!r.nextName().equals("log")) { r.skipValue(); continue; }
+                r.beginObject();
+                while (r.hasNext()) {
+                    if (!r.nextName().equals("entries")) { r.skipValue(); continue; }
+                    r.beginArray();
+                    for (int entry = 0; r.hasNext(); entry++) {
+                        harEntry(r, label + "entries[" + entry + "]", batch, chars);
+                    }
+                    r.endArray();
+                }
+                r.endObject();
+            }
+            r.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("not a HAR file: " + e.getMessage(), e);
+        }
+        flush(batch, chars);
+    }
+
+    private void harEntry(JsonReader r, String at, List<Frame> batch, long[] chars) throws IOException {
+        String url = null;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "request": {
+                    Frame body = new Frame(at + ".request.postData");
+                    body.direction = "CLIENT_TO_SERVER";
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        String name = r.nextName();
+                        if (name.equals("url")) url = string(r);
+                        else if (name.equals("postData")) harBody(r, body);
+                        else r.skipValue();
+                    }
+                    r.endObject();
+                    body.url = url;
+                    add(body, batch, chars);
+                    break;
+                }
+                case "response": {
+                    Frame body = new Frame(at + ".response.content");
+                    body.direction = "SERVER_TO_CLIENT";
+                    body.url = url;
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        if (r.nextName().equals("content")) harBody(r, body);
+                        else r.skipValue();
+                    }
+                    r.endObject();
+                    add(body, batch, chars);
+                    break;
+                }
+                case "_webSocketMessages": {
+                    r.beginArray();
+                    for (int i = 0; r.hasNext(); i++) {
+                        Frame f = new Frame(at + "._webSocketMessages[" + i + "]");
+                        f.url = url;
+                        String opcode = null, kind = null;
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            switch (r.nextName()) {
+                                case "type": kind = string(r); break;
+                                case "time": f.time = string(r); break;
+                                case "opcode": opcode = string(r); break;
+                                case "data": f.data = string(r); break;
+                                default: r.skipValue();
+                            }
+                        }
+                        r.endObject();
+                        f.direction = direction(null, kind);
+                        f.base64 = !"1".equals(opcode);
+                        add(f, batch, chars);
+                    }
+                    r.endArray();
+                    break;
+                }
+                default: r.skipValue();
+            }
+        }
+        r.endObject();
+    }
+
+    /** A postData or content object; its text is kept only when the MIME type could carry protobuf. */
+    private static void harBody(JsonReader r, Frame f) throws IOException {
+        String mime = null, text = null, encoding = null;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "mimeType": mime = string(r); break;
+                case "text": text = string(r); break;
+                case "encoding": encoding = string(r); break;
+                default: r.skipValue();
+            }
+        }
+        r.endObject();
+        mime = mime != null ? mime.toLowerCase(Locale.ROOT) : "";
+        if (mime.contains("proto") || mime.contains("grpc") || mime.contains("octet-stream")) {
+            f.data = text;
+            f.base64 = "base64".equals(encoding);
+        }
+    }
+
+    private void add(Frame f, List<Frame> batch, long[] chars) throws IOException {
+        if (f.data == null) return;
+        batch.add(f);
+        chars[0] += f.data.length();
+        if (batch.size() == HAR_BATCH_FRAMES || chars[0] >= HAR_BATCH_CHARS) flush(batch, chars);
+    }
+
+    private void flush(List<Frame> batch, long[] chars) throws IOException {
+        if (batch.isEmpty()) return;
+        Frame[] frames = batch.toArray(new Frame[0]);
+        batch.clear();
+        chars[0] = 0;
+        submit(() -> {
+            Chunk c = new Chunk();
+            for (Frame f : frames) render(f, c);
+            return c;
+        });
+    }
+
+    private static String string(JsonReader r) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.STRING || t == JsonToken.NUMBER) return r.nextString();
+        r.skipValue();
+        return null;
+    }
+
+    /** An explicit direction as given, else a HAR "send"/"receive" mapped to Burp's direction names. */
+    private static String direction(String direction, String kind) {
+        if (direction != null) return direction;
+        if ("send".equals(kind)) return "CLIENT_TO_SERVER";
+        if ("receive".equals(kind)) return "SERVER_TO_CLIENT";
+        return null;
+    }
+
+    // ————— Output —————
+
+    /** One frame and where it came from; the payload is either read from the mapping or decoded from {@link #data}. */
+    private static final class Frame {
+        final String at;        // byte offset of the frame or line, or the JSON path in a HAR file
+        String direction, url, time;
+        String data;            // base64 or text from a JSON capture
+        boolean base64;
+        byte[] payload;
+
+        Frame(String at) { this.at = at; }
+    }
+
+    private void render(Frame f, Chunk c) {
+        c.frames++;
+        DecodedFrame frame;
+        try {
+            byte[] payload = f.payload != null ? f.payload
+                    : f.base64 ? Base64.getDecoder().decode(f.data) : f.data.getBytes(StandardCharsets.UTF_8);
+            frame = DecodedFrame.decode(payload, layout);
+        } catch (RuntimeException e) {
+            c.skipped++; // bad base64, or a frame the decoder gave up on: skipped, not fatal
+            return;
+        }
+        if (!frame.isProtobuf()) return;
+        c.protobufFrames++;
+
+        StringBuilder sb = c.text;
+        for (int i = 0; i < frame.messages.size(); i++) {
+            ProtoWire.Node root = frame.messages.get(i).root();
+            int message = i + 1;
+            if (format == Output.CSV) {
+                StringBuilder columns = new StringBuilder();
+                BulkExport.csv(columns, f.at).append(',');
+                BulkExport.csv(columns, f.time).append(',');
+                BulkExport.csv(columns, f.direction).append(',');
+                BulkExport.csv(columns, f.url).append(',').append(message).append(',');
+                BulkExport.csvRows(sb, columns, ProtoWire.collectLeaves(root));
+                continue;
+            }
+            sb.append(BulkExport.json(j -> {
+                j.name("at").value(f.at);
+                if (f.time != null) j.name("time").value(f.time);
+                if (f.direction != null) j.name("direction").value(f.direction);
+                if (f.url != null) j.name("url").value(f.url);
+                BulkExport.describe(j, frame, message);
+                if (format == Output.JSONL) {
+                    BulkExport.fields(j, ProtoWire.collectLeaves(root));
+                    return;
+                }
+                j.name("fields").beginArray();
+                if (root.children != null) for (ProtoWire.Node child : root.children) node(j, child);
+                j.endArray();
+            })).append('\n');
+        }
+    }
+
+    /** One field of the tree: number, schema name, and its fields or the type and value a leaf row would have. */
+    private static void node(JsonWriter j, ProtoWire.Node n) throws IOException {
+        j.beginObject();
+        j.name("number").value(n.fieldNumber);
+        if (n.fieldName != null) j.name("field").value(n.fieldName);
+        if (n.children != null) {
+            j.name("fields").beginArray();
+            for (ProtoWire.Node child : n.children) node(j, child);
+            j.endArray();
+        } else {
+            boolean utf8 = n.wireType == 2 && n.packed == null && n.isUtf8Printable();
+            j.name("type").value(BulkExport.kind(n, utf8));
+            j.name("value").value(BulkExport.value(n, utf8));
+        }
+        j.endObject();
+    }
+}
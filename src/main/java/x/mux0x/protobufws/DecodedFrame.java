@@ -0,0 +1,256 @@
+package x.mux0x.protobufws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of decoding one WebSocket payload: the detection verdict, where the protobuf body sat
+ * (raw, base64 inside a {@link Base64Envelope}, or several length-prefixed records per
+ * {@link Framing}, each possibly gzip/zlib {@link Compression compressed}), and the parsed trees. Instances are shared
+ * through {@link DecodeCache}, so the tree must be treated as read-only; copy it with
+ * {@link ProtoWire#copy} before editing.
+ */
+final class DecodedFrame {
+
+    // Rough per-node footprint (object header, fields, list slot) used for cache accounting
+    private static final int NODE_OVERHEAD_BYTES = 64;
+    private static final int DETECT_PREFIX_CHARS = 4096;
+
+    /** One protobuf message carried by the frame. */
+    static final class Message {
+        final Framing.Record record;            // its length-prefixed record; null for an unframed body
+        final Compression compression;          // null unless the body was inflated before parsing
+        final ProtoWire.ParseResult parsed;
+
+        Message(Framing.Record record, Compression compression, ProtoWire.ParseResult parsed) {
+            this.record = record;
+            this.compression = compression;
+            this.parsed = parsed;
+        }
+
+        /** A re-serialized body as it goes back on the wire: recompressed like the original. */
+        byte[] wire(byte[] newBody) {
+            return compression != null ? compression.deflate(newBody) : newBody;
+        }
+
+        ProtoWire.Node root() { return parsed.root; }
+    }
+
+    final byte[] payload;              // raw frame bytes exactly as received
+    final Base64Envelope envelope;     // null unless the body was base64 text inside the payload
+    final byte[] body;                 // the protobuf bytes the tree points into (inflated if compressed)
+    final ProtoWire.ParseResult parsed; // first (usually only) message; null when the payload is not protobuf
+    final MessageLayout layout;        // root type the body was decoded against, null = heuristic
+    final Framing framing;             // non-null when the payload is length-prefixed records
+    final List<Message> messages;      // every protobuf message, in order; empty when not protobuf
+    final boolean reassembled;         // messages were completed from earlier frames: view only
+    final long retainedBytes;
+
+    private DecodedFrame(byte[] payload, Base64Envelope envelope, Compression compression, byte[] body,
+                         ProtoWire.ParseResult parsed, MessageLayout layout, long retainedBytes) {
+        this(payload, envelope, body, layout, null,
+                parsed != null ? List.of(new Message(null, compression, parsed)) : List.of(), false, retainedBytes);
+    }
+
+    private DecodedFrame(byte[] payload, Base64Envelope envelope, byte[] body, MessageLayout layout, Framing framing,
+                         List<Message> messages, boolean reassembled, long retainedBytes) {
+        this.payload = payload;
+        this.envelope = envelope;
+        this.body = body;
+        this.parsed = messages.isEmpty() ? null : messages.get(0).parsed;
+        this.layout = layout;
+        this.framing = framing;
+        this.messages = messages;
+        this.reassembled = reassembled;
+        this.retainedBytes = retainedBytes;
+    }
+
+    boolean isProtobuf() { return parsed != null; }
+
+    boolean isBase64() { return envelope != null; }
+
+    /** True if any message was cut short by the parse time limit; such a decode is not cached. */
+    boolean timedOut() {
+        for (Message m : messages) {
+            if (m.parsed.timedOut) return true;
+        }
+        return false;
+    }
+
+    ProtoWire.Node root() { return parsed != null ? parsed.root : null; }
+
+    /**
+     * Puts a re-serialized {@code message} back into the frame the way it arrived (compression and
+     * base64 envelope included); in a framed payload it is re-framed with fresh length prefixes and
+     * the other records are kept verbatim.
+     */
+    byte[] rewrap(Message message, byte[] newBody) {
+        if (reassembled) throw new IllegalStateException("Message spans several frames");
+        byte[] wire = message.wire(newBody);
+        if (framing != null) return framing.reframe(message.record, wire);
+        return envelope != null ? envelope.wrap(payload, wire) : wire;
+    }
+
+    /** The compression of the first message, or null; frames mixing compressed and plain records report the first. */
+    Compression compression() {
+        return messages.isEmpty() ? null : messages.get(0).compression;
+    }
+
+    static DecodedFrame decode(byte[] payload) {
+        return decode(payload, null);
+    }
+
+    /**
+     * Decodes against {@code layout} when the endpoint's message type is known. Fields the
+     * schema does not describe (or whose payload disagrees with it) are still decoded heuristically.
+     */
+    static DecodedFrame decode(byte[] payload, MessageLayout layout) {
+        Framing framing = framingOf(payload);
+        if (framing != null) {
+            DecodedFrame framed = ofRecords(payload, framing, framing.records, layout, false);
+            if (framed.isProtobuf()) return framed;
+        }
+        ProtoWire.ParseResult parsed = ProtoWire.tryParse(payload, layout);
+        if (parsed != null) {
+            return new DecodedFrame(payload, null, null, payload, parsed, layout, payload.length + nodeBytes(parsed.root));
+        }
+        DecodedFrame inflated = inflated(payload, null, payload, layout);
+        if (inflated != null) return inflated;
+        Metrics.Span span = Metrics.start(Metrics.Stage.BASE64);
+        Base64Envelope envelope = Base64Envelope.find(payload);
+        byte[] body = envelope != null ? envelope.decode(payload) : null;
+        span.end(payload.length);
+        if (envelope != null) {
+            parsed = ProtoWire.tryParse(body, layout);
+            if (parsed != null && (envelope.wholePayload || plausibleEnvelopeBody(parsed.root))) {
+                long retained = payload.length + body.length + nodeBytes(parsed.root);
+                return new DecodedFrame(payload, envelope, null, body, parsed, layout, retained);
+            }
+            inflated = inflated(payload, envelope, body, layout);
+            if (inflated != null) return inflated;
+        }
+        return new DecodedFrame(payload, null, null, null, null, layout, payload.length);
+    }
+
+    /**
+     * Messages a {@link StreamReassembler} completed with {@code payload}, some of which began in
+     * earlier frames; parsed here, but never re-encoded.
+     */
+    static DecodedFrame reassembled(byte[] payload, List<Framing.Record> records, MessageLayout layout) {
+        return ofRecords(payload, null, records, layout, true);
+    }
+
+    /**
+     * The length-prefixed framing of {@code payload}, if it has one. gRPC-web wins outright (its
+     * flag byte reads as field 0, so the raw parse is never a real message); varint-delimited
+     * only when the payload is not already a clean message by itself.
+     */
+    static Framing framingOf(byte[] payload) {
+        Framing f = Framing.split(payload);
+        if (f == null || f.kind == Framing.Kind.GRPC_WEB) return f;
+        return ProtoWire.looksLikeMessage(payload, 0, payload.length) ? null : f;
+    }
+
+    /**
+     * {@code data} (the payload, or its base64 decoding) as a gzip/zlib body that inflates to a
+     * message; null otherwise. The checksum already vouches for the bytes, so no plausibility check.
+     */
+    private static DecodedFrame inflated(byte[] payload, Base64Envelope envelope, byte[] data, MessageLayout layout) {
+        Compression compression = Compression.detect(data, 0, data.length);
+        byte[] body = compression != null ? compression.inflate(data, 0, data.length) : null;
+        ProtoWire.ParseResult parsed = body != null ? ProtoWire.tryParse(body, layout) : null;
+        if (parsed == null) return null;
+        long retained = payload.length + (data != payload ? data.length : 0) + body.length + nodeBytes(parsed.root);
+        return new DecodedFrame(payload, envelope, compression, body, parsed, layout, retained);
+    }
+
+    private static DecodedFrame ofRecords(byte[] payload, Framing framing, List<Framing.Record> records,
+                                          MessageLayout layout, boolean reassembled) {
+        List<Message> messages = new ArrayList<>(records.size());
+        long retained = payload.length;
+        for (Framing.Record r : records) {
+            if (r.buf != payload) retained += r.buf.length;
+            if (!Framing.isMessage(r)) continue; // trailers and unknown encodings are carried verbatim
+            Compression compression = null;
+            ProtoWire.ParseResult parsed;
+            if (r.isCompressed()) {
+                compression = Compression.detect(r.buf, r.offset, r.end());
+                byte[] body = compression.inflate(r.buf, r.offset, r.end());
+                if (body == null) continue;
+                parsed = ProtoWire.tryParse(body, layout);
+                retained += body.length;
+            } else {
+                parsed = ProtoWire.tryParse(r.buf, r.offset, r.end(), layout);
+            }
+            if (parsed == null) continue;
+            messages.add(new Message(r, compression, parsed));
+            retained += nodeBytes(parsed.root);
+        }
+        return new DecodedFrame(payload, null, payload, layout, framing, messages, reassembled, retained);
+    }
+
+    /**
+     * Detection without building the full tree: the protobuf bytes carried by {@code payload}
+     * (the payload itself, or its base64 decoding, either possibly inflated), or null if it is not
+     * protobuf or is framed. The flat top-level scan gives the same verdict as a full parse.
+     */
+    static byte[] protobufBody(byte[] payload) {
+        if (framingOf(payload) != null) return null; // several messages: see framingOf
+        if (ProtoWire.looksLikeProtobuf(payload)) return payload;
+        byte[] inflated = inflatedBody(payload);
+        if (inflated != null) return inflated;
+        Base64Envelope envelope = Base64Envelope.find(payload);
+        if (envelope == null) return null;
+        byte[] body = envelope.decode(payload);
+        if (envelope.wholePayload) return ProtoWire.looksLikeProtobuf(body) ? body : inflatedBody(body);
+        ProtoWire.ParseResult shallow = ProtoWire.tryParseShallow(body);
+        return (shallow != null && plausibleEnvelopeBody(shallow.root)) ? body : inflatedBody(body);
+    }
+
+    /**
+     * Detection for frames too large to decode on the event thread: framed, protobuf as is, or
+     * starting with a gzip/zlib header, else a base64 body judged from its first
+     * {@link #DETECT_PREFIX_CHARS} characters (protobuf, or a compression header). Nothing is
+     * decoded in full or inflated; the verdict can be wrong where the body only breaks further
+     * in, which the full decode then reports.
+     */
+    static boolean mayCarryProtobuf(byte[] payload) {
+        if (framingOf(payload) != null || ProtoWire.looksLikeProtobuf(payload)) return true;
+        if (Compression.detect(payload, 0, payload.length) != null) return true;
+        Base64Envelope envelope = Base64Envelope.find(payload);
+        if (envelope == null) return false;
+        byte[] head = envelope.decodePrefix(payload, DETECT_PREFIX_CHARS);
+        if (Compression.detect(head, 0, head.length) != null) return true;
+        if (envelope.end - envelope.start > DETECT_PREFIX_CHARS) {
+            return ProtoWire.looksLikeProtobufPrefix(head, 0, head.length, !envelope.wholePayload);
+        }
+        return envelope.wholePayload ? ProtoWire.looksLikeProtobuf(head) : ProtoWire.looksLikeMessage(head, 0, head.length);
+    }
+
+    /** The inflated message inside a gzip/zlib {@code data}, or null. */
+    static byte[] inflatedBody(byte[] data) {
+        Compression compression = Compression.detect(data, 0, data.length);
+        byte[] body = compression != null ? compression.inflate(data, 0, data.length) : null;
+        return body != null && ProtoWire.looksLikeProtobuf(body) ? body : null;
+    }
+
+    /**
+     * Quoted tokens inside text are often IDs or hashes whose bytes happen to tokenize, so an
+     * envelope body must be non-empty and use no field number 0 (never valid protobuf).
+     */
+    private static boolean plausibleEnvelopeBody(ProtoWire.Node root) {
+        if (root.children == null || root.children.isEmpty()) return false;
+        for (ProtoWire.Node c : root.children) {
+            if (c.fieldNumber == 0) return false;
+        }
+        return true;
+    }
+
+    private static long nodeBytes(ProtoWire.Node node) {
+        long total = NODE_OVERHEAD_BYTES;
+        if (node.children != null) {
+            for (ProtoWire.Node c : node.children) total += nodeBytes(c);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,102 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+/** Starts, tracks and cancels a {@link BulkExport} of Proxy WebSocket history. */
+final class ExportPanel extends JPanel {
+
+    private final MontoyaApi api;
+    private final SchemaRegistry schemas;
+    private final JComboBox<BulkExport.Format> format = new JComboBox<>(BulkExport.Format.values());
+    private final JButton start = new JButton("Export Proxy WebSocket history…");
+    private final JButton cancel = new JButton("Cancel");
+    private final JProgressBar progress = new JProgressBar();
+    private final JLabel status = new JLabel(" ");
+    private volatile BulkExport running;
+
+    ExportPanel(MontoyaApi api, SchemaRegistry schemas) {
+        super(new BorderLayout(0, 6));
+        this.api = api;
+        this.schemas = schemas;
+
+        start.addActionListener(e -> chooseAndStart());
+        cancel.addActionListener(e -> cancel());
+        cancel.setEnabled(false);
+        progress.setStringPainted(true);
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        controls.add(new JLabel("Format:"));
+        controls.add(format);
+        controls.add(start);
+        controls.add(cancel);
+
+        JPanel body = new JPanel(new GridLayout(0, 1, 0, 4));
+        body.add(progress);
+        body.add(status);
+        body.add(new JLabel("One record per protobuf frame (JSONL) or per string/bytes field (CSV); "
+                + "binary values are base64. Frames are decoded on all cores and streamed straight to disk."));
+
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(controls, BorderLayout.NORTH);
+        add(body, BorderLayout.CENTER);
+    }
+
+    /** Stops a running export; called from the UI and when the extension unloads. */
+    void cancel() {
+        BulkExport job = running;
+        if (job != null) job.cancel();
+    }
+
+    private void chooseAndStart() {
+        BulkExport.Format fmt = (BulkExport.Format) format.getSelectedItem();
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("websocket-history." + fmt.name().toLowerCase()));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        Path out = chooser.getSelectedFile().toPath();
+
+        BulkExport job = new BulkExport(api.proxy().webSocketHistory(), schemas, fmt);
+        running = job;
+        start.setEnabled(false);
+        cancel.setEnabled(true);
+        progress.setValue(0);
+        status.setText("Decoding…");
+
+        Thread worker = new Thread(() -> {
+            ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            long began = System.nanoTime();
+            String result;
+            try {
+                long exported = job.run(pool, out, (done, total, protobuf) -> SwingUtilities.invokeLater(() -> {
+                    progress.setMaximum(total);
+                    progress.setValue(done);
+                    status.setText(done + " / " + total + " frames decoded, " + protobuf + " protobuf");
+                }));
+                result = "Exported " + exported + " protobuf frames to " + out + " in "
+                        + (System.nanoTime() - began) / 1_000_000 + " ms";
+            } catch (CancellationException e) {
+                result = "Cancelled; " + out + " is incomplete";
+            } catch (Exception e) {
+                result = "Export failed: " + e.getMessage();
+                api.logging().logToError("[Sockobof] Export failed: " + e);
+            } finally {
+                pool.shutdownNow();
+            }
+            String message = result;
+            SwingUtilities.invokeLater(() -> {
+                running = null;
+                status.setText(message);
+                start.setEnabled(true);
+                cancel.setEnabled(false);
+            });
+        }, "sockobuf-export");
+        worker.setDaemon(true);
+        worker.start();
+    }
+}
@@ -0,0 +1,369 @@
+package x.mux0x.protobufws;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Inverted index from field paths (the {@link ProtoWire.NodePath#path} format, e.g. "2.1.3") and
+ * path=value pairs to the Proxy message IDs that contained them. Frames are added one at a time
+ * as they are decoded, so keeping it current costs only the new frames.
+ *
+ * Posting lists are zigzag-delta varints in a {@link WireWriter}: a frame ID usually costs one or
+ * two bytes and there is no boxing. Values are kept in a sorted map per path, so a prefix query
+ * is a range scan. {@link #save} writes a snapshot that {@link #open} memory-maps: its term
+ * dictionary is loaded, its postings are read straight from the mapping, and frames indexed
+ * afterwards are kept in memory and merged into query results.
+ */
+final class FieldIndex {
+
+    // Longer string values are indexed by this prefix; exact matches on them may over-report
+    static final int MAX_VALUE_CHARS = 256;
+
+    private static final int MAGIC = 0x53424958; // "SBIX"
+    private static final int VERSION = 1;
+
+    /** Growable posting list of message IDs. */
+    private static final class Postings {
+        final WireWriter ids = new WireWriter(4);
+        int count;
+        int last;
+
+        void add(int id) {
+            if (count > 0 && id == last) return; // one frame, one posting per term
+            int delta = id - last;
+            ids.writeVarint((delta << 1) ^ (delta >> 31));
+            last = id;
+            count++;
+        }
+    }
+
+    /** A posting list inside a mapped snapshot. */
+    private static final class Stored {
+        final int offset, length, count;
+
+        Stored(int offset, int length, int count) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+    }
+
+    private final Map<String, Postings> paths = new HashMap<>();
+    private final Map<String, TreeMap<String, Postings>> values = new HashMap<>();
+    private int frames;
+    private long terms;
+    private int maxMessageId = -1;
+
+    // Mapped snapshot from open(), or null
+    private MappedByteBuffer mapped;
+    private Map<String, Stored> storedPaths = Map.of();
+    private Map<String, TreeMap<String, Stored>> storedValues = Map.of();
+    private int storedFrames;
+
+    /** Indexes every field of one decoded frame (each of its messages, if framed) under {@code messageId}. */
+    synchronized void add(int messageId, DecodedFrame frame) {
+        StringBuilder path = new StringBuilder();
+        for (DecodedFrame.Message m : frame.messages) {
+            ProtoWire.Node root = m.root();
+            if (root.children != null) for (ProtoWire.Node c : root.children) addField(messageId, c, path);
+        }
+        frames++;
+        maxMessageId = Math.max(maxMessageId, messageId);
+    }
+
+    private void addField(int id, ProtoWire.Node n, StringBuilder path) {
+        int mark = path.length();
+        if (mark > 0) path.append('.');
+        path.append(n.fieldNumber);
+        String p = path.toString();
+        posting(paths, p).add(id);
+
+        String value = null;
+        if (n.wireType == 0) {
+            value = Long.toUnsignedString(new WireReader(n.buf, n.offset).readVarint64(n.offset + n.length));
+        } else if (n.children != null) {
+            for (ProtoWire.Node c : n.children) addField(id, c, path);
+        } else if (n.wireType == 2 && n.packed == null && n.isUtf8Printable()) {
+            int len = Math.min(n.length, MAX_VALUE_CHARS * 4);
+            value = new String(n.buf, n.offset, len, StandardCharsets.UTF_8);
+            if (value.length() > MAX_VALUE_CHARS) value = value.substring(0, MAX_VALUE_CHARS);
+        }
+        if (value != null) posting(values.computeIfAbsent(p, k -> new TreeMap<>()), value).add(id);
+        path.setLength(mark);
+    }
+
+    private <K> Postings posting(Map<K, Postings> map, K key) {
+        Postings ps = map.get(key);
+        if (ps == null) {
+            ps = new Postings();
+            map.put(key, ps);
+            terms++;
+        }
+        return ps;
+    }
+
+    synchronized int frames() { return storedFrames + frames; }
+
+    synchronized long terms() { return terms + storedPaths.size() + storedValues.values().stream().mapToLong(Map::size).sum(); }
+
+    /** Highest message ID indexed so far, or -1; the next incremental pass starts after it. */
+    synchronized int maxMessageId() { return maxMessageId; }
+
+    /**
+     * Sorted, distinct IDs of frames matching the query. An empty {@code path} means any path;
+     * a null or empty {@code value} matches on the path alone; {@code prefix} makes the value a
+     * prefix match.
+     */
+    synchronized int[] query(String path, String value, boolean prefix) {
+        IdBuffer out = new IdBuffer();
+        boolean anyPath = path == null || path.isEmpty();
+        if (value == null || value.isEmpty()) {
+            if (anyPath) {
+                for (Postings ps : paths.values()) out.add(ps);
+                for (Stored s : storedPaths.values()) out.add(mapped, s);
+            } else {
+                out.add(paths.get(path));
+                Stored s = storedPaths.get(path);
+                if (s != null) out.add(mapped, s);
+            }
+            return out.sortedDistinct();
+        }
+
+        String key = value.length() > MAX_VALUE_CHARS ? value.substring(0, MAX_VALUE_CHARS) : value;
+        if (anyPath) {
+            for (TreeMap<String, Postings> m : values.values()) match(m, key, prefix, out, null);
+            for (TreeMap<String, Stored> m : storedValues.values()) match(m, key, prefix, out, mapped);
+        } else {
+            TreeMap<String, Postings> m = values.get(path);
+            if (m != null) match(m, key, prefix, out, null);
+            TreeMap<String, Stored> sm = storedValues.get(path);
+            if (sm != null) match(sm, key, prefix, out, mapped);
+        }
+        return out.sortedDistinct();
+    }
+
+    private static <T> void match(TreeMap<String, T> m, String key, boolean prefix, IdBuffer out, ByteBuffer mapped) {
+        if (!prefix) {
+            T t = m.get(key);
+            if (t != null) out.add(t, mapped);
+            return;
+        }
+        NavigableMap<String, T> range = m.subMap(key, true, key + Character.MAX_VALUE, false);
+        for (T t : range.values()) out.add(t, mapped);
+    }
+
+    synchronized void clear() {
+        paths.clear();
+        values.clear();
+        frames = 0;
+        terms = 0;
+        maxMessageId = -1;
+        mapped = null;
+        storedPaths = Map.of();
+        storedValues = Map.of();
+        storedFrames = 0;
+    }
+
+    // ————— Snapshot store —————
+    //
+    // int magic, int version, int frames, int maxMessageId, int termCount,
+    // termCount × { str path, byte hasValue, [str value], int offset, int length, int count },
+    // then the posting bytes; offsets are relative to the start of the posting region.
+    // A str is an int byte length followed by UTF-8.
+
+    /** Writes everything indexed so far (mapped snapshot included) to {@code file}, atomically. */
+    synchronized void save(Path file) throws IOException {
+        List<String[]> keys = new ArrayList<>();
+        TreeSet<String> allPaths = new TreeSet<>(paths.keySet());
+        allPaths.addAll(storedPaths.keySet());
+        for (String p : allPaths) keys.add(new String[]{p, null});
+        TreeSet<String> valuePaths = new TreeSet<>(values.keySet());
+        valuePaths.addAll(storedValues.keySet());
+        for (String p : valuePaths) {
+            TreeSet<String> vs = new TreeSet<>();
+            if (values.containsKey(p)) vs.addAll(values.get(p).keySet());
+            if (storedValues.containsKey(p)) vs.addAll(storedValues.get(p).keySet());
+            for (String v : vs) keys.add(new String[]{p, v});
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Path blob = file.resolveSibling(file.getFileName() + ".postings.tmp");
+        int[] offsets = new int[keys.size()], lengths = new int[keys.size()], counts = new int[keys.size()];
+        try {
+            // Postings first (to a side file), so the dictionary can be written with their offsets
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(blob), 1 << 16))) {
+                int offset = 0;
+                for (int i = 0; i < keys.size(); i++) {
+                    String p = keys.get(i)[0], v = keys.get(i)[1];
+                    IdBuffer ids = new IdBuffer();
+                    if (v == null) {
+                        ids.add(paths.get(p));
+                        Stored s = storedPaths.get(p);
+                        if (s != null) ids.add(mapped, s);
+                    } else {
+                        TreeMap<String, Postings> m = values.get(p);
+                        if (m != null) ids.add(m.get(v));
+                        TreeMap<String, Stored> sm = storedValues.get(p);
+                        if (sm != null && sm.containsKey(v)) ids.add(mapped, sm.get(v));
+                    }
+                    Postings merged = new Postings();
+                    for (int id : ids.sortedDistinct()) merged.add(id);
+                    out.write(merged.ids.array(), 0, merged.ids.size());
+                    offsets[i] = offset;
+                    lengths[i] = merged.ids.size();
+                    counts[i] = merged.count;
+                    offset = Math.addExact(offset, lengths[i]);
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(frames());
+                out.writeInt(maxMessageId);
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    writeStr(out, keys.get(i)[0]);
+                    out.writeBoolean(keys.get(i)[1] != null);
+                    if (keys.get(i)[1] != null) writeStr(out, keys.get(i)[1]);
+                    out.writeInt(offsets[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeInt(counts[i]);
+                }
+                Files.copy(blob, out);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(blob);
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Replaces this index with the snapshot in {@code file}. Only the term dictionary is read
+     * onto the heap; posting lists stay in the memory-mapped file until a query touches them.
+     */
+    synchronized void open(Path file) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.remaining() < 20 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new IOException("Not a SockoBuf index file");
+        }
+        try {
+            load(buf);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated index file");
+        }
+    }
+
+    private void load(MappedByteBuffer buf) throws IOException {
+        int savedFrames = buf.getInt();
+        int savedMax = buf.getInt();
+        int count = buf.getInt();
+        String[] keyPath = new String[count], keyValue = new String[count];
+        int[] offsets = new int[count], lengths = new int[count], counts = new int[count];
+        for (int i = 0; i < count; i++) {
+            keyPath[i] = readStr(buf);
+            keyValue[i] = buf.get() != 0 ? readStr(buf) : null;
+            offsets[i] = buf.getInt();
+            lengths[i] = buf.getInt();
+            counts[i] = buf.getInt();
+        }
+        int base = buf.position();
+        Map<String, Stored> sp = new HashMap<>();
+        Map<String, TreeMap<String, Stored>> sv = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (base + offsets[i] + lengths[i] > buf.limit()) throw new IOException("Truncated index file");
+            Stored s = new Stored(base + offsets[i], lengths[i], counts[i]);
+            if (keyValue[i] == null) sp.put(keyPath[i], s);
+            else sv.computeIfAbsent(keyPath[i], k -> new TreeMap<>()).put(keyValue[i], s);
+        }
+
+        clear();
+        mapped = buf;
+        storedPaths = sp;
+        storedValues = sv;
+        storedFrames = savedFrames;
+        maxMessageId = savedMax;
+    }
+
+    private static void writeStr(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readStr(ByteBuffer buf) throws IOException {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new IOException("Corrupt index file");
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Accumulates IDs from several posting lists; sorted and de-duplicated at the end. */
+    private static final class IdBuffer {
+        private int[] ids = new int[16];
+        private int size;
+
+        void add(Object postings, ByteBuffer mapped) {
+            if (postings instanceof Postings) add((Postings) postings);
+            else add(mapped, (Stored) postings);
+        }
+
+        void add(Postings ps) {
+            if (ps != null) decode(ps.ids.array(), 0, ps.ids.size(), ps.count);
+        }
+
+        void add(ByteBuffer mapped, Stored s) {
+            byte[] bytes = new byte[s.length];
+            mapped.get(s.offset, bytes);
+            decode(bytes, 0, bytes.length, s.count);
+        }
+
+        private void decode(byte[] a, int off, int end, int count) {
+            if (size + count > ids.length) ids = Arrays.copyOf(ids, Math.max(ids.length * 2, size + count));
+            WireReader r = new WireReader(a, off);
+            int last = 0;
+            while (r.pos < end) {
+                int z = (int) r.readVarint64(end);
+                if (r.failed()) return;
+                last += (z >>> 1) ^ -(z & 1);
+                ids[size++] = last;
+            }
+        }
+
+        int[] sortedDistinct() {
+            int[] out = Arrays.copyOf(ids, size);
+            Arrays.sort(out);
+            int n = 0;
+            for (int i = 0; i < out.length; i++) {
+                if (n == 0 || out[i] != out[n - 1]) out[n++] = out[i];
+            }
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package x.mux0x.protobufws;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structural diff of two decoded frames. Subtrees with equal {@link ProtoWire.Node#subtreeHash
+ * Merkle hashes} are skipped without being opened, so once both trees are hashed the work
+ * follows the size of the change, not of the messages. Fields are matched by number; repeated
+ * occurrences are aligned by trimming the equal head and tail, anchoring the middle on elements
+ * whose hash appears on both sides, and pairing what lies between anchors in order.
+ */
+final class FrameDiff {
+
+    private static final int PREVIEW_CHARS = 120;
+
+    enum Kind { ADDED, REMOVED, CHANGED }
+
+    static final class Change {
+        final Kind kind;
+        final String path;   // field numbers, e.g. 2.1[3].4
+        final String names;  // the same path with schema field names where known
+        final ProtoWire.Node before; // null when added
+        final ProtoWire.Node after;  // null when removed
+
+        Change(Kind kind, String path, String names, ProtoWire.Node before, ProtoWire.Node after) {
+            this.kind = kind;
+            this.path = path;
+            this.names = names;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    final List<Change> changes = new ArrayList<>();
+    long nodesCompared;
+    long bytesSkipped;     // inside subtrees found identical by hash
+
+    private FrameDiff() { }
+
+    /** Diffs every message of two frames, paired in order. */
+    static FrameDiff compare(DecodedFrame a, DecodedFrame b) {
+        FrameDiff d = new FrameDiff();
+        int n = Math.max(a.messages.size(), b.messages.size());
+        boolean several = n > 1;
+        for (int i = 0; i < n; i++) {
+            ProtoWire.Node ra = i < a.messages.size() ? a.messages.get(i).root() : null;
+            ProtoWire.Node rb = i < b.messages.size() ? b.messages.get(i).root() : null;
+            String prefix = several ? "#" + i + " " : ""; // message index within a framed payload
+            if (ra == null) d.changes.add(new Change(Kind.ADDED, prefix.trim(), prefix.trim(), null, rb));
+            else if (rb == null) d.changes.add(new Change(Kind.REMOVED, prefix.trim(), prefix.trim(), ra, null));
+            else d.node(ra, rb, prefix, prefix);
+        }
+        return d;
+    }
+
+    static FrameDiff compare(ProtoWire.Node a, ProtoWire.Node b) {
+        FrameDiff d = new FrameDiff();
+        d.node(a, b, "", "");
+        return d;
+    }
+
+    private void node(ProtoWire.Node a, ProtoWire.Node b, String path, String names) {
+        nodesCompared++;
+        if (a.subtreeHash() == b.subtreeHash()) {
+            bytesSkipped += a.spanEnd - a.spanStart;
+            return;
+        }
+        if (a.children == null || b.children == null || a.wireType != b.wireType) {
+            changes.add(new Change(Kind.CHANGED, path, names, a, b));
+            return;
+        }
+        Map<Integer, List<ProtoWire.Node>> byFieldA = byField(a.children);
+        Map<Integer, List<ProtoWire.Node>> byFieldB = byField(b.children);
+        for (Map.Entry<Integer, List<ProtoWire.Node>> e : byFieldA.entrySet()) {
+            List<ProtoWire.Node> other = byFieldB.get(e.getKey());
+            occurrences(e.getValue(), other != null ? other : List.of(), path, names);
+        }
+        for (Map.Entry<Integer, List<ProtoWire.Node>> e : byFieldB.entrySet()) {
+            if (!byFieldA.containsKey(e.getKey())) occurrences(List.of(), e.getValue(), path, names);
+        }
+    }
+
+    /** Aligns the occurrences of one field number on both sides. */
+    private void occurrences(List<ProtoWire.Node> as, List<ProtoWire.Node> bs, String path, String names) {
+        boolean repeated = as.size() > 1 || bs.size() > 1;
+        int head = 0, ta = as.size(), tb = bs.size();
+        while (head < ta && head < tb && as.get(head).subtreeHash() == bs.get(head).subtreeHash()) skip(as.get(head++));
+        while (ta > head && tb > head && as.get(ta - 1).subtreeHash() == bs.get(tb - 1).subtreeHash()) {
+            skip(as.get(--ta));
+            tb--;
+        }
+        if (ta - head == 1 && tb - head == 1) {
+            descend(as.get(head), bs.get(head), head, repeated, path, names);
+            return;
+        }
+
+        // Anchor elements that appear unchanged on both sides (in order, so shifted runs line up),
+        // then pair what lies between consecutive anchors: in order, the surplus added or removed
+        Map<Long, Integer> firstB = new HashMap<>();   // hash -> earliest unused position in bs
+        int[] nextB = new int[tb - head];               // position -> next position with the same hash, or -1
+        for (int j = tb - 1; j >= head; j--) {
+            Integer later = firstB.put(bs.get(j).subtreeHash(), j);
+            nextB[j - head] = later != null ? later : -1;
+        }
+        int gapA = head, gapB = head;
+        for (int i = head; i < ta; i++) {
+            long h = as.get(i).subtreeHash();
+            Integer first = firstB.get(h);
+            int j = first != null ? first : -1;
+            while (j >= 0 && j < gapB) j = nextB[j - head];
+            if (j < 0) {
+                if (first != null) firstB.remove(h);
+                continue;
+            }
+            if (nextB[j - head] >= 0) firstB.put(h, nextB[j - head]);
+            else firstB.remove(h);
+            gap(as, gapA, i, bs, gapB, j, repeated, path, names);
+            skip(as.get(i));
+            gapA = i + 1;
+            gapB = j + 1;
+        }
+        gap(as, gapA, ta, bs, gapB, tb, repeated, path, names);
+    }
+
+    private void gap(List<ProtoWire.Node> as, int fromA, int toA, List<ProtoWire.Node> bs, int fromB, int toB,
+                     boolean repeated, String path, String names) {
+        int paired = Math.min(toA - fromA, toB - fromB);
+        for (int k = 0; k < paired; k++) descend(as.get(fromA + k), bs.get(fromB + k), fromB + k, repeated, path, names);
+        for (int j = fromB + paired; j < toB; j++) {
+            ProtoWire.Node n = bs.get(j);
+            changes.add(new Change(Kind.ADDED, child(path, n, j, repeated, false), child(names, n, j, repeated, true), null, n));
+        }
+        for (int i = fromA + paired; i < toA; i++) {
+            ProtoWire.Node n = as.get(i);
+            changes.add(new Change(Kind.REMOVED, child(path, n, i, repeated, false), child(names, n, i, repeated, true), n, null));
+        }
+    }
+
+    /** Compares a pair of occurrences; the path uses the index on the newer side. */
+    private void descend(ProtoWire.Node a, ProtoWire.Node b, int index, boolean repeated, String path, String names) {
+        node(a, b, child(path, b, index, repeated, false), child(names, b, index, repeated, true));
+    }
+
+    private void skip(ProtoWire.Node n) {
+        nodesCompared++;
+        bytesSkipped += n.spanEnd - n.spanStart;
+    }
+
+    private static String child(String path, ProtoWire.Node n, int index, boolean repeated, boolean named) {
+        String segment = named && n.fieldName != null ? n.fieldName : String.valueOf(n.fieldNumber);
+        if (repeated) segment += "[" + index + "]";
+        return path.isEmpty() || path.endsWith(" ") ? path + segment : path + "." + segment;
+    }
+
+    private static Map<Integer, List<ProtoWire.Node>> byField(List<ProtoWire.Node> children) {
+        Map<Integer, List<ProtoWire.Node>> out = new LinkedHashMap<>();
+        for (ProtoWire.Node c : children) out.computeIfAbsent(c.fieldNumber, k -> new ArrayList<>(1)).add(c);
+        return out;
+    }
+
+    /** Short display form of a field's value: decimal varint, UTF-8 text, or hex. */
+    static String preview(ProtoWire.Node n) {
+        if (n == null) return "";
+        if (n.children != null) return "{message, " + n.children.size() + " fields, " + n.length + " bytes}";
+        if (n.wireType == 0) return Long.toUnsignedString(new WireReader(n.buf, n.offset).readVarint64(n.offset + n.length));
+        if (n.wireType == 2 && n.isUtf8Printable()) {
+            String s = new String(n.buf, n.offset, Math.min(n.length, PREVIEW_CHARS * 4), StandardCharsets.UTF_8);
+            return s.length() > PREVIEW_CHARS || n.length > PREVIEW_CHARS * 4
+                    ? "\"" + s.substring(0, Math.min(s.length(), PREVIEW_CHARS)) + "…\" (" + n.length + " bytes)"
+                    : "\"" + s + "\"";
+        }
+        int shown = Math.min(n.length, PREVIEW_CHARS / 2);
+        StringBuilder sb = new StringBuilder(shown * 2 + 24);
+        for (int i = 0; i < shown; i++) sb.append(String.format("%02x", n.buf[n.offset + i] & 0xFF));
+        if (shown < n.length) sb.append("… (").append(n.length).append(" bytes)");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
+import burp.api.montoya.ui.contextmenu.WebSocketContextMenuEvent;
+import burp.api.montoya.ui.contextmenu.WebSocketMessage;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * "Diff protobuf frames" on the WebSocket history context menu: with two messages selected,
+ * decodes both and shows their {@link FrameDiff} in a window, added, removed and changed
+ * fields one per row. Decoding and diffing run off the event thread.
+ */
+final class FrameDiffMenu implements ContextMenuItemsProvider {
+
+    private static final Color ADDED = new Color(0x2E7D32);
+    private static final Color REMOVED = new Color(0xC62828);
+    private static final Color CHANGED = new Color(0xEF6C00);
+
+    private final MontoyaApi api;
+    private final SchemaRegistry schemas;
+
+    FrameDiffMenu(MontoyaApi api, SchemaRegistry schemas) {
+        this.api = api;
+        this.schemas = schemas;
+    }
+
+    @Override
+    public List<Component> provideMenuItems(WebSocketContextMenuEvent event) {
+        List<WebSocketMessage> selected = event.selectedWebSocketMessages();
+        if (selected.size() != 2) return List.of();
+        JMenuItem item = new JMenuItem("Diff protobuf frames");
+        item.addActionListener(e -> show(selected.get(0), selected.get(1)));
+        return List.of(item);
+    }
+
+    private DecodedFrame decode(WebSocketMessage m) {
+        String url = m.upgradeRequest() != null ? m.upgradeRequest().url() : null;
+        return DecodedFrame.decode(m.payload().getBytes(), schemas.resolve(url, m.direction()));
+    }
+
+    private void show(WebSocketMessage first, WebSocketMessage second) {
+        DefaultTableModel rows = new DefaultTableModel(new Object[]{"Change", "Field", "Before", "After"}, 0) {
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        JTable table = new JTable(rows);
+        table.setFillsViewportHeight(true);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setMaxWidth(90);
+        table.getColumnModel().getColumn(0).setCellRenderer(new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(JTable t, Object value, boolean selected, boolean focus, int r, int c) {
+                Component comp = super.getTableCellRendererComponent(t, value, selected, focus, r, c);
+                if (!selected) {
+                    comp.setForeground(value == FrameDiff.Kind.ADDED ? ADDED : value == FrameDiff.Kind.REMOVED ? REMOVED : CHANGED);
+                }
+                return comp;
+            }
+        });
+        JLabel status = new JLabel("Decoding…");
+
+        JDialog window = new JDialog(api.userInterface().swingUtils().suiteFrame(), "Protobuf frame diff", false);
+        JPanel content = new JPanel(new BorderLayout(0, 6));
+        content.setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        content.add(status, BorderLayout.NORTH);
+        content.add(new JScrollPane(table), BorderLayout.CENTER);
+        window.setContentPane(content);
+        window.setSize(1000, 600);
+        window.setLocationRelativeTo(window.getOwner());
+        window.setVisible(true);
+
+        Thread worker = new Thread(() -> {
+            String result;
+            FrameDiff diff = null;
+            try {
+                DecodedFrame a = decode(first), b = decode(second);
+                if (!a.isProtobuf() || !b.isProtobuf()) {
+                    result = (a.isProtobuf() ? "The second" : "The first") + " frame is not protobuf.";
+                } else {
+                    long began = System.nanoTime();
+                    for (DecodedFrame f : List.of(a, b)) for (DecodedFrame.Message m : f.messages) m.root().subtreeHash();
+                    long hashed = System.nanoTime();
+                    diff = FrameDiff.compare(a, b);
+                    long compared = System.nanoTime();
+                    result = String.format("%,d change(s) — %,d nodes compared, %,d of %,d bytes skipped as identical; "
+                                    + "hashing %,d µs, diff %,d µs", diff.changes.size(), diff.nodesCompared,
+                            diff.bytesSkipped, a.body.length + b.body.length,
+                            (hashed - began) / 1000, (compared - hashed) / 1000);
+                }
+            } catch (RuntimeException e) {
+                result = "Diff failed: " + e;
+            }
+            String text = result;
+            FrameDiff done = diff;
+            SwingUtilities.invokeLater(() -> {
+                status.setText(text);
+                if (done == null) return;
+                for (FrameDiff.Change c : done.changes) {
+                    String field = c.names.equals(c.path) ? c.path : c.names + "  (" + c.path + ")";
+                    rows.addRow(new Object[]{c.kind, field, FrameDiff.preview(c.before), FrameDiff.preview(c.after)});
+                }
+            });
+        }, "sockobuf-diff");
+        worker.setDaemon(true);
+        worker.start();
+    }
+}
@@ -0,0 +1,117 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.proxy.websocket.BinaryMessageReceivedAction;
+import burp.api.montoya.proxy.websocket.BinaryMessageToBeSentAction;
+import burp.api.montoya.proxy.websocket.InterceptedBinaryMessage;
+import burp.api.montoya.proxy.websocket.InterceptedTextMessage;
+import burp.api.montoya.proxy.websocket.ProxyMessageHandler;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreation;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreationHandler;
+import burp.api.montoya.proxy.websocket.TextMessageReceivedAction;
+import burp.api.montoya.proxy.websocket.TextMessageToBeSentAction;
+import burp.api.montoya.websocket.Direction;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches every Proxy WebSocket and runs a {@link StreamReassembler} per direction, so length-prefixed
+ * messages split across frames can be shown. Only frames whose messages cannot be recovered from
+ * the frame alone are remembered (LRU, bounded by retained bytes); the editor looks them up by payload.
+ * Frames pass through untouched.
+ */
+final class FramedStreams implements ProxyWebSocketCreationHandler {
+
+    private final long maxRetainedBytes;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long retainedBytes;
+
+    private static final class Entry {
+        final byte[] payload;
+        final List<Framing.Record> records;
+        final long retainedBytes;
+
+        Entry(byte[] payload, List<Framing.Record> records) {
+            this.payload = payload;
+            this.records = records;
+            long bytes = payload.length;
+            for (Framing.Record r : records) if (r.buf != payload) bytes += r.buf.length;
+            this.retainedBytes = bytes;
+        }
+    }
+
+    FramedStreams(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    @Override
+    public void handleWebSocketCreation(ProxyWebSocketCreation creation) {
+        StreamReassembler toServer = new StreamReassembler();
+        StreamReassembler toClient = new StreamReassembler();
+        creation.proxyWebSocket().registerProxyMessageHandler(new ProxyMessageHandler() {
+            @Override
+            public BinaryMessageReceivedAction handleBinaryMessageReceived(InterceptedBinaryMessage message) {
+                observe(message.direction() == Direction.CLIENT_TO_SERVER ? toServer : toClient, message);
+                return BinaryMessageReceivedAction.continueWith(message);
+            }
+
+            @Override
+            public BinaryMessageToBeSentAction handleBinaryMessageToBeSent(InterceptedBinaryMessage message) {
+                return BinaryMessageToBeSentAction.continueWith(message);
+            }
+
+            @Override
+            public TextMessageReceivedAction handleTextMessageReceived(InterceptedTextMessage message) {
+                return TextMessageReceivedAction.continueWith(message);
+            }
+
+            @Override
+            public TextMessageToBeSentAction handleTextMessageToBeSent(InterceptedTextMessage message) {
+                return TextMessageToBeSentAction.continueWith(message);
+            }
+        });
+    }
+
+    private void observe(StreamReassembler stream, InterceptedBinaryMessage message) {
+        try {
+            byte[] payload = message.payload().getBytes();
+            StreamReassembler.Result result;
+            synchronized (stream) {
+                result = stream.feed(payload);
+            }
+            if (result != null && !result.selfContained && !result.completed.isEmpty()) remember(payload, result.completed);
+        } catch (RuntimeException e) {
+            // never let bookkeeping disturb the traffic
+        }
+    }
+
+    /** Records completed by a frame that do not decode from the frame alone. */
+    void remember(byte[] payload, List<Framing.Record> records) {
+        Entry entry = new Entry(payload, records);
+        if (entry.retainedBytes > maxRetainedBytes) return;
+        synchronized (this) {
+            Entry previous = entries.put(DecodeCache.hash(payload), entry);
+            if (previous != null) retainedBytes -= previous.retainedBytes;
+            retainedBytes += entry.retainedBytes;
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            while (retainedBytes > maxRetainedBytes && it.hasNext()) {
+                retainedBytes -= it.next().getValue().retainedBytes;
+                it.remove();
+            }
+        }
+    }
+
+    /** The records a previously observed frame completed, or null if it was never seen (or was evicted). */
+    synchronized List<Framing.Record> completedBy(byte[] payload) {
+        Entry e = entries.get(DecodeCache.hash(payload));
+        return (e != null && Arrays.equals(e.payload, payload)) ? e.records : null;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        retainedBytes = 0;
+    }
+}
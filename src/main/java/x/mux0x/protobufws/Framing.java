@@ -0,0 +1,154 @@
+package x.mux0x.protobufws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several protobuf messages carried back to back in one payload, each behind a length prefix:
+ * gRPC-web style (1 flag byte + 4-byte big-endian length) or varint-delimited
+ * (writeDelimitedTo). Records are views into the payload; nothing is copied.
+ */
+final class Framing {
+
+    enum Kind { GRPC_WEB, VARINT_DELIMITED }
+
+    static final int GRPC_HEADER_BYTES = 5;
+    static final int FLAG_COMPRESSED = 0x01;
+    static final int FLAG_TRAILERS = 0x80;
+    // Larger declared lengths are treated as garbage rather than a record still arriving
+    static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+
+    /** One length-prefixed message: {@code length} bytes at {@code offset} in {@code buf}. */
+    static final class Record {
+        final int flag;         // gRPC-web flag byte; 0 for varint-delimited records
+        final byte[] buf;
+        final int offset;
+        final int length;
+
+        Record(int flag, byte[] buf, int offset, int length) {
+            this.flag = flag;
+            this.buf = buf;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        int end() { return offset + length; }
+
+        boolean isTrailers() { return (flag & FLAG_TRAILERS) != 0; }
+
+        boolean isCompressed() { return (flag & FLAG_COMPRESSED) != 0; }
+    }
+
+    final Kind kind;
+    final List<Record> records;
+
+    private Framing(Kind kind, List<Record> records) {
+        this.kind = kind;
+        this.records = Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Splits {@code payload} if all of it is a sequence of length-prefixed records (gRPC-web
+     * tried first) and at least one data record is a non-empty message; null otherwise.
+     */
+    static Framing split(byte[] payload) {
+        Framing f = splitGrpcWeb(payload);
+        return f != null ? f : splitDelimited(payload);
+    }
+
+    /**
+     * A data record whose body tokenizes as a non-empty message. Compressed records count when they
+     * carry a gzip/zlib header; inflating them is left to the decoder, which checks the rest.
+     */
+    static boolean isMessage(Record r) {
+        if (r.isTrailers()) return false;
+        if (r.isCompressed()) return Compression.detect(r.buf, r.offset, r.end()) != null;
+        return ProtoWire.looksLikeMessage(r.buf, r.offset, r.end());
+    }
+
+    static boolean isGrpcFlag(int flag) {
+        return (flag & ~(FLAG_TRAILERS | FLAG_COMPRESSED)) == 0;
+    }
+
+    /** Declared record length in a complete gRPC-web header at {@code off}, or -1 if implausible. */
+    static int grpcLength(byte[] h, int off) {
+        if (!isGrpcFlag(h[off] & 0xFF)) return -1;
+        long len = ((h[off + 1] & 0xFFL) << 24) | ((h[off + 2] & 0xFF) << 16) | ((h[off + 3] & 0xFF) << 8) | (h[off + 4] & 0xFF);
+        return len <= MAX_MESSAGE_BYTES ? (int) len : -1;
+    }
+
+    private static Framing splitGrpcWeb(byte[] p) {
+        List<Record> records = new ArrayList<>(2);
+        boolean message = false;
+        int pos = 0;
+        while (pos < p.length) {
+            if (p.length - pos < GRPC_HEADER_BYTES) return null;
+            int len = grpcLength(p, pos);
+            if (len < 0 || len > p.length - pos - GRPC_HEADER_BYTES) return null;
+            Record r = new Record(p[pos] & 0xFF, p, pos + GRPC_HEADER_BYTES, len);
+            message |= isMessage(r);
+            records.add(r);
+            pos = r.end();
+        }
+        return message ? new Framing(Kind.GRPC_WEB, records) : null;
+    }
+
+    private static Framing splitDelimited(byte[] p) {
+        List<Record> records = new ArrayList<>(2);
+        boolean message = false;
+        WireReader r = new WireReader(p, 0);
+        while (r.pos < p.length) {
+            long len = r.readVarint64(p.length);
+            // An empty record is legal but is also what a stray 0x00 looks like (a cut gRPC-web header)
+            if (r.failed() || len <= 0 || len > p.length - r.pos) return null;
+            int off = r.pos, end = off + (int) len;
+            if (!ProtoWire.looksLikeProtobuf(p, off, end)) return null;
+            message |= ProtoWire.looksLikeMessage(p, off, end);
+            records.add(new Record(0, p, off, (int) len));
+            r.pos = end;
+        }
+        return message ? new Framing(Kind.VARINT_DELIMITED, records) : null;
+    }
+
+    /** The payload with {@code edited}'s body replaced by {@code body}; every other record is copied verbatim. */
+    byte[] reframe(Record edited, byte[] body) {
+        byte[][] bodies = new byte[records.size()][];
+        bodies[records.indexOf(edited)] = body;
+        return reframe(bodies);
+    }
+
+    /** The payload with record i's body replaced by {@code bodies[i]} where that is non-null. */
+    byte[] reframe(byte[][] bodies) {
+        int size = 0;
+        for (int i = 0; i < bodies.length; i++) {
+            int len = bodies[i] != null ? bodies[i].length : records.get(i).length;
+            size += headerBytes(len) + len;
+        }
+        WireWriter out = new WireWriter(size);
+        for (int i = 0; i < bodies.length; i++) {
+            Record r = records.get(i);
+            if (bodies[i] != null) {
+                writeHeader(out, r.flag, bodies[i].length);
+                out.write(bodies[i], 0, bodies[i].length);
+            } else {
+                writeHeader(out, r.flag, r.length);
+                out.write(r.buf, r.offset, r.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private int headerBytes(int length) {
+        return kind == Kind.GRPC_WEB ? GRPC_HEADER_BYTES : WireWriter.varintSize(length);
+    }
+
+    private void writeHeader(WireWriter out, int flag, int length) {
+        if (kind == Kind.VARINT_DELIMITED) {
+            out.writeVarint(length);
+            return;
+        }
+        byte[] h = {(byte) flag, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+        out.write(h, 0, GRPC_HEADER_BYTES);
+    }
+}
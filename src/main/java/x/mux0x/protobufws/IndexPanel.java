@@ -0,0 +1,214 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.proxy.ProxyWebSocketMessage;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Search over the {@link FieldIndex}: builds it incrementally from Proxy WebSocket history
+ * (only frames newer than the last indexed ID are decoded) and answers path / value / prefix
+ * queries without touching the frames again.
+ */
+final class IndexPanel extends JPanel {
+
+    private static final int FOLLOW_INTERVAL_MS = 5000;
+    private static final int MAX_ROWS = 10_000;
+
+    private final MontoyaApi api;
+    private final SchemaRegistry schemas;
+    private final FieldIndex index = new FieldIndex();
+    private final AtomicBoolean indexing = new AtomicBoolean();
+    private volatile boolean stopped;
+    private volatile List<ProxyWebSocketMessage> history = List.of(); // snapshot used to show result rows
+
+    private final JLabel indexStatus = new JLabel("Index is empty");
+    private final JTextField pathField = new JTextField(12);
+    private final JTextField valueField = new JTextField(24);
+    private final JCheckBox prefix = new JCheckBox("Prefix");
+    private final JLabel resultStatus = new JLabel(" ");
+    private final ResultModel results = new ResultModel();
+    private final Timer follow = new Timer(FOLLOW_INTERVAL_MS, e -> update());
+
+    IndexPanel(MontoyaApi api, SchemaRegistry schemas) {
+        super(new BorderLayout(0, 6));
+        this.api = api;
+        this.schemas = schemas;
+
+        JButton update = new JButton("Index new Proxy history");
+        update.addActionListener(e -> update());
+        JCheckBox followBox = new JCheckBox("Follow new traffic");
+        followBox.addActionListener(e -> { if (followBox.isSelected()) follow.start(); else follow.stop(); });
+        JButton save = new JButton("Save index…");
+        save.addActionListener(e -> saveIndex());
+        JButton open = new JButton("Open index…");
+        open.addActionListener(e -> openIndex());
+        JButton clear = new JButton("Clear");
+        clear.addActionListener(e -> {
+            index.clear();
+            refreshStatus("Index cleared");
+        });
+        JPanel indexRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        indexRow.add(update);
+        indexRow.add(followBox);
+        indexRow.add(save);
+        indexRow.add(open);
+        indexRow.add(clear);
+        indexRow.add(indexStatus);
+
+        JButton search = new JButton("Search");
+        search.addActionListener(e -> search());
+        valueField.addActionListener(e -> search());
+        pathField.addActionListener(e -> search());
+        JPanel queryRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        queryRow.add(new JLabel("Field path:"));
+        queryRow.add(pathField);
+        queryRow.add(new JLabel("Value:"));
+        queryRow.add(valueField);
+        queryRow.add(prefix);
+        queryRow.add(search);
+        queryRow.add(resultStatus);
+
+        JPanel top = new JPanel(new GridLayout(0, 1));
+        top.add(indexRow);
+        top.add(queryRow);
+
+        JTable table = new JTable(results);
+        table.setAutoCreateRowSorter(true);
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(new JLabel("Paths use the editor's format (e.g. 2.1.3); leave the path empty to match any field. "
+                + "Values match strings and varints (unsigned decimal)."), BorderLayout.SOUTH);
+    }
+
+    /** Stops following and any pass in progress; called when the extension unloads. */
+    void stop() {
+        stopped = true;
+        follow.stop();
+    }
+
+    /** Decodes and indexes history newer than the index, on a background thread. */
+    private void update() {
+        if (!indexing.compareAndSet(false, true)) return;
+        indexStatus.setText("Indexing…");
+        Thread worker = new Thread(() -> {
+            String message;
+            try {
+                List<ProxyWebSocketMessage> all = api.proxy().webSocketHistory();
+                history = all;
+                long began = System.nanoTime();
+                int added = 0;
+                for (int i = firstAfter(all, index.maxMessageId()); i < all.size() && !stopped; i++) {
+                    ProxyWebSocketMessage m = all.get(i);
+                    try {
+                        String url = m.upgradeRequest() != null ? m.upgradeRequest().url() : null;
+                        DecodedFrame frame = DecodedFrame.decode(m.payload().getBytes(), schemas.resolve(url, m.direction()));
+                        if (frame.isProtobuf()) {
+                            index.add(m.id(), frame);
+                            added++;
+                        }
+                    } catch (RuntimeException e) {
+                        // a frame Burp can no longer produce is skipped
+                    }
+                }
+                message = added == 0 ? null
+                        : "Indexed " + added + " new frames in " + (System.nanoTime() - began) / 1_000_000 + " ms";
+            } catch (Exception e) {
+                message = "Indexing failed: " + e.getMessage();
+            } finally {
+                indexing.set(false);
+            }
+            String status = message;
+            SwingUtilities.invokeLater(() -> refreshStatus(status));
+        }, "sockobuf-index");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Position of the first message with an ID above {@code id}; history is in ID order. */
+    private static int firstAfter(List<ProxyWebSocketMessage> all, int id) {
+        int lo = 0, hi = all.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (all.get(mid).id() <= id) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void search() {
+        long began = System.nanoTime();
+        int[] ids = index.query(pathField.getText().trim(), valueField.getText(), prefix.isSelected());
+        double ms = (System.nanoTime() - began) / 1e6;
+        results.show(ids, history);
+        resultStatus.setText(ids.length + " frames in " + String.format("%.2f", ms) + " ms"
+                + (ids.length > MAX_ROWS ? " (first " + MAX_ROWS + " shown)" : ""));
+    }
+
+    private void saveIndex() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("websocket.sbix"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            index.save(chooser.getSelectedFile().toPath());
+            refreshStatus("Saved to " + chooser.getSelectedFile());
+        } catch (Exception e) {
+            refreshStatus("Save failed: " + e.getMessage());
+        }
+    }
+
+    private void openIndex() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            index.open(chooser.getSelectedFile().toPath());
+            refreshStatus("Opened " + chooser.getSelectedFile());
+        } catch (Exception e) {
+            refreshStatus("Open failed: " + e.getMessage());
+        }
+    }
+
+    private void refreshStatus(String message) {
+        String counts = index.frames() + " frames, " + index.terms() + " terms indexed";
+        indexStatus.setText(message != null ? message + " — " + counts : counts);
+    }
+
+    private static final class ResultModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Message ID", "WebSocket ID", "Direction", "URL"};
+        private int[] ids = new int[0];
+        private ProxyWebSocketMessage[] rows = new ProxyWebSocketMessage[0];
+
+        void show(int[] matched, List<ProxyWebSocketMessage> history) {
+            ids = matched.length > MAX_ROWS ? Arrays.copyOf(matched, MAX_ROWS) : matched;
+            rows = new ProxyWebSocketMessage[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                int pos = firstAfter(history, ids[i] - 1);
+                if (pos < history.size() && history.get(pos).id() == ids[i]) rows[i] = history.get(pos);
+            }
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return ids.length; }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int c) { return COLUMNS[c]; }
+        @Override public Class<?> getColumnClass(int c) { return c <= 1 ? Integer.class : String.class; }
+
+        @Override
+        public Object getValueAt(int r, int c) {
+            ProxyWebSocketMessage m = rows[r];
+            switch (c) {
+                case 0: return ids[r];
+                case 1: return m != null ? m.webSocketId() : null;
+                case 2: return m != null ? String.valueOf(m.direction()) : "(not in current history)";
+                default: return m != null && m.upgradeRequest() != null ? m.upgradeRequest().url() : "";
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package x.mux0x.protobufws;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+
+/**
+ * Chooses the fields and values the Intruder payload generator and processor use. Edits apply
+ * to attacks started afterwards; running attacks keep the settings they started with.
+ */
+final class IntruderPanel extends JPanel {
+
+    private final IntruderPayloads payloads;
+    private final JTextArea paths = new JTextArea(6, 24);
+    private final JTextArea values = new JTextArea(6, 40);
+    private final JCheckBox builtins = new JCheckBox("Add built-in mutations");
+
+    IntruderPanel(IntruderPayloads payloads) {
+        super(new BorderLayout(0, 6));
+        this.payloads = payloads;
+
+        IntruderPayloads.Settings s = payloads.settings();
+        paths.setText(String.join("\n", s.paths));
+        values.setText(String.join("\n", s.values));
+        builtins.setSelected(s.builtins);
+
+        DocumentListener onEdit = new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { apply(); }
+            @Override public void removeUpdate(DocumentEvent e) { apply(); }
+            @Override public void changedUpdate(DocumentEvent e) { apply(); }
+        };
+        paths.getDocument().addDocumentListener(onEdit);
+        values.getDocument().addDocumentListener(onEdit);
+        builtins.addActionListener(e -> apply());
+
+        JPanel lists = new JPanel(new GridLayout(1, 2, 6, 0));
+        lists.add(titled("Field paths (one per line, 2.1.3 or 2.1.3[1])", paths));
+        lists.add(titled("Values (one per line; decimal for numeric fields)", values));
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        top.add(builtins);
+
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(top, BorderLayout.NORTH);
+        add(lists, BorderLayout.CENTER);
+        add(new JLabel("<html>In Intruder, mark the protobuf body (raw or base64) as the insertion point. "
+                + "The \"Sockobof protobuf fields\" generator sends the seed with each listed field set to each "
+                + "value in turn; the \"Sockobof: insert into protobuf fields\" processor puts any other payload "
+                + "into all listed fields. Length prefixes are patched, the rest of the message is sent as "
+                + "captured.</html>"), BorderLayout.SOUTH);
+    }
+
+    private static JComponent titled(String title, JTextArea area) {
+        JScrollPane scroll = new JScrollPane(area);
+        scroll.setBorder(BorderFactory.createTitledBorder(title));
+        return scroll;
+    }
+
+    private void apply() {
+        payloads.setSettings(new IntruderPayloads.Settings(IntruderPayloads.Settings.lines(paths.getText()),
+                IntruderPayloads.Settings.lines(values.getText()), builtins.isSelected()));
+    }
+}
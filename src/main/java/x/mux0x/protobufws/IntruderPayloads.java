@@ -0,0 +1,236 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.intruder.AttackConfiguration;
+import burp.api.montoya.intruder.GeneratedPayload;
+import burp.api.montoya.intruder.IntruderInsertionPoint;
+import burp.api.montoya.intruder.PayloadData;
+import burp.api.montoya.intruder.PayloadGenerator;
+import burp.api.montoya.intruder.PayloadGeneratorProvider;
+import burp.api.montoya.intruder.PayloadProcessingResult;
+import burp.api.montoya.intruder.PayloadProcessor;
+import burp.api.montoya.persistence.Preferences;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Intruder payloads built from a protobuf insertion point: the base value (raw, or one base64
+ * token) is compiled into a {@link ProtoTemplate} once per attack, and every payload is the seed
+ * with selected fields replaced, length prefixes patched. The generator walks each field through
+ * the configured values and the built-in mutations; the processor puts the current payload of
+ * any other generator into every selected field.
+ */
+final class IntruderPayloads {
+
+    private static final String PREF_PATHS = "sockobuf.intruderPaths";
+    private static final String PREF_VALUES = "sockobuf.intruderValues";
+    private static final String PREF_BUILTINS = "sockobuf.intruderBuiltins";
+
+    private static final byte[][] BUILTIN_BYTES = {
+            {},
+            "A".repeat(256).getBytes(StandardCharsets.US_ASCII),
+            "A".repeat(65536).getBytes(StandardCharsets.US_ASCII),
+            "%s%s%s%s%n%x".getBytes(StandardCharsets.US_ASCII),
+            "'\"<>`;|&$(){}[]\\".getBytes(StandardCharsets.US_ASCII),
+            "../../../../../../etc/passwd".getBytes(StandardCharsets.US_ASCII),
+            "${7*7}{{7*7}}#{7*7}".getBytes(StandardCharsets.US_ASCII),
+            {0},
+            {(byte) 0xC3, 0x28, (byte) 0xFF, (byte) 0xFE},                        // invalid UTF-8
+            "‮evil﻿😀".getBytes(StandardCharsets.UTF_8),
+            {0x0A, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},      // field 1, length 2^32-1
+            {0x08, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                    (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}, // overlong varint
+    };
+    private static final String[] BUILTIN_NUMBERS = {
+            "0", "1", "-1", "127", "128", "255", "65535", "2147483647", "2147483648", "-2147483648",
+            "4294967295", "4294967296", "9223372036854775807", "-9223372036854775808",
+    };
+
+    /** What the Intruder tab was last set to; swapped whole, so attacks see one consistent version. */
+    static final class Settings {
+        final List<String> paths;
+        final List<String> values;
+        final boolean builtins;
+
+        Settings(List<String> paths, List<String> values, boolean builtins) {
+            this.paths = List.copyOf(paths);
+            this.values = List.copyOf(values);
+            this.builtins = builtins;
+        }
+
+        void save(Preferences prefs) {
+            prefs.setString(PREF_PATHS, String.join("\n", paths));
+            prefs.setString(PREF_VALUES, String.join("\n", values));
+            prefs.setBoolean(PREF_BUILTINS, builtins);
+        }
+
+        static Settings restore(Preferences prefs) {
+            Boolean builtins = prefs.getBoolean(PREF_BUILTINS);
+            return new Settings(lines(prefs.getString(PREF_PATHS)), lines(prefs.getString(PREF_VALUES)),
+                    builtins == null || builtins);
+        }
+
+        static List<String> lines(String text) {
+            List<String> out = new ArrayList<>();
+            if (text == null) return out;
+            for (String line : text.split("\n")) if (!line.isBlank()) out.add(line.strip());
+            return out;
+        }
+    }
+
+    /** An insertion point's base value: the protobuf body and how to put a new body back. */
+    private static final class Seed {
+        final byte[] payload;
+        final Base64Envelope envelope; // null = raw body
+        final byte[] body;
+
+        private Seed(byte[] payload, Base64Envelope envelope, byte[] body) {
+            this.payload = payload;
+            this.envelope = envelope;
+            this.body = body;
+        }
+
+        static Seed of(byte[] payload) {
+            if (ProtoWire.looksLikeProtobuf(payload)) return new Seed(payload, null, payload);
+            Base64Envelope env = Base64Envelope.whole(payload, 0, payload.length);
+            return env != null ? new Seed(payload, env, env.decode(payload)) : new Seed(payload, null, payload);
+        }
+
+        ByteArray wrap(byte[] body) {
+            return ByteArray.byteArray(envelope != null ? envelope.wrap(payload, body) : body);
+        }
+    }
+
+    /** A seed compiled against one settings version; {@code template} is null when compiling failed. */
+    private static final class Compiled {
+        final byte[] base;
+        final Settings settings;
+        final Seed seed;
+        final ProtoTemplate template;
+
+        Compiled(byte[] base, Settings settings, Seed seed, ProtoTemplate template) {
+            this.base = base;
+            this.settings = settings;
+            this.seed = seed;
+            this.template = template;
+        }
+    }
+
+    private final MontoyaApi api;
+    private volatile Settings settings;
+    private volatile Compiled lastProcessed;
+
+    IntruderPayloads(MontoyaApi api) {
+        this.api = api;
+        this.settings = Settings.restore(api.persistence().preferences());
+    }
+
+    Settings settings() { return settings; }
+
+    void setSettings(Settings settings) {
+        this.settings = settings;
+        settings.save(api.persistence().preferences());
+    }
+
+    void register() {
+        api.intruder().registerPayloadGeneratorProvider(new PayloadGeneratorProvider() {
+            @Override public String displayName() { return "Sockobof protobuf fields"; }
+
+            @Override public PayloadGenerator providePayloadGenerator(AttackConfiguration attack) {
+                return new Generator(settings);
+            }
+        });
+        api.intruder().registerPayloadProcessor(new PayloadProcessor() {
+            @Override public String displayName() { return "Sockobof: insert into protobuf fields"; }
+
+            @Override public PayloadProcessingResult processPayload(PayloadData data) {
+                return process(data);
+            }
+        });
+    }
+
+    private Compiled compile(byte[] base, Settings s) {
+        Seed seed = Seed.of(base);
+        try {
+            return new Compiled(base, s, seed, ProtoTemplate.compile(seed.body, s.paths));
+        } catch (IllegalArgumentException e) {
+            api.logging().logToError("[Sockobof] Intruder: " + e.getMessage());
+            return new Compiled(base, s, seed, null);
+        }
+    }
+
+    private PayloadProcessingResult process(PayloadData data) {
+        byte[] base = data.insertionPoint().baseValue().getBytes();
+        Settings s = settings;
+        Compiled c = lastProcessed;
+        if (c == null || c.settings != s || !Arrays.equals(c.base, base)) lastProcessed = c = compile(base, s);
+        if (c.template == null) return PayloadProcessingResult.skipPayload();
+
+        byte[] raw = data.currentPayload().getBytes();
+        ProtoTemplate t = c.template;
+        byte[][] values = new byte[t.holes()][];
+        for (int h = 0; h < values.length; h++) {
+            values[h] = t.isVarint(h) ? t.value(h, new String(raw, StandardCharsets.UTF_8)) : raw;
+            if (values[h] == null) return PayloadProcessingResult.skipPayload(); // not a number for a varint field
+        }
+        Metrics.Span span = Metrics.start(Metrics.Stage.TEMPLATE);
+        byte[] body = t.instantiate(values);
+        span.end(body.length);
+        return PayloadProcessingResult.usePayload(c.seed.wrap(body));
+    }
+
+    /** One attack's walk: every selected field through every value, the other fields left as seeded. */
+    private final class Generator implements PayloadGenerator {
+        private final Settings settings;
+        private Compiled compiled;
+        private byte[][][] values; // per hole
+        private int hole;
+        private int index;
+
+        Generator(Settings settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public synchronized GeneratedPayload generatePayloadFor(IntruderInsertionPoint insertionPoint) {
+            if (compiled == null) {
+                compiled = compile(insertionPoint.baseValue().getBytes(), settings);
+                if (compiled.template != null) values = valuesFor(compiled.template);
+            }
+            if (compiled.template == null) return GeneratedPayload.end();
+            while (hole < values.length && index >= values[hole].length) {
+                hole++;
+                index = 0;
+            }
+            if (hole == values.length) return GeneratedPayload.end();
+            Metrics.Span span = Metrics.start(Metrics.Stage.TEMPLATE);
+            byte[] body = compiled.template.instantiate(hole, values[hole][index++]);
+            span.end(body.length);
+            return GeneratedPayload.payload(compiled.seed.wrap(body));
+        }
+
+        private byte[][][] valuesFor(ProtoTemplate t) {
+            byte[][][] out = new byte[t.holes()][][];
+            for (int h = 0; h < out.length; h++) {
+                List<byte[]> list = new ArrayList<>();
+                for (String v : settings.values) {
+                    byte[] b = t.value(h, v);
+                    if (b != null) list.add(b);
+                }
+                if (settings.builtins) {
+                    if (t.isVarint(h)) {
+                        for (String n : BUILTIN_NUMBERS) list.add(t.value(h, n));
+                    } else {
+                        list.addAll(Arrays.asList(BUILTIN_BYTES));
+                    }
+                }
+                out[h] = list.toArray(new byte[0][]);
+            }
+            return out;
+        }
+    }
+}
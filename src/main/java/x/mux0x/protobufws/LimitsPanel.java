@@ -0,0 +1,90 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Edits the {@link ParseBudget.Limits}: heuristic depth and embedded size, plus the bytes, nodes
+ * and time one parse may spend. Applied limits take effect for the next parse and are remembered
+ * across restarts; cached decodes are dropped so every frame is seen under the same limits.
+ */
+final class LimitsPanel extends JPanel {
+
+    private final MontoyaApi api;
+    private final Runnable onChange;
+    private final JSpinner depth = new JSpinner(new SpinnerNumberModel(0, 0, 64, 1));
+    private final JSpinner embeddedKb = new JSpinner(new SpinnerNumberModel(1, 0, 1_048_576, 64));
+    private final JSpinner scannedMb = new JSpinner(new SpinnerNumberModel(1, 1, 65_536, 16));
+    private final JSpinner nodes = new JSpinner(new SpinnerNumberModel(1, 1, 100_000_000, 100_000));
+    private final JSpinner millis = new JSpinner(new SpinnerNumberModel(1, 1, 60_000, 50));
+    private final JLabel status = new JLabel(" ");
+
+    LimitsPanel(MontoyaApi api, Runnable onChange) {
+        super(new BorderLayout(0, 6));
+        this.api = api;
+        this.onChange = onChange;
+
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.anchor = GridBagConstraints.WEST;
+        c.insets = new Insets(2, 2, 2, 8);
+        row(form, c, 0, "Heuristic nesting depth", depth, "levels guessed without a schema");
+        row(form, c, 1, "Largest span guessed as a message", embeddedKb, "KB");
+        row(form, c, 2, "Bytes tokenized per parse", scannedMb, "MB, counting nested re-reads");
+        row(form, c, 3, "Nodes per parse", nodes, "fields");
+        row(form, c, 4, "Time per parse", millis, "ms");
+
+        JButton apply = new JButton("Apply");
+        apply.addActionListener(e -> apply());
+        JButton defaults = new JButton("Defaults");
+        defaults.addActionListener(e -> {
+            show(ParseBudget.Limits.DEFAULT);
+            apply();
+        });
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        top.add(apply);
+        top.add(defaults);
+        top.add(status);
+
+        JPanel center = new JPanel(new BorderLayout());
+        center.add(form, BorderLayout.NORTH);
+
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(top, BorderLayout.NORTH);
+        add(center, BorderLayout.CENTER);
+        add(new JLabel("<html>When a parse runs out, the field being decoded stays raw (expand it in the tree to retry "
+                + "with a fresh budget) and the rest of the message is shown as one unparsed span; the frame is still "
+                + "sent unchanged. Over-budget parses are counted on the Metrics tab.</html>"), BorderLayout.SOUTH);
+
+        show(ParseBudget.limits);
+    }
+
+    private static void row(JPanel form, GridBagConstraints c, int y, String label, JSpinner spinner, String unit) {
+        c.gridy = y;
+        c.gridx = 0;
+        form.add(new JLabel(label), c);
+        c.gridx = 1;
+        form.add(spinner, c);
+        c.gridx = 2;
+        form.add(new JLabel(unit), c);
+    }
+
+    private void show(ParseBudget.Limits l) {
+        depth.setValue(l.maxDepth);
+        embeddedKb.setValue(l.maxEmbeddedBytes / 1024);
+        scannedMb.setValue((int) (l.maxBytes / (1024 * 1024)));
+        nodes.setValue(l.maxNodes);
+        millis.setValue(l.maxMillis);
+    }
+
+    private void apply() {
+        ParseBudget.Limits l = new ParseBudget.Limits((Integer) depth.getValue(), (Integer) embeddedKb.getValue() * 1024,
+                (Integer) scannedMb.getValue() * 1024L * 1024, (Integer) nodes.getValue(), (Integer) millis.getValue());
+        ParseBudget.limits = l;
+        l.save(api.persistence().preferences());
+        onChange.run();
+        status.setText("Applied; cached decodes cleared.");
+    }
+}
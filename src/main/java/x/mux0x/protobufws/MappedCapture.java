@@ -0,0 +1,92 @@
+package x.mux0x.protobufws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A capture file mapped read-only into memory, addressed by long offsets. A single mapping is
+ * limited to 2 GB, so the file is mapped as consecutive {@link #SEGMENT_BYTES} segments and reads
+ * that straddle a boundary are stitched together. Pages come from the OS page cache on demand;
+ * nothing is read onto the heap except what a caller copies out, so the footprint does not grow
+ * with the file.
+ */
+final class MappedCapture implements Closeable {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = (int) (SEGMENT_BYTES - 1);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    MappedCapture(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        int n = (int) ((size + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+        }
+    }
+
+    long size() { return size; }
+
+    int get(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) pos & SEGMENT_MASK) & 0xFF;
+    }
+
+    /** Copies {@code len} bytes at {@code pos} into {@code dst}; the only copy a frame goes through. */
+    void get(long pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            MappedByteBuffer s = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int at = (int) pos & SEGMENT_MASK;
+            int n = Math.min(len, s.limit() - at);
+            s.get(at, dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Position just past the next '\n' at or after {@code pos}, or the end of the file. */
+    long nextLine(long pos) {
+        while (pos < size) {
+            if (get(pos++) == '\n') return pos;
+        }
+        return size;
+    }
+
+    /** Sequential reader over the whole file, for formats that can only be parsed front to back. */
+    InputStream stream() {
+        return new InputStream() {
+            private long pos;
+
+            @Override
+            public int read() {
+                return pos < size ? get(pos++) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (pos >= size) return -1;
+                int n = (int) Math.min(len, size - pos);
+                get(pos, b, off, n);
+                pos += n;
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close(); // the mappings themselves are released when they are collected
+    }
+}
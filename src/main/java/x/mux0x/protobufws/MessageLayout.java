@@ -0,0 +1,102 @@
+package x.mux0x.protobufws;
+
+import com.google.protobuf.Descriptors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A message type compiled for the wire parser: field number → {@link Field} in a dense array
+ * (or a map for very sparse numbering), so typed decoding is one array load per field instead of
+ * a descriptor lookup. Layouts are built once per type by {@link SchemaRegistry} and shared.
+ */
+final class MessageLayout {
+
+    private static final int MAX_DENSE_FIELD = 4096;
+
+    enum Kind { MESSAGE, STRING, BYTES, VARINT, FIXED64, FIXED32, GROUP }
+
+    static final class Field {
+        final int number;
+        final String name;
+        final Kind kind;
+        final Descriptors.FieldDescriptor.Type type;
+        final boolean repeated;
+        final boolean packable;    // repeated scalar: may arrive packed or one value per field, whatever is declared
+        MessageLayout message;     // for MESSAGE fields; linked after construction (types may be recursive)
+
+        Field(Descriptors.FieldDescriptor fd) {
+            this.number = fd.getNumber();
+            this.name = fd.getName();
+            this.type = fd.getType();
+            this.kind = kindOf(fd.getType());
+            this.repeated = fd.isRepeated();
+            this.packable = fd.isRepeated() && (kind == Kind.VARINT || kind == Kind.FIXED64 || kind == Kind.FIXED32);
+        }
+
+        /** Wire type of a single value of this field. */
+        int wireType() {
+            switch (kind) {
+                case VARINT: return 0;
+                case FIXED64: return 1;
+                case FIXED32: return 5;
+                case GROUP: return 3;
+                default: return 2;
+            }
+        }
+
+        /** Whether a value may arrive with {@code wireType}: parsers must accept repeated scalars in either encoding. */
+        boolean accepts(int wireType) {
+            return wireType == wireType() || (packable && wireType == 2);
+        }
+    }
+
+    final String fullName;
+    private final Field[] dense;
+    private final Map<Integer, Field> sparse;
+
+    private MessageLayout(String fullName, Field[] dense, Map<Integer, Field> sparse) {
+        this.fullName = fullName;
+        this.dense = dense;
+        this.sparse = sparse;
+    }
+
+    /** The field with this number, or null if the schema does not declare it. */
+    Field field(int number) {
+        if (dense != null) return (number > 0 && number < dense.length) ? dense[number] : null;
+        return sparse.get(number);
+    }
+
+    /** Compiles {@code type} and every message type reachable from it; {@code memo} breaks cycles. */
+    static MessageLayout compile(Descriptors.Descriptor type, Map<Descriptors.Descriptor, MessageLayout> memo) {
+        MessageLayout done = memo.get(type);
+        if (done != null) return done;
+
+        int max = 0;
+        for (Descriptors.FieldDescriptor fd : type.getFields()) max = Math.max(max, fd.getNumber());
+        Field[] dense = max <= MAX_DENSE_FIELD ? new Field[max + 1] : null;
+        Map<Integer, Field> sparse = dense == null ? new HashMap<>() : null;
+        MessageLayout layout = new MessageLayout(type.getFullName(), dense, sparse);
+        memo.put(type, layout);
+
+        for (Descriptors.FieldDescriptor fd : type.getFields()) {
+            Field f = new Field(fd);
+            if (dense != null) dense[f.number] = f;
+            else sparse.put(f.number, f);
+            if (f.kind == Kind.MESSAGE) f.message = compile(fd.getMessageType(), memo);
+        }
+        return layout;
+    }
+
+    private static Kind kindOf(Descriptors.FieldDescriptor.Type t) {
+        switch (t) {
+            case MESSAGE: return Kind.MESSAGE;
+            case STRING: return Kind.STRING;
+            case BYTES: return Kind.BYTES;
+            case GROUP: return Kind.GROUP;
+            case DOUBLE: case FIXED64: case SFIXED64: return Kind.FIXED64;
+            case FLOAT: case FIXED32: case SFIXED32: return Kind.FIXED32;
+            default: return Kind.VARINT; // int32/64, uint32/64, sint32/64, bool, enum
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package x.mux0x.protobufws;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency, throughput and allocation counters for each decode/encode stage, plus
+ * decode cache hit rates. Recording is two clock reads, a few striped adds and a log2 histogram
+ * bucket, so it stays on in production; each stage is also a {@link StageEvent} for JFR recordings.
+ *
+ * Stages nest: detection includes whatever parse or inflate the first decode of a frame does,
+ * so the rows are not meant to add up.
+ */
+final class Metrics {
+
+    enum Stage {
+        DETECT("Detection"),
+        BASE64("Base64 decode"),
+        INFLATE("Inflate"),
+        PARSE("Parse"),
+        LEAVES("Leaf collection"),
+        RENDER("Render"),
+        SERIALIZE("Serialize"),
+        REWRAP("Re-wrap / recompress"),
+        REWRITE("Proxy rewrite rules"),
+        TEMPLATE("Intruder templates");
+
+        final String label;
+        final Stat stat = new Stat();
+
+        Stage(String label) { this.label = label; }
+    }
+
+    /** Counters for one stage. Percentiles come from power-of-two nanosecond buckets. */
+    static final class Stat {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder tracked = new LongAdder();   // spans that measured their allocation
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        /** {@code allocatedBytes} is negative for spans started while allocation tracking was off. */
+        void record(long elapsedNanos, long byteCount, long allocatedBytes) {
+            count.increment();
+            nanos.add(elapsedNanos);
+            bytes.add(byteCount);
+            if (allocatedBytes >= 0) {
+                tracked.increment();
+                allocated.add(allocatedBytes);
+            }
+            histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(Math.max(elapsedNanos, 1)));
+            long m;
+            while (elapsedNanos > (m = max.get()) && !max.compareAndSet(m, elapsedNanos)) { }
+        }
+
+        long count() { return count.sum(); }
+        long nanos() { return nanos.sum(); }
+        long bytes() { return bytes.sum(); }
+        long allocated() { return allocated.sum(); }
+        long tracked() { return tracked.sum(); }
+        long max() { return max.get(); }
+
+        /** Upper bound (ns) of the bucket holding quantile {@code q}; 0 when nothing was recorded. */
+        long percentile(double q) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += counts[i] = histogram.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(i >= 63 ? Long.MAX_VALUE : 1L << i, max());
+            }
+            return max();
+        }
+
+        void reset() {
+            count.reset();
+            nanos.reset();
+            bytes.reset();
+            allocated.reset();
+            tracked.reset();
+            max.set(0);
+            for (int i = 0; i < BUCKETS; i++) histogram.set(i, 0);
+        }
+    }
+
+    /** One timed run of a stage; ended exactly once. */
+    static final class Span {
+        private final Stage stage;
+        private final long start;
+        private final long startAllocated;
+        private final StageEvent event;
+
+        private Span(Stage stage) {
+            this.stage = stage;
+            this.event = new StageEvent();
+            event.begin();
+            this.startAllocated = trackAllocations && THREADS != null ? allocatedBytes() : -1;
+            this.start = System.nanoTime();
+        }
+
+        void end(long byteCount) {
+            long elapsed = System.nanoTime() - start;
+            long allocated = startAllocated >= 0 ? allocatedBytes() - startAllocated : -1;
+            stage.stat.record(elapsed, byteCount, allocated);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.label;
+                event.bytes = byteCount;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    static final LongAdder CACHE_HITS = new LongAdder();
+    static final LongAdder CACHE_MISSES = new LongAdder();
+    static final LongAdder BUDGET_EXHAUSTED = new LongAdder(); // parses cut short by their ParseBudget
+
+    // HotSpot's per-thread allocation counter; null on VMs without it
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+    // Off by default: reading the counter roughly doubles the cost of a span
+    private static volatile boolean trackAllocations;
+    private static boolean enabledCounter; // the JVM-wide counter was off until tracking switched it on
+
+    private Metrics() { }
+
+    static Span start(Stage stage) {
+        return new Span(stage);
+    }
+
+    static boolean allocationTrackingSupported() {
+        return THREADS != null;
+    }
+
+    static boolean trackingAllocations() { return trackAllocations; }
+
+    /** Turns allocation tracking on or off, enabling the JVM's per-thread counter only while it is needed. */
+    static synchronized void trackAllocations(boolean on) {
+        if (THREADS == null) return;
+        try {
+            if (on && !THREADS.isThreadAllocatedMemoryEnabled()) {
+                THREADS.setThreadAllocatedMemoryEnabled(true);
+                enabledCounter = true;
+            }
+            trackAllocations = on;
+            if (!on && enabledCounter) {
+                THREADS.setThreadAllocatedMemoryEnabled(false);
+                enabledCounter = false;
+            }
+        } catch (RuntimeException e) {
+            trackAllocations = false; // e.g. denied by a security manager
+        }
+    }
+
+    static void reset() {
+        for (Stage s : Stage.values()) s.stat.reset();
+        CACHE_HITS.reset();
+        CACHE_MISSES.reset();
+        BUDGET_EXHAUSTED.reset();
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            return threads.isThreadAllocatedMemorySupported() ? threads : null;
+        } catch (RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package x.mux0x.protobufws;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+
+/** Live view of {@link Metrics}: one row per stage, refreshed while the tab is showing. */
+final class MetricsPanel extends JPanel {
+
+    private static final int REFRESH_INTERVAL_MS = 1000;
+
+    private final StageModel stages = new StageModel();
+    private final JLabel cacheStatus = new JLabel(" ");
+    private final Timer refresh = new Timer(REFRESH_INTERVAL_MS, e -> refresh());
+
+    MetricsPanel() {
+        super(new BorderLayout(0, 6));
+
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(e -> {
+            Metrics.reset();
+            refresh();
+        });
+        JCheckBox allocations = new JCheckBox("Track allocations", Metrics.trackingAllocations());
+        allocations.setEnabled(Metrics.allocationTrackingSupported());
+        allocations.addActionListener(e -> Metrics.trackAllocations(allocations.isSelected()));
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        top.add(reset);
+        top.add(allocations);
+        top.add(cacheStatus);
+
+        JTable table = new JTable(stages);
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(new JLabel("Latencies are power-of-two bucket bounds; stages nest (detection includes the first parse). "
+                + "Each stage is also the JFR event x.mux0x.sockobuf.Stage."), BorderLayout.SOUTH);
+
+        addHierarchyListener(e -> {
+            if (isShowing()) {
+                refresh();
+                refresh.start();
+            } else {
+                refresh.stop();
+            }
+        });
+    }
+
+    /** Stops refreshing; called when the extension unloads. */
+    void stop() {
+        refresh.stop();
+    }
+
+    private void refresh() {
+        stages.fireTableRowsUpdated(0, stages.getRowCount() - 1);
+        long hits = Metrics.CACHE_HITS.sum(), misses = Metrics.CACHE_MISSES.sum();
+        long lookups = hits + misses;
+        String cache = lookups == 0 ? "Decode cache: no lookups yet"
+                : String.format("Decode cache: %,d hits / %,d lookups (%.1f%%)", hits, lookups, 100.0 * hits / lookups);
+        cacheStatus.setText(cache + String.format(" — %,d parse(s) over budget", Metrics.BUDGET_EXHAUSTED.sum()));
+    }
+
+    private static final class StageModel extends AbstractTableModel {
+        private static final String[] COLUMNS =
+                {"Stage", "Count", "Bytes", "Mean µs", "p50 µs", "p99 µs", "Max µs", "MB/s", "Alloc/op"};
+        private static final Metrics.Stage[] ROWS = Metrics.Stage.values();
+
+        @Override public int getRowCount() { return ROWS.length; }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int c) { return COLUMNS[c]; }
+
+        @Override
+        public Object getValueAt(int r, int c) {
+            Metrics.Stat s = ROWS[r].stat;
+            long count = s.count();
+            if (c == 0) return ROWS[r].label;
+            if (c == 1) return String.format("%,d", count);
+            if (count == 0) return "";
+            switch (c) {
+                case 2: return String.format("%,d", s.bytes());
+                case 3: return micros(s.nanos() / count);
+                case 4: return micros(s.percentile(0.50));
+                case 5: return micros(s.percentile(0.99));
+                case 6: return micros(s.max());
+                case 7: return s.nanos() == 0 ? "" : String.format("%.1f", s.bytes() * 1000.0 / s.nanos());
+                default: return s.tracked() == 0 ? "" : String.format("%,d B", s.allocated() / s.tracked());
+            }
+        }
+
+        private static String micros(long nanos) {
+            return String.format("%.1f", nanos / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package x.mux0x.protobufws;
+
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A packed repeated scalar field decoded into one primitive array: raw varint values or fixed64
+ * bits in a {@code long[]}, fixed32 bits in an {@code int[]}. No per-element {@link ProtoWire.Node}
+ * is created, and {@link #encode} writes the whole run back in a single presized loop.
+ * Instances are immutable; an edit produces a new array via {@link #parse}.
+ */
+final class PackedArray {
+
+    enum Encoding { VARINT, FIXED64, FIXED32 }
+
+    // Heuristic guesses need this many elements before a blob is called an array; short binary
+    // values (ids, hashes, flags) fit the varint and double shapes by chance far too often
+    private static final int MIN_GUESSED_VARINTS = 8;
+    private static final int MIN_GUESSED_DOUBLES = 4;
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    final Encoding encoding;
+    final Type type;        // declared element type; null when guessed (varints unsigned, fixed64 doubles)
+    final long[] longs;     // VARINT and FIXED64
+    final int[] ints;       // FIXED32
+
+    private PackedArray(Encoding encoding, Type type, long[] longs, int[] ints) {
+        this.encoding = encoding;
+        this.type = type;
+        this.longs = longs;
+        this.ints = ints;
+    }
+
+    int size() { return ints != null ? ints.length : longs.length; }
+
+    /** Element type as shown to the user, e.g. "sint32", "double", "varint". */
+    String typeName() {
+        if (type != null) return type.name().toLowerCase(Locale.ROOT);
+        return encoding == Encoding.FIXED64 ? "double" : "varint";
+    }
+
+    // ————— Decoding —————
+
+    /** Decodes a packed run of {@code type}; null if the bytes are not a whole number of elements. */
+    static PackedArray decode(byte[] a, int off, int len, Type type) {
+        Encoding enc = encodingOf(type);
+        if (enc == null) return null;
+        switch (enc) {
+            case VARINT: {
+                long[] v = decodeVarints(a, off, len);
+                return v != null ? new PackedArray(enc, type, v, null) : null;
+            }
+            case FIXED64:
+                return len % 8 == 0 ? new PackedArray(enc, type, decodeFixed64(a, off, len), null) : null;
+            default:
+                return len % 4 == 0 ? new PackedArray(enc, type, null, decodeFixed32(a, off, len)) : null;
+        }
+    }
+
+    /**
+     * Guesses whether an untyped blob is a packed array. Only shapes that random bytes rarely
+     * produce are accepted: fixed64 runs whose every value is a plausible double, or varint runs
+     * that are minimally encoded and whose elements all have one or two adjacent encoded lengths.
+     * Either needs {@link #MIN_GUESSED_VARINTS} / {@link #MIN_GUESSED_DOUBLES} elements, and a
+     * blob of zero bytes (padding, an empty buffer) is never an array.
+     */
+    static PackedArray guess(byte[] a, int off, int len) {
+        if (len >= 8 * MIN_GUESSED_DOUBLES && len % 8 == 0) {
+            long[] bits = decodeFixed64(a, off, len);
+            if (allPlausibleDoubles(bits)) return new PackedArray(Encoding.FIXED64, null, bits, null);
+        }
+        if (len < MIN_GUESSED_VARINTS || a[off + len - 1] < 0 || allZero(a, off, len)) return null;
+        int end = off + len, count = 0, minLen = 10, maxLen = 0;
+        for (int i = off; i < end; ) {
+            int start = i;
+            while (i < end && a[i] < 0) i++;
+            i++; // terminator (the last byte is known to have its high bit clear)
+            int n = i - start;
+            if (n > 10 || (n > 1 && a[i - 1] == 0)) return null; // too long, or a non-minimal encoding
+            minLen = Math.min(minLen, n);
+            maxLen = Math.max(maxLen, n);
+            if (maxLen - minLen > 1) return null;
+            count++;
+        }
+        if (count < MIN_GUESSED_VARINTS) return null;
+        long[] v = decodeVarints(a, off, len);
+        return v != null ? new PackedArray(Encoding.VARINT, null, v, null) : null;
+    }
+
+    private static boolean allPlausibleDoubles(long[] bits) {
+        boolean nonZero = false;
+        for (long b : bits) {
+            double d = Double.longBitsToDouble(b);
+            double m = Math.abs(d);
+            if (d != 0 && !(m >= 1e-12 && m <= 1e15)) return false;
+            nonZero |= d != 0;
+        }
+        return nonZero;
+    }
+
+    private static boolean allZero(byte[] a, int off, int len) {
+        for (int i = off; i < off + len; i++) if (a[i] != 0) return false;
+        return true;
+    }
+
+    private static long[] decodeVarints(byte[] a, int off, int len) {
+        int end = off + len, count = 0;
+        for (int i = off; i < end; i++) if (a[i] >= 0) count++; // one terminator per element
+        long[] v = new long[count];
+        WireReader r = new WireReader(a, off);
+        for (int k = 0; k < count; k++) {
+            v[k] = r.readVarint64(end);
+            if (r.failed()) return null;
+        }
+        return r.pos == end ? v : null;
+    }
+
+    private static long[] decodeFixed64(byte[] a, int off, int len) {
+        long[] v = new long[len >>> 3];
+        for (int k = 0; k < v.length; k++) v[k] = (long) LONG_LE.get(a, off + (k << 3));
+        return v;
+    }
+
+    private static int[] decodeFixed32(byte[] a, int off, int len) {
+        int[] v = new int[len >>> 2];
+        for (int k = 0; k < v.length; k++) v[k] = (int) INT_LE.get(a, off + (k << 2));
+        return v;
+    }
+
+    // ————— Encoding —————
+
+    /** The packed payload (without key or length prefix). */
+    byte[] encode() {
+        switch (encoding) {
+            case VARINT: {
+                int size = 0;
+                for (long v : longs) size += WireWriter.varintSize(v);
+                WireWriter out = new WireWriter(size);
+                for (long v : longs) out.writeVarint(v);
+                return out.toByteArray();
+            }
+            case FIXED64: {
+                byte[] b = new byte[longs.length << 3];
+                for (int k = 0; k < longs.length; k++) LONG_LE.set(b, k << 3, longs[k]);
+                return b;
+            }
+            default: {
+                byte[] b = new byte[ints.length << 2];
+                for (int k = 0; k < ints.length; k++) INT_LE.set(b, k << 2, ints[k]);
+                return b;
+            }
+        }
+    }
+
+    boolean sameValues(PackedArray o) {
+        return encoding == o.encoding && Arrays.equals(longs, o.longs) && Arrays.equals(ints, o.ints);
+    }
+
+    // ————— Text form: "[1, 2, 3]" —————
+
+    /** Up to {@code max} elements in display form, e.g. "[1, -2, 3…]". */
+    String format(int max) {
+        int n = size(), shown = Math.min(n, max);
+        StringBuilder sb = new StringBuilder(shown * 6 + 2).append('[');
+        for (int k = 0; k < shown; k++) {
+            if (k > 0) sb.append(", ");
+            appendElement(sb, k);
+        }
+        if (shown < n) sb.append(", …");
+        return sb.append(']').toString();
+    }
+
+    @Override
+    public String toString() { return format(Integer.MAX_VALUE); }
+
+    /** Parses the {@link #toString} form back into an array of the same element type. */
+    PackedArray parse(String text) {
+        String t = text.trim();
+        if (t.startsWith("[")) t = t.substring(1);
+        if (t.endsWith("]")) t = t.substring(0, t.length() - 1);
+        String[] parts = t.isBlank() ? new String[0] : t.split(",");
+        if (encoding == Encoding.FIXED32) {
+            int[] v = new int[parts.length];
+            for (int k = 0; k < parts.length; k++) v[k] = (int) parseElement(parts[k].trim());
+            return new PackedArray(encoding, type, null, v);
+        }
+        long[] v = new long[parts.length];
+        for (int k = 0; k < parts.length; k++) v[k] = parseElement(parts[k].trim());
+        return new PackedArray(encoding, type, v, null);
+    }
+
+    private void appendElement(StringBuilder sb, int k) {
+        if (encoding == Encoding.FIXED32) {
+            int v = ints[k];
+            if (type == Type.FLOAT) sb.append(Float.intBitsToFloat(v));
+            else if (type == Type.SFIXED32) sb.append(v);
+            else sb.append(Integer.toUnsignedString(v));
+            return;
+        }
+        long v = longs[k];
+        if (encoding == Encoding.FIXED64) {
+            if (type == null || type == Type.DOUBLE) sb.append(Double.longBitsToDouble(v));
+            else if (type == Type.SFIXED64) sb.append(v);
+            else sb.append(Long.toUnsignedString(v));
+            return;
+        }
+        if (type == null) { sb.append(Long.toUnsignedString(v)); return; }
+        switch (type) {
+            case BOOL: sb.append(v != 0); break;
+            case INT32: case ENUM: sb.append((int) v); break;
+            case INT64: sb.append(v); break;
+            case SINT32: case SINT64: sb.append((v >>> 1) ^ -(v & 1)); break;
+            case UINT32: sb.append(Integer.toUnsignedString((int) v)); break;
+            default: sb.append(Long.toUnsignedString(v));
+        }
+    }
+
+    /** Inverse of {@link #appendElement}: the raw wire value for one element. */
+    private long parseElement(String s) {
+        if (encoding == Encoding.FIXED32) {
+            if (type == Type.FLOAT) return Float.floatToRawIntBits(Float.parseFloat(s));
+            if (type == Type.SFIXED32) return Integer.parseInt(s);
+            return Integer.parseUnsignedInt(s);
+        }
+        if (encoding == Encoding.FIXED64) {
+            if (type == null || type == Type.DOUBLE) return Double.doubleToRawLongBits(Double.parseDouble(s));
+            if (type == Type.SFIXED64) return Long.parseLong(s);
+            return Long.parseUnsignedLong(s);
+        }
+        if (type == null) return Long.parseUnsignedLong(s);
+        switch (type) {
+            case BOOL:
+                if (s.equals("true") || s.equals("1")) return 1;
+                if (s.equals("false") || s.equals("0")) return 0;
+                throw new NumberFormatException("Not a bool: \"" + s + "\"");
+            case INT32: case ENUM: return Integer.parseInt(s); // negative int32 is sign-extended to 10 bytes
+            case INT64: return Long.parseLong(s);
+            case SINT32: case SINT64: { long x = Long.parseLong(s); return (x << 1) ^ (x >> 63); }
+            case UINT32: return Integer.toUnsignedLong(Integer.parseUnsignedInt(s));
+            default: return Long.parseUnsignedLong(s);
+        }
+    }
+
+    private static Encoding encodingOf(Type type) {
+        switch (type) {
+            case DOUBLE: case FIXED64: case SFIXED64: return Encoding.FIXED64;
+            case FLOAT: case FIXED32: case SFIXED32: return Encoding.FIXED32;
+            case STRING: case BYTES: case MESSAGE: case GROUP: return null;
+            default: return Encoding.VARINT;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.persistence.Preferences;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work allowance for one parse: bytes tokenized (a byte counts again at every level a nested
+ * attempt re-reads it), nodes created and wall time. {@link ProtoWire} charges it as it goes;
+ * once any limit is hit, the field being tried stays an unparsed leaf and the rest of the
+ * message is kept as one raw span, so a pathological frame costs at most the budget plus a
+ * flat scan. The clock is read every {@link #CLOCK_CHECK_INTERVAL} charges.
+ */
+final class ParseBudget {
+
+    private static final int CLOCK_CHECK_INTERVAL = 64;
+
+    private static final String PREF_LIMITS = "sockobuf.parseLimits";
+
+    /** Settable limits; replaced whole, so a parse sees one consistent set. */
+    static final class Limits {
+        static final Limits DEFAULT = new Limits(5, 1_048_576, 64L * 1024 * 1024, 1_000_000, 200);
+
+        final int maxDepth;          // heuristic nesting depth (schema-declared messages go deeper)
+        final int maxEmbeddedBytes;  // larger spans are never guessed to be messages
+        final long maxBytes;
+        final int maxNodes;
+        final int maxMillis;
+
+        Limits(int maxDepth, int maxEmbeddedBytes, long maxBytes, int maxNodes, int maxMillis) {
+            if (maxDepth < 0 || maxEmbeddedBytes < 0 || maxBytes <= 0 || maxNodes <= 0 || maxMillis <= 0) {
+                throw new IllegalArgumentException("Limits must be positive");
+            }
+            this.maxDepth = maxDepth;
+            this.maxEmbeddedBytes = maxEmbeddedBytes;
+            this.maxBytes = maxBytes;
+            this.maxNodes = maxNodes;
+            this.maxMillis = maxMillis;
+        }
+
+        void save(Preferences prefs) {
+            prefs.setString(PREF_LIMITS, maxDepth + "\t" + maxEmbeddedBytes + "\t" + maxBytes + "\t" + maxNodes + "\t" + maxMillis);
+        }
+
+        static Limits restore(Preferences prefs) {
+            String saved = prefs.getString(PREF_LIMITS);
+            if (saved == null) return DEFAULT;
+            try {
+                String[] cols = saved.split("\t");
+                return new Limits(Integer.parseInt(cols[0]), Integer.parseInt(cols[1]), Long.parseLong(cols[2]),
+                        Integer.parseInt(cols[3]), Integer.parseInt(cols[4]));
+            } catch (RuntimeException e) {
+                return DEFAULT;
+            }
+        }
+    }
+
+    static volatile Limits limits = Limits.DEFAULT;
+
+    final int maxDepth;
+    final int maxEmbeddedBytes;
+    private final long maxBytes;
+    private final int maxNodes;
+    private final long deadline;
+    private long bytes;
+    private int nodes;
+    private int sinceClock;
+    private boolean exhausted;
+    private boolean timedOut;
+
+    private ParseBudget(Limits l) {
+        this.maxDepth = l.maxDepth;
+        this.maxEmbeddedBytes = l.maxEmbeddedBytes;
+        this.maxBytes = l.maxBytes;
+        this.maxNodes = l.maxNodes;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(l.maxMillis);
+    }
+
+    /** A fresh budget from the current limits. */
+    static ParseBudget start() {
+        return new ParseBudget(limits);
+    }
+
+    boolean exhausted() { return exhausted; }
+
+    /** True if the time limit (rather than a size limit) ran out: the result depends on machine load. */
+    boolean timedOut() { return timedOut; }
+
+    /** Records one node and {@code tokenized} bytes; false once the budget has run out. */
+    boolean charge(int tokenized) {
+        if (exhausted) return false;
+        bytes += tokenized;
+        if (++nodes > maxNodes || bytes > maxBytes) return runOut();
+        if (++sinceClock == CLOCK_CHECK_INTERVAL) {
+            sinceClock = 0;
+            if (System.nanoTime() - deadline > 0) {
+                timedOut = true;
+                return runOut();
+            }
+        }
+        return true;
+    }
+
+    private boolean runOut() {
+        exhausted = true;
+        Metrics.BUDGET_EXHAUSTED.increment();
+        return false;
+    }
+}
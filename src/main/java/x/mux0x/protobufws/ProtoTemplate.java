@@ -0,0 +1,284 @@
+package x.mux0x.protobufws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A seed message compiled for mass mutation: its bytes are cut into fixed segments and "holes"
+ * (selected leaf values), and every length prefix that a hole's size feeds into (its own and
+ * those of each enclosing message) is recorded with the holes it depends on. A mutated frame is
+ * then one exactly-sized array: fixed segments copied, hole values written, affected prefixes
+ * recomputed. No tree is built; besides the output, the only allocation is one int per prefix.
+ *
+ * Holes are addressed like the editor's field paths ({@code 2.1.3}), with {@code [n]} picking the
+ * n-th occurrence of a repeated path (default 0). Length-delimited leaves take raw bytes; varint
+ * leaves take an encoded varint (see {@link #value}).
+ */
+final class ProtoTemplate {
+
+    private final byte[] seed;
+    final String[] paths;
+    private final int[] holeWireType;       // 0 or 2
+    private final int[] holeLength;         // original value length
+
+    // Regions of the seed that change per instance, in seed order
+    private final int[] cutStart;
+    private final int[] cutEnd;
+    private final int[] cutRef;             // >= 0: value of that hole; < 0: prefix ~cutRef
+
+    // Length prefixes, deepest first: original length and varint size, and what sits directly inside
+    // each one (prefix p -> member[memberFrom[p]..memberFrom[p+1]), each a hole h or a nested prefix ~q < p)
+    private final int[] prefixBase;
+    private final int[] prefixBytes;
+    private final int[] memberFrom;
+    private final int[] member;
+
+    private ProtoTemplate(byte[] seed, String[] paths, int[] holeWireType, int[] holeLength, int[] cutStart, int[] cutEnd,
+                          int[] cutRef, int[] prefixBase, int[] prefixBytes, int[] memberFrom, int[] member) {
+        this.seed = seed;
+        this.paths = paths;
+        this.holeWireType = holeWireType;
+        this.holeLength = holeLength;
+        this.cutStart = cutStart;
+        this.cutEnd = cutEnd;
+        this.cutRef = cutRef;
+        this.prefixBase = prefixBase;
+        this.prefixBytes = prefixBytes;
+        this.memberFrom = memberFrom;
+        this.member = member;
+    }
+
+    /** Parses {@code seed} once and cuts it at {@code holePaths}; throws if the seed or a path does not fit. */
+    static ProtoTemplate compile(byte[] seed, List<String> holePaths) {
+        ProtoWire.ParseResult parsed = ProtoWire.tryParse(seed);
+        if (parsed == null) throw new IllegalArgumentException("Seed is not a protobuf message");
+        int holes = holePaths.size();
+        if (holes == 0) throw new IllegalArgumentException("No field paths selected");
+
+        ProtoWire.Node[] nodes = new ProtoWire.Node[holes];
+        for (int h = 0; h < holes; h++) {
+            nodes[h] = find(parsed.root, holePaths.get(h));
+            for (int g = 0; g < h; g++) {
+                if (nodes[g] == nodes[h] || contains(nodes[g], nodes[h]) || contains(nodes[h], nodes[g])) {
+                    throw new IllegalArgumentException("Paths " + holePaths.get(g) + " and " + holePaths.get(h) + " overlap");
+                }
+            }
+        }
+
+        // Every length prefix above (and, for length-delimited holes, of) each hole, deepest first so
+        // a message's new length is known before its parent's is worked out
+        List<ProtoWire.Node> prefixNodes = new ArrayList<>();
+        Map<ProtoWire.Node, Integer> depthOf = new IdentityHashMap<>();
+        for (int h = 0; h < holes; h++) {
+            for (ProtoWire.Node n = ownPrefix(nodes[h]); n != null && n.wireType == 2; n = n.parent) {
+                if (depthOf.containsKey(n)) break;
+                int depth = 0;
+                for (ProtoWire.Node up = n.parent; up != null; up = up.parent) depth++;
+                depthOf.put(n, depth);
+                prefixNodes.add(n);
+            }
+        }
+        prefixNodes.sort((x, y) -> Integer.compare(depthOf.get(y), depthOf.get(x)));
+        Map<ProtoWire.Node, Integer> prefixOf = new IdentityHashMap<>();
+        for (ProtoWire.Node n : prefixNodes) prefixOf.put(n, prefixOf.size());
+
+        // What sits directly inside each prefix: holes, and nested messages whose size may change
+        List<List<Integer>> members = new ArrayList<>();
+        for (int p = 0; p < prefixNodes.size(); p++) members.add(new ArrayList<>());
+        for (int h = 0; h < holes; h++) {
+            ProtoWire.Node n = ownPrefix(nodes[h]);
+            if (n != null && n.wireType == 2) members.get(prefixOf.get(n)).add(h);
+        }
+        for (ProtoWire.Node n : prefixNodes) {
+            if (n.parent != null && n.parent.wireType == 2) members.get(prefixOf.get(n.parent)).add(~prefixOf.get(n));
+        }
+
+        int cuts = holes + prefixNodes.size();
+        long[] order = new long[cuts]; // start << 32 | cut id, so sorting puts cuts in seed order
+        for (int h = 0; h < holes; h++) order[h] = ((long) nodes[h].offset << 32) | h;
+        for (int p = 0; p < prefixNodes.size(); p++) {
+            order[holes + p] = ((long) keyEnd(seed, prefixNodes.get(p)) << 32) | (holes + p);
+        }
+        Arrays.sort(order);
+
+        int[] cutStart = new int[cuts], cutEnd = new int[cuts], cutRef = new int[cuts];
+        for (int i = 0; i < cuts; i++) {
+            int id = (int) order[i];
+            if (id < holes) {
+                ProtoWire.Node n = nodes[id];
+                cutStart[i] = n.offset;
+                cutEnd[i] = n.offset + n.length;
+                cutRef[i] = id;
+            } else {
+                ProtoWire.Node n = prefixNodes.get(id - holes);
+                cutStart[i] = keyEnd(seed, n);
+                cutEnd[i] = n.offset;
+                cutRef[i] = ~(id - holes);
+            }
+        }
+
+        int[] holeWireType = new int[holes], holeLength = new int[holes];
+        for (int h = 0; h < holes; h++) {
+            holeWireType[h] = nodes[h].wireType;
+            holeLength[h] = nodes[h].length;
+        }
+        int prefixes = prefixNodes.size();
+        int[] prefixBase = new int[prefixes], prefixBytes = new int[prefixes], memberFrom = new int[prefixes + 1];
+        int total = 0;
+        for (List<Integer> m : members) total += m.size();
+        int[] member = new int[total];
+        for (int p = 0, k = 0; p < prefixes; p++) {
+            ProtoWire.Node n = prefixNodes.get(p);
+            prefixBase[p] = n.length;
+            prefixBytes[p] = n.offset - keyEnd(seed, n);
+            memberFrom[p] = k;
+            for (int m : members.get(p)) member[k++] = m;
+            memberFrom[p + 1] = k;
+        }
+        return new ProtoTemplate(seed, holePaths.toArray(new String[0]), holeWireType, holeLength, cutStart, cutEnd,
+                cutRef, prefixBase, prefixBytes, memberFrom, member);
+    }
+
+    int holes() { return paths.length; }
+
+    boolean isVarint(int hole) { return holeWireType[hole] == 0; }
+
+    /**
+     * The bytes to put in {@code hole} for {@code text}: UTF-8 for length-delimited holes, an
+     * encoded varint for numeric ones (decimal, signed or unsigned); null if the text is not a number.
+     */
+    byte[] value(int hole, String text) {
+        if (holeWireType[hole] == 2) return text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        long v;
+        try {
+            String s = text.trim();
+            v = s.startsWith("-") ? Long.parseLong(s) : Long.parseUnsignedLong(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        WireWriter w = new WireWriter(WireWriter.varintSize(v));
+        w.writeVarint(v);
+        return w.toByteArray();
+    }
+
+    /** The seed with {@code value} in {@code hole} and every other hole as it was. */
+    byte[] instantiate(int hole, byte[] value) {
+        return instantiate(hole, value, null);
+    }
+
+    /** The seed with {@code values[h]} in each hole h; a null entry keeps the seed's value. */
+    byte[] instantiate(byte[][] values) {
+        return instantiate(-1, null, values);
+    }
+
+    private byte[] instantiate(int single, byte[] singleValue, byte[][] values) {
+        int[] lengths = new int[prefixBase.length];
+        int size = seed.length;
+        for (int p = 0; p < lengths.length; p++) {
+            int len = prefixBase[p];
+            for (int k = memberFrom[p]; k < memberFrom[p + 1]; k++) {
+                int m = member[k];
+                if (m >= 0) {
+                    byte[] v = m == single ? singleValue : values != null ? values[m] : null;
+                    if (v != null) len += v.length - holeLength[m];
+                } else {
+                    len += lengths[~m] - prefixBase[~m] + WireWriter.varintSize(lengths[~m]) - prefixBytes[~m];
+                }
+            }
+            lengths[p] = len;
+            size += WireWriter.varintSize(len) - prefixBytes[p];
+        }
+        for (int h = 0; h < holeLength.length; h++) {
+            byte[] v = h == single ? singleValue : values != null ? values[h] : null;
+            if (v != null) size += v.length - holeLength[h];
+        }
+
+        byte[] out = new byte[size];
+        int pos = 0, copied = 0;
+        for (int i = 0; i < cutRef.length; i++) {
+            int n = cutStart[i] - copied;
+            System.arraycopy(seed, copied, out, pos, n);
+            pos += n;
+            int ref = cutRef[i];
+            byte[] v;
+            if (ref < 0) {
+                pos = writeVarint(out, pos, lengths[~ref]);
+            } else if ((v = ref == single ? singleValue : values != null ? values[ref] : null) != null) {
+                System.arraycopy(v, 0, out, pos, v.length);
+                pos += v.length;
+            } else {
+                n = cutEnd[i] - cutStart[i];
+                System.arraycopy(seed, cutStart[i], out, pos, n);
+                pos += n;
+            }
+            copied = cutEnd[i];
+        }
+        System.arraycopy(seed, copied, out, pos, seed.length - copied);
+        return out;
+    }
+
+    private static int writeVarint(byte[] out, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    /** End of the key varint of a field, i.e. where its length prefix starts. */
+    private static int keyEnd(byte[] seed, ProtoWire.Node n) {
+        int p = n.spanStart;
+        while (seed[p] < 0) p++;
+        return p + 1;
+    }
+
+    /** The length prefix a hole's size change lands in first: its own, or its message's for a varint. */
+    private static ProtoWire.Node ownPrefix(ProtoWire.Node hole) {
+        return hole.wireType == 2 ? hole : hole.parent;
+    }
+
+    private static boolean contains(ProtoWire.Node outer, ProtoWire.Node inner) {
+        for (ProtoWire.Node n = inner.parent; n != null; n = n.parent) if (n == outer) return true;
+        return false;
+    }
+
+    /** The {@code [n]}-th leaf (length-delimited or varint) at a dotted field path. */
+    private static ProtoWire.Node find(ProtoWire.Node root, String spec) {
+        String path = spec.trim();
+        int occurrence = 0;
+        int bracket = path.indexOf('[');
+        try {
+            if (bracket >= 0 && path.endsWith("]")) {
+                occurrence = Integer.parseInt(path.substring(bracket + 1, path.length() - 1).trim());
+                path = path.substring(0, bracket).trim();
+            }
+            String[] parts = path.split("\\.");
+            int[] numbers = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) numbers[i] = Integer.parseInt(parts[i].trim());
+            int[] seen = {0};
+            ProtoWire.Node n = find(root, numbers, 0, occurrence, seen);
+            if (n != null) return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad field path '" + spec + "'");
+        }
+        throw new IllegalArgumentException("No varint or length-delimited leaf at " + spec + " in the seed");
+    }
+
+    private static ProtoWire.Node find(ProtoWire.Node node, int[] path, int depth, int occurrence, int[] seen) {
+        if (node.children == null) return null;
+        for (ProtoWire.Node c : node.children) {
+            if (c.fieldNumber != path[depth]) continue;
+            if (depth + 1 < path.length) {
+                ProtoWire.Node hit = find(c, path, depth + 1, occurrence, seen);
+                if (hit != null) return hit;
+            } else if ((c.wireType == 0 || c.wireType == 2) && seen[0]++ == occurrence) {
+                return c;
+            }
+        }
+        return null;
+    }
+}
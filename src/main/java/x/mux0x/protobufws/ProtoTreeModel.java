@@ -0,0 +1,212 @@
+package x.mux0x.protobufws;
+
+import com.google.protobuf.Descriptors;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lazy TreeModel over a shallow {@link ProtoWire} parse, backing the editor's tree view.
+ * An embedded message is parsed (one level, via {@link ProtoWire#expand}) the first time JTree
+ * asks for its children, which only happens when its row is expanded; labels are built the first
+ * time a row is painted. Neither cost depends on how big the rest of the frame is.
+ * When the frame was decoded against a schema, rows carry field names and typed values.
+ */
+final class ProtoTreeModel implements TreeModel {
+
+    private static final int PREVIEW_BYTES = 256;
+    private static final int PREVIEW_ELEMENTS = 32;
+
+    /** One tree row; wraps a node, or just a message for placeholder/error trees. */
+    static final class Row {
+        final ProtoWire.Node node;
+        final String path;            // NodePath format, e.g. "2.1.3"
+        private String label;
+        private List<Row> children;   // built on first access
+        private byte expandable;      // 0 = unknown, 1 = yes, -1 = no
+
+        Row(ProtoWire.Node node, String path, String label) {
+            this.node = node;
+            this.path = path;
+            this.label = label;
+        }
+
+        boolean isExpandable() {
+            if (expandable == 0) {
+                boolean yes;
+                if (node == null) yes = false;
+                else if (node.children != null) yes = true;
+                // Declared strings/bytes and packed arrays never expand, however message-like their bytes are
+                else if (node.packed != null || declaredLeaf(node)) yes = false;
+                else if (!node.isLeafLenDelimited() || node.length == 0) yes = false;
+                else {
+                    // Cheap flat scans as a hint; the real parse waits for the expansion
+                    int end = node.offset + node.length;
+                    yes = ProtoWire.looksLikeProtobuf(node.buf, node.offset, end);
+                    if (!yes || !ProtoWire.looksLikeMessage(node.buf, node.offset, end)) {
+                        node.packed = ProtoWire.guessPacked(node); // same precedence as a full parse
+                        if (node.packed != null) yes = false;
+                    }
+                }
+                expandable = (byte) (yes ? 1 : -1);
+            }
+            return expandable > 0;
+        }
+
+        List<Row> children() {
+            if (children == null) {
+                if (!isExpandable() || !ProtoWire.expand(node)) {
+                    children = Collections.emptyList();
+                } else {
+                    children = new ArrayList<>(node.children.size());
+                    for (ProtoWire.Node c : node.children) {
+                        children.add(new Row(c, path.isEmpty() ? Integer.toString(c.fieldNumber)
+                                : path + "." + c.fieldNumber, null));
+                    }
+                }
+            }
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            if (label == null) label = describe(this);
+            return label;
+        }
+    }
+
+    private final Row root;
+    private final EventListenerList listeners = new EventListenerList();
+
+    private ProtoTreeModel(Row root) {
+        this.root = root;
+    }
+
+    /**
+     * Tree over the message at [off, end) of {@code buf}, or null if it is not protobuf; decoded
+     * against {@code layout} when the frame's message type is known. {@code note} is added to the root label.
+     */
+    static ProtoTreeModel of(byte[] buf, int off, int end, String note, MessageLayout layout) {
+        ProtoWire.ParseResult parsed = ProtoWire.tryParseShallow(buf, off, end, layout);
+        if (parsed == null) return null;
+        String label = (layout != null ? layout.fullName : "message")
+                + " (" + (end - off) + " bytes" + (note != null ? ", " + note : "") + ")";
+        return new ProtoTreeModel(new Row(parsed.root, "", label));
+    }
+
+    /** Single-row tree used for the decoding placeholder and for errors. */
+    static ProtoTreeModel message(String text) {
+        return new ProtoTreeModel(new Row(null, "", text));
+    }
+
+    @Override public Object getRoot() { return root; }
+    @Override public Object getChild(Object parent, int index) { return ((Row) parent).children().get(index); }
+    @Override public int getChildCount(Object parent) { return ((Row) parent).children().size(); }
+    @Override public boolean isLeaf(Object node) { return !((Row) node).isExpandable(); }
+    @Override public int getIndexOfChild(Object parent, Object child) { return ((Row) parent).children().indexOf(child); }
+    @Override public void valueForPathChanged(TreePath path, Object newValue) { /* read-only view */ }
+    @Override public void addTreeModelListener(TreeModelListener l) { listeners.add(TreeModelListener.class, l); }
+    @Override public void removeTreeModelListener(TreeModelListener l) { listeners.remove(TreeModelListener.class, l); }
+
+    // ---------- labels ----------
+    private static String describe(Row row) {
+        ProtoWire.Node n = row.node;
+        if (n.wireType == ProtoWire.UNPARSED_SPAN) {
+            return "⚠ " + n.length + " bytes not parsed (parse budget exhausted; see SockoBuf → Limits)";
+        }
+        String label = describeValue(row);
+        return n.unparsed ? label + "  ⚠ not parsed: parse budget exhausted, expand to retry" : label;
+    }
+
+    private static String describeValue(Row row) {
+        ProtoWire.Node n = row.node;
+        if (n.wireType == -1) return "message";
+        String head = row.path + (n.fieldName != null ? " " + n.fieldName + " " : " ");
+        MessageLayout.Field field = declared(n);
+        switch (n.wireType) {
+            case 0: {
+                long v = new WireReader(n.buf, n.offset).readVarint64(n.offset + n.length);
+                if (field != null) return head + "(" + typeName(field) + "): " + typedVarint(field, v);
+                return head + "(varint): " + Long.toUnsignedString(v);
+            }
+            case 1: {
+                long v = littleEndian(n, 8);
+                if (field != null && field.type == Descriptors.FieldDescriptor.Type.DOUBLE) return head + "(double): " + Double.longBitsToDouble(v);
+                if (field != null && field.type == Descriptors.FieldDescriptor.Type.SFIXED64) return head + "(sfixed64): " + v;
+                if (field != null) return head + "(fixed64): " + Long.toUnsignedString(v);
+                return head + "(fixed64): 0x" + String.format("%016x", v) + " / " + Double.longBitsToDouble(v);
+            }
+            case 5: {
+                int v = (int) littleEndian(n, 4);
+                if (field != null && field.type == Descriptors.FieldDescriptor.Type.FLOAT) return head + "(float): " + Float.intBitsToFloat(v);
+                if (field != null && field.type == Descriptors.FieldDescriptor.Type.SFIXED32) return head + "(sfixed32): " + v;
+                if (field != null) return head + "(fixed32): " + Integer.toUnsignedString(v);
+                return head + "(fixed32): 0x" + String.format("%08x", v) + " / " + Float.intBitsToFloat(v);
+            }
+            case 2: {
+                boolean expandable = row.isExpandable(); // may classify the leaf as a packed array
+                if (n.packed != null) {
+                    return head + "(packed " + n.packed.typeName() + " ×" + n.packed.size() + "): "
+                            + n.packed.format(PREVIEW_ELEMENTS);
+                }
+                if (field != null && field.message != null) {
+                    return head + "(" + field.message.fullName + ", " + n.length + " bytes)";
+                }
+                if (expandable) return head + "(message, " + n.length + " bytes)";
+                int shown = Math.min(n.length, PREVIEW_BYTES);
+                String more = shown < n.length ? "…" : "";
+                if (n.isUtf8Printable()) {
+                    String text = new String(n.buf, n.offset, shown, StandardCharsets.UTF_8)
+                            .replace("\r", "\\r").replace("\n", "\\n");
+                    return head + "(string, " + n.length + " bytes): \"" + text + more + "\"";
+                }
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < Math.min(shown, 32); i++) {
+                    hex.append(String.format("%02x", n.buf[n.offset + i] & 0xFF));
+                }
+                return head + "(bytes, " + n.length + " bytes): " + hex + (n.length > 32 ? "…" : "");
+            }
+            default:
+                return head + "(wire type " + n.wireType + ")";
+        }
+    }
+
+    /** The schema's declaration for {@code n}, if its parent was decoded against one and the wire type agrees. */
+    private static MessageLayout.Field declared(ProtoWire.Node n) {
+        if (n.fieldName == null || n.parent == null || n.parent.layout == null) return null;
+        return n.parent.layout.field(n.fieldNumber);
+    }
+
+    private static boolean declaredLeaf(ProtoWire.Node n) {
+        MessageLayout.Field f = declared(n);
+        return f != null && f.message == null;
+    }
+
+    private static String typeName(MessageLayout.Field f) {
+        return f.type.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String typedVarint(MessageLayout.Field f, long v) {
+        switch (f.type) {
+            case BOOL: return Boolean.toString(v != 0);
+            case INT32: case ENUM: return Integer.toString((int) v);
+            case INT64: return Long.toString(v);
+            case SINT32: case SINT64: return Long.toString((v >>> 1) ^ -(v & 1));
+            case UINT32: return Integer.toUnsignedString((int) v);
+            default: return Long.toUnsignedString(v);
+        }
+    }
+
+    private static long littleEndian(ProtoWire.Node n, int width) {
+        long v = 0;
+        for (int i = width - 1; i >= 0; i--) v = (v << 8) | (n.buf[n.offset + i] & 0xFFL);
+        return v;
+    }
+}
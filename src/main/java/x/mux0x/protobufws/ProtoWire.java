@@ -1,33 +1,66 @@
 package x.mux0x.protobufws;
 
-import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Protobuf wire-format tokenizer with recursive descent:
  * - Parses length-delimited fields as embedded messages when they themselves look like protobuf.
  * - Surfaces UTF-8 strings at any depth; preserves binary fields as-is.
- * Not schema-aware; no groups (wire types 3/4).
+ * - With a {@link MessageLayout}, declared fields are decoded by type instead of by guessing:
+ *   message fields recurse without a speculative attempt, strings/bytes are never re-parsed,
+ *   and only undeclared fields fall back to the heuristic.
+ * - Decodes packed repeated scalars into a {@link PackedArray} (declared packed, or unmistakably
+ *   array-shaped) instead of leaving them opaque or misreading them as messages.
+ * No groups (wire types 3/4).
  */
 public final class ProtoWire {
 
-    private static final int MAX_DEPTH = 5;
-    private static final int MAX_EMBEDDED_BYTES = 1_048_576; // 1MB safety
+    private static final int MAX_TYPED_DEPTH = 64;           // schema-driven descent is not a guess, but still bounded
+    // Heuristic depth, the size above which spans are not guessed to be messages, and the work
+    // allowed per parse all come from ParseBudget.limits
+
+    /** Wire type of the node standing for the rest of a message once the {@link ParseBudget} ran out. */
+    static final int UNPARSED_SPAN = -2;
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HASH_PRIME = 0x9E3779B97F4A7C15L;
 
     public static final class Node {
         public int fieldNumber;
         public int wireType; // 0=varint,1=fixed64,2=len,5=fixed32
 
-        // Raw content holders (exactly as captured) — we prefer to preserve bytes
-        public byte[] rawVarintBytes;     // for wireType 0
-        public byte[] fixedBytes;         // for 1 and 5
+        // View of the field value inside the frame buffer: raw varint bytes (0), fixed bytes (1/5)
+        // or the payload (2). Parsing never copies; an edit swaps in a freshly materialized array.
+        public byte[] buf;
+        public int offset;
+        public int length;
 
         // For wire type 2:
-        public byte[] lengthDelimited;    // if not a parsed submessage or editable string set here
         public List<Node> children;       // if parsed as embedded message
+        public Node parent;
+
+        // Original span of the whole field (key through value) in the frame it was parsed from.
+        // A clean node is re-emitted by copying this span verbatim.
+        public byte[] source;
+        public int spanStart;
+        public int spanEnd;
+        public boolean dirty;             // this node or something below it was edited
+
+        public String fieldName;          // from the schema, or null when decoded heuristically
+        MessageLayout layout;             // message type of this node's payload, if known
+        PackedArray packed;               // set when this length-delimited leaf is a packed scalar array
+
+        int encodedPayloadSize;           // scratch for serialize(), valid for dirty type-2 nodes
+        private byte utf8Printable;       // 0 = not computed yet, 1 = printable, -1 = not
+        private long hash;                // subtreeHash(), 0 = not computed yet
+        boolean unparsed;                 // the parse budget ran out before this span was looked into
 
         public Node(int fieldNumber, int wireType) {
             this.fieldNumber = fieldNumber;
@@ -36,99 +69,418 @@ public final class ProtoWire {
 
         public boolean isEmbeddedMessage() { return children != null; }
         public boolean isLeafLenDelimited() { return wireType == 2 && children == null; }
+
+        /** Copies the viewed value out of the frame buffer. */
+        public byte[] valueBytes() { return Arrays.copyOfRange(buf, offset, offset + length); }
+
+        /** Replaces the value with {@code value} (dropping any parsed children); the frame buffer is left untouched. */
+        public void setValue(byte[] value) {
+            this.children = null;
+            this.packed = null;
+            this.buf = value;
+            this.offset = 0;
+            this.length = value.length;
+            this.utf8Printable = 0;
+            markDirty();
+        }
+
+        /** Replaces a packed array's elements; the payload is re-encoded in one pass. */
+        void setPacked(PackedArray values) {
+            setValue(values.encode());
+            this.packed = values;
+        }
+
+        /** Flags this node and every ancestor, so only the path to the root gets re-encoded. */
+        public void markDirty() {
+            for (Node n = this; n != null && (!n.dirty || n.hash != 0); n = n.parent) {
+                n.dirty = true;
+                n.hash = 0;
+            }
+        }
+
+        /**
+         * Merkle hash of the field: key and value bytes for a leaf, key and the children's hashes
+         * in order for a message. Equal hashes mean equal subtrees (up to 64-bit collisions), so a
+         * diff can skip them without looking inside. Computed once per node; edits and
+         * {@link ProtoWire#expand} clear it on the path to the root.
+         */
+        long subtreeHash() {
+            long h = hash;
+            if (h != 0) return h;
+            h = mix(((long) fieldNumber << 3 | (wireType & 7)) * HASH_PRIME + (children != null ? 1 : 0));
+            if (children != null) {
+                for (Node c : children) h = mix(h * HASH_PRIME + c.subtreeHash());
+            } else {
+                h = hashBytes(buf, offset, length, h);
+            }
+            if (h == 0) h = 1;
+            hash = h; // benign race: every thread computes the same answer
+            return h;
+        }
+
+        public boolean isClean() { return !dirty && source != null; }
+
+        /** {@link ProtoWire#isUtf8Printable} of the value, computed once per node. */
+        public boolean isUtf8Printable() {
+            byte c = utf8Printable;
+            if (c == 0) {
+                c = ProtoWire.isUtf8Printable(buf, offset, length) ? (byte) 1 : (byte) -1;
+                utf8Printable = c; // benign race: every thread computes the same answer
+            }
+            return c > 0;
+        }
     }
 
     public static final class ParseResult {
         public final Node root;
-        public ParseResult(Node root) { this.root = root; }
+        public final boolean timedOut; // cut short by the time limit: a retry may get further
+        public ParseResult(Node root) { this(root, false); }
+        ParseResult(Node root, boolean timedOut) {
+            this.root = root;
+            this.timedOut = timedOut;
+        }
     }
 
     // ————— Public API —————
 
     public static boolean looksLikeProtobuf(byte[] data) {
-        try {
-            int i = 0, n = data.length;
-            while (i < n) {
-                Varint key = readVarint(data, i);
-                if (key.len <= 0) return false;
-                i += key.len;
-
-                int wireType = (int)(key.value & 0x7);
-                if (wireType == 3 || wireType == 4) return false; // groups unsupported
-
-                switch (wireType) {
-                    case 0: { // varint
-                        Varint v = readVarint(data, i);
-                        if (v.len <= 0) return false;
-                        i += v.len;
-                        break;
-                    }
-                    case 1: // fixed64
-                        i += 8; if (i > n) return false; break;
-                    case 2: { // length-delimited
-                        Varint l = readVarint(data, i);
-                        if (l.len <= 0) return false;
-                        int size = asInt(l.value);
-                        if (size < 0) return false;
-                        i += l.len + size;
-                        if (i > n) return false;
-                        break;
-                    }
-                    case 5: // fixed32
-                        i += 4; if (i > n) return false; break;
-                    default:
-                        return false;
+        return looksLikeProtobuf(data, 0, data.length);
+    }
+
+    /** Flat, single-level scan: checks that [off, end) tokenizes into well-formed fields. */
+    public static boolean looksLikeProtobuf(byte[] data, int off, int end) {
+        return scan(data, off, end, false, false);
+    }
+
+    /**
+     * Stricter flat scan for embedded spans: non-empty and no field number 0, which encoders
+     * never emit but packed arrays of small values produce constantly.
+     */
+    static boolean looksLikeMessage(byte[] data, int off, int end) {
+        return off < end && scan(data, off, end, true, false);
+    }
+
+    /**
+     * {@link #looksLikeProtobuf} for the first bytes of a longer body: the last field may run
+     * past {@code end}. Lets a frame too large to decode up front be judged from its start.
+     */
+    static boolean looksLikeProtobufPrefix(byte[] data, int off, int end, boolean rejectFieldZero) {
+        return off < end && scan(data, off, end, rejectFieldZero, true);
+    }
+
+    /**
+     * Decodes an untyped, non-text length-delimited leaf as a packed array if its bytes are
+     * unmistakably one ({@link PackedArray#guess}); returns null otherwise.
+     */
+    static PackedArray guessPacked(Node n) {
+        if (!n.isLeafLenDelimited() || n.isUtf8Printable()) return null;
+        return PackedArray.guess(n.buf, n.offset, n.length);
+    }
+
+    /** With {@code cut}, a field that runs past {@code end} (its key and length are at most 20 bytes) ends the scan successfully. */
+    private static boolean scan(byte[] data, int off, int end, boolean rejectFieldZero, boolean cut) {
+        WireReader r = new WireReader(data, off);
+        while (r.pos < end) {
+            int start = r.pos;
+            long key = r.readVarint64(end);
+            if (r.failed()) return cut && end - start <= 10;
+            if (rejectFieldZero && (key >>> 3) == 0) return false;
+
+            switch ((int)(key & 0x7)) {
+                case 0: // varint
+                    r.skipVarint(end);
+                    break;
+                case 1: // fixed64
+                    r.skip(8, end);
+                    break;
+                case 2: { // length-delimited
+                    long size = r.readVarint64(end);
+                    if (r.failed()) return cut && end - start <= 20;
+                    if (size < 0 || size > end - r.pos) return cut && size >= 0;
+                    r.pos += (int) size;
+                    break;
                 }
+                case 5: // fixed32
+                    r.skip(4, end);
+                    break;
+                default: // groups (3/4) unsupported
+                    return false;
             }
-            return i == n;
-        } catch (Exception e) {
-            return false;
+            if (r.failed()) return cut && end - start <= 20;
         }
+        return true;
     }
 
     public static ParseResult parse(byte[] data) {
+        ParseResult result = tryParse(data);
+        if (result == null) throw new IllegalArgumentException("Not a protobuf message");
+        return result;
+    }
+
+    /**
+     * Validates and builds the tree in one speculative pass; returns null when {@code data}
+     * is not a well-formed message. Cheaper than {@link #looksLikeProtobuf} followed by {@link #parse}.
+     */
+    public static ParseResult tryParse(byte[] data) {
+        return tryParse(data, 0, data.length, true, null);
+    }
+
+    /**
+     * Parses only the top level: every length-delimited field stays a leaf until {@link #expand}
+     * is called on it. Used by the lazy tree view, where most subtrees are never looked at.
+     */
+    public static ParseResult tryParseShallow(byte[] data) {
+        return tryParse(data, 0, data.length, false, null);
+    }
+
+    /** {@link #tryParse(byte[])} against a known root type; null {@code layout} means heuristic. */
+    static ParseResult tryParse(byte[] data, MessageLayout layout) {
+        return tryParse(data, 0, data.length, true, layout);
+    }
+
+    /** {@link #tryParse(byte[], MessageLayout)} over [off, end) of a larger buffer, without copying it out. */
+    static ParseResult tryParse(byte[] data, int off, int end, MessageLayout layout) {
+        return tryParse(data, off, end, true, layout);
+    }
+
+    /** {@link #tryParseShallow(byte[])} against a known root type. */
+    static ParseResult tryParseShallow(byte[] data, MessageLayout layout) {
+        return tryParse(data, 0, data.length, false, layout);
+    }
+
+    /** {@link #tryParseShallow(byte[], MessageLayout)} over [off, end) of a larger buffer. */
+    static ParseResult tryParseShallow(byte[] data, int off, int end, MessageLayout layout) {
+        return tryParse(data, off, end, false, layout);
+    }
+
+    /**
+     * Parses a length-delimited leaf as an embedded message, one level deep and in place.
+     * Returns true when {@code node} now has children; a leaf that is not a message is left alone.
+     */
+    public static boolean expand(Node node) {
+        if (node.children != null) return true;
+        if (!node.isLeafLenDelimited() || node.length == 0) return false;
+        int end = node.offset + node.length;
+        Metrics.Span span = Metrics.start(Metrics.Stage.PARSE);
+        ParseBudget budget = ParseBudget.start();
+        List<Node> kids = (node.layout != null)
+                ? parseAt(new WireReader(node.buf, node.offset), end, 0, false, node, node.layout, budget)
+                : null;
+        if (kids == null) kids = parseAt(new WireReader(node.buf, node.offset), end, 0, false, node, null, budget);
+        span.end(node.length);
+        if (kids == null || kids.isEmpty()) return false;
+        node.children = kids;
+        node.unparsed = false;
+        for (Node n = node; n != null && n.hash != 0; n = n.parent) n.hash = 0; // was hashed as a leaf
+        return true;
+    }
+
+    private static ParseResult tryParse(byte[] data, int off, int end, boolean deep, MessageLayout layout) {
         Node root = new Node(0, -1);
-        root.children = parseAt(data, 0, data.length, 0);
-        return new ParseResult(root);
+        Metrics.Span span = Metrics.start(Metrics.Stage.PARSE);
+        ParseBudget budget = ParseBudget.start();
+        List<Node> children = parseAt(new WireReader(data, off), end, 0, deep, root, layout, budget);
+        span.end(end - off);
+        if (children == null) return null;
+        root.children = children;
+        root.layout = layout;
+        root.source = data;
+        root.spanStart = off;
+        root.spanEnd = end;
+        return new ParseResult(root, budget.timedOut());
     }
 
+    /**
+     * Re-encodes the tree. Clean subtrees are copied from their original span as one contiguous
+     * range; only dirty nodes (edited leaves and their ancestors) get fresh keys and length prefixes.
+     */
     public static byte[] serialize(Node root) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (root.isClean()) return Arrays.copyOfRange(root.source, root.spanStart, root.spanEnd);
+        Metrics.Span span = Metrics.start(Metrics.Stage.SERIALIZE);
+        WireWriter out = new WireWriter(measureChildren(root.children)); // exact size: no growth, no final copy
         writeChildren(out, root.children);
+        span.end(out.size());
         return out.toByteArray();
     }
 
+    /** Structural copy that shares the byte views; edits to the copy never reach {@code node}. */
+    public static Node copy(Node node) {
+        Node c = new Node(node.fieldNumber, node.wireType);
+        c.buf = node.buf;
+        c.offset = node.offset;
+        c.length = node.length;
+        c.source = node.source;
+        c.spanStart = node.spanStart;
+        c.spanEnd = node.spanEnd;
+        c.dirty = node.dirty;
+        c.fieldName = node.fieldName;
+        c.layout = node.layout;
+        c.packed = node.packed; // immutable: an edit replaces it
+        c.utf8Printable = node.utf8Printable;
+        c.hash = node.hash;
+        c.unparsed = node.unparsed;
+        if (node.children != null) {
+            c.children = new ArrayList<>(node.children.size());
+            for (Node child : node.children) {
+                Node cc = copy(child);
+                cc.parent = c;
+                c.children.add(cc);
+            }
+        }
+        return c;
+    }
+
     /** Scan tree and collect length-delimited leaves (both utf8-printable and binary), depth-first. */
     public static List<NodePath> collectEditableLeaves(Node root) {
         List<NodePath> out = new ArrayList<>();
-        walk(root, new ArrayList<>(), out);
+        walk(root, new ArrayList<>(), out, false);
+        return out;
+    }
+
+    /** True if a parse limit left part of the tree undecoded ({@link Node#unparsed} leaves or an {@link #UNPARSED_SPAN}). */
+    static boolean hasUnparsed(Node node) {
+        if (node.unparsed) return true;
+        if (node.children != null) {
+            for (Node c : node.children) {
+                if (hasUnparsed(c)) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Every leaf: numbers and fixed-width values too, and {@link #UNPARSED_SPAN}s (as field 0), depth-first. */
+    static List<NodePath> collectLeaves(Node root) {
+        List<NodePath> out = new ArrayList<>();
+        walk(root, new ArrayList<>(), out, true);
         return out;
     }
 
     public static boolean isUtf8Printable(byte[] data) {
-        try {
-            String s = new String(data, StandardCharsets.UTF_8);
-            byte[] round = s.getBytes(StandardCharsets.UTF_8);
-            if (round.length != data.length) return false;
-            int printable = 0;
-            for (int i = 0; i < s.length(); i++) {
-                char c = s.charAt(i);
-                if (c == '\r' || c == '\n' || c == '\t' || (c >= 0x20 && c != 0x7F)) printable++;
+        return isUtf8Printable(data, 0, data.length);
+    }
+
+    /**
+     * True if [off, off+len) is well-formed UTF-8 and at least 80% of its UTF-16 code units are
+     * printable (anything but C0 controls other than \t \r \n, and DEL). One pass, no allocation:
+     * all-ASCII words are classified 8 bytes at a time, and the scan stops as soon as the control
+     * count rules out reaching the threshold even if every remaining byte were printable.
+     */
+    public static boolean isUtf8Printable(byte[] data, int off, int len) {
+        if (len == 0) return true;
+        int end = off + len;
+        // U - floor(0.8U) grows with U, and U (UTF-16 units) <= len, so this bounds the controls
+        int maxControls = len - (int)(len * 0.8);
+        int units = 0, controls = 0;
+        int i = off;
+        while (i < end) {
+            if (end - i >= 8) {
+                long w = (long) LONG_LE.get(data, i);
+                // All ASCII, no byte below 0x20 and no DEL: eight printable units at once
+                if ((w & 0x8080808080808080L) == 0
+                        && ((w - 0x2020202020202020L) & ~w & 0x8080808080808080L) == 0
+                        && hasNoZeroByte(w ^ 0x7F7F7F7F7F7F7F7FL)) {
+                    units += 8;
+                    i += 8;
+                    continue;
+                }
             }
-            return s.length() == 0 || printable >= Math.max(1, (int)(s.length() * 0.8));
-        } catch (Exception e) {
-            return false;
+            int b = data[i];
+            if (b >= 0) { // ASCII
+                if ((b < 0x20 && b != '\r' && b != '\n' && b != '\t') || b == 0x7F) {
+                    if (++controls > maxControls) return false;
+                }
+                units++;
+                i++;
+                continue;
+            }
+            int n = utf8SequenceLength(data, i, end);
+            if (n == 0) return false; // malformed
+            units += (n == 4) ? 2 : 1; // supplementary characters are surrogate pairs in UTF-16
+            i += n;
         }
+        return units - controls >= Math.max(1, (int)(units * 0.8));
     }
 
-    public static byte[] tryDecodeBase64(String text) {
-        String trimmed = text.trim();
-        if (trimmed.length() < 4) return null;
-        try {
-            return Base64.getDecoder().decode(trimmed);
-        } catch (IllegalArgumentException e) {
-            return null;
+    /** True if [off, off+len) is well-formed UTF-8, printable or not; ASCII runs are checked 8 bytes at a time. */
+    static boolean isUtf8(byte[] data, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; ) {
+            if (end - i >= 8 && ((long) LONG_LE.get(data, i) & 0x8080808080808080L) == 0) {
+                i += 8;
+                continue;
+            }
+            if (data[i] >= 0) {
+                i++;
+                continue;
+            }
+            int n = utf8SequenceLength(data, i, end);
+            if (n == 0) return false;
+            i += n;
         }
+        return true;
+    }
+
+    /** Length of the well-formed multi-byte sequence at {@code i}, or 0 if it is malformed (Unicode Table 3-7). */
+    private static int utf8SequenceLength(byte[] a, int i, int end) {
+        int b0 = a[i] & 0xFF;
+        if (b0 >= 0xC2 && b0 <= 0xDF) {
+            return (end - i >= 2 && isContinuation(a[i + 1])) ? 2 : 0;
+        }
+        if (b0 >= 0xE0 && b0 <= 0xEF) {
+            if (end - i < 3) return 0;
+            int b1 = a[i + 1] & 0xFF;
+            int lo = (b0 == 0xE0) ? 0xA0 : 0x80;   // no overlongs
+            int hi = (b0 == 0xED) ? 0x9F : 0xBF;   // no surrogates
+            return (b1 >= lo && b1 <= hi && isContinuation(a[i + 2])) ? 3 : 0;
+        }
+        if (b0 >= 0xF0 && b0 <= 0xF4) {
+            if (end - i < 4) return 0;
+            int b1 = a[i + 1] & 0xFF;
+            int lo = (b0 == 0xF0) ? 0x90 : 0x80;
+            int hi = (b0 == 0xF4) ? 0x8F : 0xBF;   // nothing above U+10FFFF
+            return (b1 >= lo && b1 <= hi && isContinuation(a[i + 2]) && isContinuation(a[i + 3])) ? 4 : 0;
+        }
+        return 0;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static boolean hasNoZeroByte(long w) {
+        return ((w - 0x0101010101010101L) & ~w & 0x8080808080808080L) == 0;
+    }
+
+    /** 64-bit hash of [off, off+len) continuing from {@code h}: eight bytes per multiply-mix step. */
+    static long hashBytes(byte[] a, int off, int len, long h) {
+        int i = off, end = off + len;
+        for (; end - i >= 8; i += 8) h = mix(h ^ (long) LONG_LE.get(a, i)) * HASH_PRIME;
+        long tail = 0;
+        for (int shift = 0; i < end; i++, shift += 8) tail |= (a[i] & 0xFFL) << shift;
+        return mix(h ^ tail ^ ((long) len << 56));
+    }
+
+    /** Finalizer from MurmurHash3: every input bit affects every output bit. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE1E3B14DL;
+        return h ^ (h >>> 33);
+    }
+
+    public static byte[] tryDecodeBase64(String text) {
+        return tryDecodeBase64(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Decodes {@code data} if all of it (ignoring surrounding whitespace) is base64 in either the
+     * standard or URL-safe alphabet; returns null otherwise. Never throws: non-base64 input is
+     * rejected by an alphabet/length pre-scan before any decoding.
+     */
+    public static byte[] tryDecodeBase64(byte[] data) {
+        Base64Envelope token = Base64Envelope.whole(data, 0, data.length);
+        return token != null ? token.decode(data) : null;
     }
 
     // ————— Implementation —————
@@ -145,19 +497,21 @@ public final class ProtoWire {
         }
     }
 
-    private static void walk(Node node, List<Integer> prefix, List<NodePath> out) {
+    private static void walk(Node node, List<Integer> prefix, List<NodePath> out, boolean all) {
         if (node.children != null) {
             for (Node c : node.children) {
                 List<Integer> next = new ArrayList<>(prefix);
                 if (c.wireType != -1) next.add(c.fieldNumber);
-                walk(c, next, out);
+                walk(c, next, out, all);
             }
             return;
         }
         if (node.isLeafLenDelimited()) {
             String path = join(prefix);
-            boolean utf8 = isUtf8Printable(node.lengthDelimited);
+            boolean utf8 = node.packed == null && node.isUtf8Printable(); // a declared array is never text
             out.add(new NodePath(node, path, utf8));
+        } else if (all && node.wireType != -1) {
+            out.add(new NodePath(node, join(prefix), false));
         }
     }
 
@@ -171,91 +525,199 @@ public final class ProtoWire {
         return sb.toString();
     }
 
-    private static List<Node> parseAt(byte[] a, int off, int end, int depth) {
+    /**
+     * Speculative recursive descent: validation and tree building happen in the same pass.
+     * Returns null as soon as [off, end) stops looking like a message, so the caller can roll
+     * the whole subtree back and keep the span as an opaque length-delimited leaf.
+     * With a {@code layout} the same walk is type-directed: a declared field whose wire type
+     * matches the schema is named and decoded as declared, everything else is guessed as before.
+     * Without {@code deep} only this level is read; with it, declared messages descend up to
+     * {@link #MAX_TYPED_DEPTH} and guessed ones up to the budget's heuristic depth, which may be 0.
+     * Every field is charged to {@code budget}; once it runs out, nested attempts unwind (their
+     * top-level field stays a leaf marked {@link Node#unparsed}) and the top level keeps the
+     * remaining bytes as one {@link #UNPARSED_SPAN} node.
+     */
+    private static List<Node> parseAt(WireReader r, int end, int depth, boolean deep, Node parent, MessageLayout layout,
+                                      ParseBudget budget) {
+        byte[] a = r.buf;
         List<Node> nodes = new ArrayList<>();
-        int i = off;
-        while (i < end) {
-            Varint key = readVarint(a, i);
-            i += key.len;
+        while (r.pos < end) {
+            if (budget.exhausted()) {
+                if (depth > 0) return null;
+                nodes.add(unparsedSpan(parent, a, r.pos, end));
+                r.pos = end;
+                break;
+            }
+            int start = r.pos;
+            long key = r.readVarint64(end);
+            if (r.failed()) return null;
 
-            int fieldNumber = (int)(key.value >>> 3);
-            int wireType = (int)(key.value & 0x7);
+            int fieldNumber = (int)(key >>> 3);
+            int wireType = (int)(key & 0x7);
 
             Node n = new Node(fieldNumber, wireType);
+            n.parent = parent;
+            n.source = a;
+            n.spanStart = start;
+
+            MessageLayout.Field field = (layout != null) ? layout.field(fieldNumber) : null;
+            if (field != null && !field.accepts(wireType)) field = null; // schema drift: guess instead
+            if (field != null) n.fieldName = field.name;
 
+            int i = r.pos;
+            int tokenized; // bytes read at this level; a nested attempt charges its own
             switch (wireType) {
                 case 0: { // varint
-                    Varint v = readVarint(a, i);
-                    n.rawVarintBytes = slice(a, i, i + v.len);
-                    i += v.len;
+                    r.skipVarint(end);
+                    if (r.failed()) return null;
+                    view(n, a, i, r.pos - i);
+                    tokenized = r.pos - start;
                     break;
                 }
                 case 1: { // fixed64
-                    n.fixedBytes = slice(a, i, i + 8);
-                    i += 8;
+                    r.skip(8, end);
+                    if (r.failed()) return null;
+                    view(n, a, i, 8);
+                    tokenized = r.pos - start;
                     break;
                 }
                 case 2: { // length-delimited (string, bytes, or embedded message)
-                    Varint l = readVarint(a, i);
-                    int size = asInt(l.value);
-                    i += l.len;
-                    byte[] payload = slice(a, i, i + size);
-                    i += size;
-
-                    boolean recursed = false;
-                    if (depth < MAX_DEPTH && size <= MAX_EMBEDDED_BYTES && looksLikeProtobuf(payload)) {
-                        // Try parse as embedded message
-                        List<Node> kids = parseAt(payload, 0, payload.length, depth + 1);
-                        if (!kids.isEmpty()) {
-                            n.children = kids;
-                            recursed = true;
+                    long len = r.readVarint64(end);
+                    if (r.failed() || len < 0 || len > end - r.pos) return null;
+                    int size = (int) len;
+                    int p = r.pos;
+                    view(n, a, p, size);
+                    tokenized = p - start;
+
+                    // Declared strings and bytes stay leaves, however much they look like messages
+                    if (field != null && field.packable) {
+                        n.packed = PackedArray.decode(a, p, size, field.type); // null (opaque bytes) if malformed
+                    } else if (field != null && field.message != null) {
+                        n.layout = field.message;
+                        if (deep && depth < MAX_TYPED_DEPTH) {
+                            List<Node> kids = parseAt(r, p + size, depth + 1, true, n, field.message, budget);
+                            if (kids == null && !budget.exhausted()) { // payload disagrees with the schema; guess like any other span
+                                r.pos = p;
+                                if (depth < budget.maxDepth && size <= budget.maxEmbeddedBytes) {
+                                    kids = parseAt(r, p + size, depth + 1, true, n, null, budget);
+                                }
+                            }
+                            if (kids != null && !kids.isEmpty()) n.children = kids;
+                            else if (budget.exhausted()) n.unparsed = true;
                         }
+                    } else if (field == null && deep && depth < budget.maxDepth && size <= budget.maxEmbeddedBytes) {
+                        // Try parse as embedded message, in place; a failed attempt leaves a leaf
+                        List<Node> kids = parseAt(r, p + size, depth + 1, true, n, null, budget);
+                        if (kids == null && budget.exhausted()) { // ran out inside: left raw, expandable later
+                            n.unparsed = true;
+                            r.pos = p + size;
+                            n.spanEnd = r.pos;
+                            nodes.add(n);
+                            continue;
+                        }
+                        boolean message = kids != null && !kids.isEmpty();
+                        // Field 0 never occurs in a real message, but is what packed small values look like
+                        if (!message || usesFieldZero(kids)) n.packed = guessPacked(n);
+                        if (message && n.packed == null) n.children = kids;
                     }
-                    if (!recursed) {
-                        n.lengthDelimited = payload;
-                    }
+                    r.pos = p + size;
                     break;
                 }
                 case 5: { // fixed32
-                    n.fixedBytes = slice(a, i, i + 4);
-                    i += 4;
+                    r.skip(4, end);
+                    if (r.failed()) return null;
+                    view(n, a, i, 4);
+                    tokenized = r.pos - start;
                     break;
                 }
-                default:
-                    throw new IllegalArgumentException("Unsupported wire type: " + wireType);
+                default: // groups (3/4) unsupported
+                    return null;
             }
 
+            n.spanEnd = r.pos;
             nodes.add(n);
+            budget.charge(tokenized);
         }
         return nodes;
     }
 
-    private static void writeChildren(ByteArrayOutputStream out, List<Node> children) {
+    private static Node unparsedSpan(Node parent, byte[] a, int from, int end) {
+        Node n = new Node(0, UNPARSED_SPAN);
+        n.parent = parent;
+        n.source = a;
+        n.spanStart = from;
+        n.spanEnd = end;
+        n.unparsed = true;
+        view(n, a, from, end - from);
+        return n;
+    }
+
+    private static boolean usesFieldZero(List<Node> nodes) {
+        for (Node n : nodes) {
+            if (n.fieldNumber == 0) return true;
+        }
+        return false;
+    }
+
+    /** Encoded size of a child list; caches payload sizes on dirty type-2 nodes for writeChildren. */
+    private static int measureChildren(List<Node> children) {
+        if (children == null) return 0;
+        int total = 0;
+        for (Node n : children) total += measure(n);
+        return total;
+    }
+
+    private static int measure(Node n) {
+        if (n.isClean()) return n.spanEnd - n.spanStart;
+        int keySize = WireWriter.varintSize(((long) n.fieldNumber << 3) | (n.wireType & 0x7));
+        switch (n.wireType) {
+            case 0:
+            case 1:
+            case 5:
+                return keySize + n.length;
+            case 2:
+                int payload = (n.children != null) ? measureChildren(n.children) : (n.buf != null ? n.length : 0);
+                n.encodedPayloadSize = payload;
+                return keySize + WireWriter.varintSize(payload) + payload;
+            default:
+                throw new IllegalArgumentException("Unsupported wire type: " + n.wireType);
+        }
+    }
+
+    private static void writeChildren(WireWriter out, List<Node> children) {
         if (children == null) return;
-        for (Node n : children) {
+        int k = 0, count = children.size();
+        while (k < count) {
+            Node n = children.get(k++);
+            if (n.isClean()) {
+                // Coalesce adjacent clean siblings into one verbatim copy
+                int runEnd = n.spanEnd;
+                while (k < count) {
+                    Node next = children.get(k);
+                    if (!next.isClean() || next.source != n.source || next.spanStart != runEnd) break;
+                    runEnd = next.spanEnd;
+                    k++;
+                }
+                out.write(n.source, n.spanStart, runEnd - n.spanStart);
+                continue;
+            }
+
             long keyVal = ((long) n.fieldNumber << 3) | (n.wireType & 0x7);
-            writeVarint(out, keyVal);
+            out.writeVarint(keyVal);
 
             switch (n.wireType) {
-                case 0:
-                    // write original varint bytes verbatim
-                    out.write(n.rawVarintBytes, 0, n.rawVarintBytes.length);
-                    break;
+                case 0: // varint bytes verbatim
                 case 1:
                 case 5:
-                    out.write(n.fixedBytes, 0, n.fixedBytes.length);
+                    out.write(n.buf, n.offset, n.length);
                     break;
                 case 2:
-                    byte[] payload;
+                    out.writeVarint(n.encodedPayloadSize);
                     if (n.children != null) {
-                        ByteArrayOutputStream inner = new ByteArrayOutputStream();
-                        writeChildren(inner, n.children);
-                        payload = inner.toByteArray();
-                    } else {
-                        payload = (n.lengthDelimited != null) ? n.lengthDelimited : new byte[0];
+                        writeChildren(out, n.children);
+                    } else if (n.buf != null) {
+                        out.write(n.buf, n.offset, n.length);
                     }
-                    writeVarint(out, payload.length);
-                    out.write(payload, 0, payload.length);
                     break;
                 default:
                     throw new IllegalArgumentException("Unsupported wire type: " + n.wireType);
@@ -263,44 +725,9 @@ public final class ProtoWire {
         }
     }
 
-    private static byte[] slice(byte[] a, int s, int e) {
-        byte[] b = new byte[e - s];
-        System.arraycopy(a, s, b, 0, b.length);
-        return b;
-    }
-
-    private static int asInt(long v) {
-        if (v > Integer.MAX_VALUE) throw new IllegalArgumentException("Size too large");
-        return (int) v;
-    }
-
-    private static final class Varint {
-        final long value;
-        final int len;
-        Varint(long value, int len) { this.value = value; this.len = len; }
-    }
-
-    private static Varint readVarint(byte[] a, int off) {
-        long val = 0;
-        int shift = 0;
-        int i = off;
-        while (i < a.length && shift <= 63) {
-            int b = a[i++] & 0xFF;
-            val |= (long) (b & 0x7F) << shift;
-            if ((b & 0x80) == 0) {
-                return new Varint(val, i - off);
-            }
-            shift += 7;
-        }
-        throw new IllegalArgumentException("Malformed varint");
-    }
-
-    private static void writeVarint(ByteArrayOutputStream out, long v) {
-        long x = v;
-        while ((x & ~0x7FL) != 0) {
-            out.write((int) ((x & 0x7F) | 0x80));
-            x >>>= 7;
-        }
-        out.write((int) x);
+    private static void view(Node n, byte[] a, int off, int len) {
+        n.buf = a;
+        n.offset = off;
+        n.length = len;
     }
 }
@@ -14,7 +14,12 @@ import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import static burp.api.montoya.core.ByteArray.byteArray;
 
@@ -24,27 +29,113 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 class ProtobufWsEditor implements ExtensionProvidedWebSocketMessageEditor {
 
+    // Frames up to this size decode inline; anything larger goes to the background pool
+    private static final int SYNC_DECODE_BYTES = 64 * 1024;
+
+    // First line of the text view when a parse limit cut the decode short; never mapped back onto a field
+    private static final String TRUNCATED_MARKER =
+            "⚠ Parse limits reached: part of this message was not decoded and is not shown (see SockoBuf > Limits)";
+
+    private enum ViewMode { TEXT, TREE }
+
+    // New editors open in whichever view the user picked last
+    private static volatile ViewMode lastViewMode = ViewMode.TEXT;
+
     private final JTextArea textArea;
     private final JScrollPane scroll;
+    private final JTree tree;
+    private final CardLayout cards = new CardLayout();
+    private final JPanel views = new JPanel(cards);
+    private final JPanel panel;
+    private ViewMode viewMode;
     private final MontoyaApi api;
+    private final DecodeCache cache;
+    private final ExecutorService decodeExecutor;
+    private final SchemaRegistry schemas;
+    private final FramedStreams streams;
+    private final JComboBox<String> messageChooser = new JComboBox<>();
+    private boolean updatingChooser;
     private final boolean isRepeater;
     private final boolean isProxy;
-    private List<Integer> utf8LeafIndexes;
+    private List<Integer> textLeafIndexes;
+    private boolean textTruncated; // the text view starts with TRUNCATED_MARKER
 
-    private ProtoWire.Node root;
+    private DecodedFrame frame;
+    private DecodedFrame.Message selected; // the message of a multi-message frame shown in the text view
+    private int messageIndex;              // which one the user picked
+    private MessageLayout layout;      // root type mapped to this frame's endpoint, null = heuristic
+    private ByteArray originalPayload; // handed back untouched whenever nothing was edited
+    private ProtoWire.Node root; // shared with the cache: read-only
     private List<ProtoWire.NodePath> editableLeaves;
     private boolean modified = false;
-    private boolean payloadWasBase64 = false;
 
-    ProtobufWsEditor(MontoyaApi api, EditorMode editorMode) {
+    // EDT-confined: bumped on every setMessage/view switch so late results are dropped
+    private long generation;
+    private Future<?> pending;
+    private byte[] currentBytes;
+    private boolean textStale;  // views are rendered on first show, not on every setMessage
+    private boolean treeStale;
+
+    ProtobufWsEditor(MontoyaApi api, DecodeCache cache, ExecutorService decodeExecutor, SchemaRegistry schemas,
+                     FramedStreams streams, EditorMode editorMode) {
         this.api = api;
+        this.cache = cache;
+        this.decodeExecutor = decodeExecutor;
+        this.schemas = schemas;
+        this.streams = streams;
         this.isProxy    = (editorMode == EditorMode.READ_ONLY);
         this.isRepeater = !this.isProxy;
         this.textArea = new JTextArea();
         this.textArea.setLineWrap(true);
         this.textArea.setWrapStyleWord(true);
         this.scroll = new JScrollPane(textArea);
-        api.userInterface().applyThemeToComponent(scroll);
+
+        // Tree view: lazy model + fixed row height, so JTree only lays out and paints visible rows
+        this.tree = new JTree(ProtoTreeModel.message("(No message)"));
+        this.tree.setShowsRootHandles(true);
+        this.tree.setLargeModel(true);
+        this.tree.setRowHeight(Math.max(16, tree.getFontMetrics(tree.getFont()).getHeight() + 2));
+
+        views.add(scroll, ViewMode.TEXT.name());
+        views.add(new JScrollPane(tree), ViewMode.TREE.name());
+
+        JToggleButton textButton = new JToggleButton("Text");
+        JToggleButton treeButton = new JToggleButton("Tree");
+        ButtonGroup group = new ButtonGroup();
+        group.add(textButton);
+        group.add(treeButton);
+        textButton.addActionListener(e -> showView(ViewMode.TEXT));
+        treeButton.addActionListener(e -> showView(ViewMode.TREE));
+        JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        toolbar.add(textButton);
+        toolbar.add(treeButton);
+        // Only shown for frames that carry several length-prefixed messages
+        messageChooser.setVisible(false);
+        messageChooser.addActionListener(e -> {
+            if (updatingChooser || messageChooser.getSelectedIndex() < 0) return;
+            if (messageChooser.getSelectedIndex() == messageIndex) return;
+            // Only the message on show is re-encoded, so leaving it would lose its edits
+            if (isModified() && JOptionPane.showConfirmDialog(messageChooser, "Discard your edits to message " + (messageIndex + 1) + "?",
+                    "Protobuf", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.OK_OPTION) {
+                showChooser(messageChooser.getItemCount()); // put the selection back
+                return;
+            }
+            modified = false;
+            messageIndex = messageChooser.getSelectedIndex();
+            textStale = true;
+            treeStale = true;
+            refresh();
+        });
+        toolbar.add(messageChooser);
+
+        this.panel = new JPanel(new BorderLayout());
+        panel.add(toolbar, BorderLayout.NORTH);
+        panel.add(views, BorderLayout.CENTER);
+        api.userInterface().applyThemeToComponent(panel);
+
+        this.viewMode = lastViewMode;
+        (viewMode == ViewMode.TREE ? treeButton : textButton).setSelected(true);
+        cards.show(views, viewMode.name());
 
         this.textArea.getDocument().addDocumentListener(new DocumentListener() {
             public void insertUpdate(DocumentEvent e) { modified = true; }
@@ -55,104 +146,318 @@ class ProtobufWsEditor implements ExtensionProvidedWebSocketMessageEditor {
     }
 
     @Override public String caption() { return "Protobuf"; }
-    @Override public Component uiComponent() { return this.scroll; }
+    @Override public Component uiComponent() { return this.panel; }
 
     @Override
     public boolean isEnabledFor(WebSocketMessage message) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.DETECT);
+        int length = 0;
         try {
             byte[] raw = message.payload().getBytes();
-            if (ProtoWire.looksLikeProtobuf(raw)) return true;
+            length = raw.length;
+            if (raw.length <= SYNC_DECODE_BYTES) return decode(raw, layoutFor(message)).isProtobuf();
 
-            String asText = message.payload().toString();
-            byte[] b64 = ProtoWire.tryDecodeBase64(asText);
-            return b64 != null && ProtoWire.looksLikeProtobuf(b64);
+            // Large frame: detection only, nothing decoded in full or inflated on the EDT (a
+            // compressed body, raw or base64, is taken on its header alone); setMessage's
+            // background task does the real decode
+            return DecodedFrame.mayCarryProtobuf(raw) || streams.completedBy(raw) != null;
         } catch (Exception e) {
             return false;
+        } finally {
+            span.end(length);
         }
     }
 
     @Override
     public void setMessage(WebSocketMessage message) {
-        try {
+        modified = false;
+        editableLeaves = new ArrayList<>();
+        textLeafIndexes = new ArrayList<>();
+        textTruncated = false;
+        root = null; // getMessage falls back to the original bytes until a text decode is applied
+        frame = null;
+        selected = null;
+        messageIndex = 0;
+        layout = layoutFor(message);
+        originalPayload = message.payload();
+        currentBytes = originalPayload.getBytes();
+        textStale = true;
+        treeStale = true;
+        refresh();
+    }
+
+    private void showView(ViewMode mode) {
+        if (mode == viewMode) return;
+        viewMode = mode;
+        lastViewMode = mode;
+        cards.show(views, mode.name());
+        refresh();
+    }
+
+    /** Renders the visible view if it is stale: inline for small frames, otherwise in the background. */
+    private void refresh() {
+        // Supersede whatever is still decoding for the previous selection or view
+        long gen = ++generation;
+        if (pending != null) {
+            pending.cancel(true);
+            // A cancelled task still holds its queue slot until a worker reaches it: free it now
+            if (decodeExecutor instanceof ThreadPoolExecutor) ((ThreadPoolExecutor) decodeExecutor).remove((Runnable) pending);
+            pending = null;
+        }
+        boolean treeView = viewMode == ViewMode.TREE;
+        byte[] bytes = currentBytes;
+        MessageLayout layout = this.layout;
+        int index = messageIndex;
+        if (bytes == null || !(treeView ? treeStale : textStale)) return;
+
+        if (bytes.length <= SYNC_DECODE_BYTES) {
+            apply(gen, render(bytes, treeView, layout, index));
+            return;
+        }
+
+        String placeholder = "(Decoding " + bytes.length + " byte payload…)";
+        if (treeView) {
+            tree.setModel(ProtoTreeModel.message(placeholder));
+        } else {
+            textArea.setText(placeholder);
+            textArea.setEditable(false);
             modified = false;
-            editableLeaves = new ArrayList<>();
-            utf8LeafIndexes = new ArrayList<>();
-            payloadWasBase64 = false;
-
-            byte[] candidate = message.payload().getBytes();
-            if (!ProtoWire.looksLikeProtobuf(candidate)) {
-                String asText = message.payload().toString();
-                byte[] b64 = ProtoWire.tryDecodeBase64(asText);
-                if (b64 != null && ProtoWire.looksLikeProtobuf(b64)) {
-                    candidate = b64;
-                    payloadWasBase64 = true;
-                }
-            }
+        }
+        try {
+            pending = decodeExecutor.submit(() -> {
+                Rendered r = render(bytes, treeView, layout, index);
+                if (!Thread.currentThread().isInterrupted()) SwingUtilities.invokeLater(() -> apply(gen, r));
+            });
+        } catch (RejectedExecutionException e) {
+            // Pool saturated or shut down: never decode a large frame on the EDT. The view stays stale,
+            // so selecting the message or switching views again retries.
+            String busy = "(Decoder busy: " + bytes.length + " byte payload not decoded. Select the message again to retry.)";
+            if (treeView) tree.setModel(ProtoTreeModel.message(busy));
+            else textArea.setText(busy);
+        }
+    }
 
-            this.root = ProtoWire.parse(candidate).root;
-            this.editableLeaves = ProtoWire.collectEditableLeaves(root);
+    /** Everything a view displays, computed off the EDT and applied in one step by {@link #apply}. */
+    private static final class Rendered {
+        final boolean treeView;
+        final DecodedFrame frame;
+        final DecodedFrame.Message message;
+        final int messageCount;
+        final List<ProtoWire.NodePath> leaves;
+        final List<Integer> textLeafIndexes;
+        final String text;
+        final boolean truncated;
+        final ProtoTreeModel tree;
+        final String error;
 
-            // Collect ONLY printable UTF-8 leaves (no base64 shown)
-            List<String> values = new ArrayList<>();
-            for (int i = 0; i < editableLeaves.size(); i++) {
-                ProtoWire.NodePath np = editableLeaves.get(i);
-                if (np.utf8) {
-                    values.add(new String(np.node.lengthDelimited, StandardCharsets.UTF_8));
-                    utf8LeafIndexes.add(i); // index into editableLeaves
-                }
-            }
+        private Rendered(boolean treeView, DecodedFrame frame, DecodedFrame.Message message, int messageCount,
+                         List<ProtoWire.NodePath> leaves, List<Integer> textLeafIndexes, String text,
+                         boolean truncated, ProtoTreeModel tree, String error) {
+            this.treeView = treeView;
+            this.frame = frame;
+            this.message = message;
+            this.messageCount = messageCount;
+            this.leaves = leaves;
+            this.textLeafIndexes = textLeafIndexes;
+            this.text = text;
+            this.truncated = truncated;
+            this.tree = tree;
+            this.error = error;
+        }
+
+        static Rendered text(DecodedFrame frame, DecodedFrame.Message message, List<ProtoWire.NodePath> leaves,
+                             List<Integer> textLeafIndexes, String text, boolean truncated) {
+            return new Rendered(false, frame, message, frame.messages.size(), leaves, textLeafIndexes, text, truncated,
+                    null, null);
+        }
+
+        static Rendered tree(ProtoTreeModel tree, int messageCount) {
+            return new Rendered(true, null, null, messageCount, null, null, null, false, tree, null);
+        }
 
-            String view;
-            if (values.isEmpty()) {
-                view = "(No printable UTF-8 string fields found in this protobuf payload.)";
-            } else if (values.size() == 1) {
-                view = values.get(0);
-                // Pretty-print JSON ONLY in Proxy
-                if (isProxy) {
-                    String pretty = tryPrettyJson(view);
-                    if (pretty != null) view = pretty;
+        static Rendered error(boolean treeView, String error) {
+            return new Rendered(treeView, null, null, 0, null, null, null, false, null, error);
+        }
+    }
+
+    /** Detect, decode, walk and format; touches no Swing state, so it is safe on any thread. */
+    private Rendered render(byte[] bytes, boolean treeView, MessageLayout layout, int index) {
+        try {
+            if (treeView) {
+                Metrics.Span span = Metrics.start(Metrics.Stage.RENDER);
+                try {
+                    return renderTree(bytes, layout, index);
+                } finally {
+                    span.end(bytes.length);
                 }
-            } else {
-                // Join by newline for multi-string payloads
-                view = String.join("\n", values);
-                // For multiple strings, we don't pretty-print (ambiguous which one is JSON).
             }
 
-            textArea.setText(view);
-            textArea.setCaretPosition(0);
-            textArea.setEditable(isRepeater); // enforce again in case tool changed
-            modified = false;
+            // Usually already decoded by isEnabledFor, or by an earlier view of the same frame
+            DecodedFrame decoded = decode(bytes, layout);
+            if (!decoded.isProtobuf()) throw new IllegalArgumentException("Not a protobuf message");
+            checkCancelled();
+
+            DecodedFrame.Message message = decoded.messages.get(Math.min(index, decoded.messages.size() - 1));
+            Metrics.Span span = Metrics.start(Metrics.Stage.LEAVES);
+            List<ProtoWire.NodePath> leaves = ProtoWire.collectEditableLeaves(message.root());
+            span.end(message.parsed.root.spanEnd - message.parsed.root.spanStart);
+            checkCancelled();
+
+            span = Metrics.start(Metrics.Stage.RENDER);
+            List<Integer> textIndexes = new ArrayList<>();
+            String view = textView(leaves, textIndexes);
+            boolean truncated = ProtoWire.hasUnparsed(message.root());
+            if (truncated) view = TRUNCATED_MARKER + "\n" + view;
+            span.end(view.length());
+            return Rendered.text(decoded, message, leaves, textIndexes, view, truncated);
         } catch (Exception e) {
-            textArea.setText("Failed to parse as protobuf: " + e.getMessage());
+            return Rendered.error(treeView, e.getMessage());
+        }
+    }
+
+    /** Shallow: only the top level is parsed now, the rest on expansion. */
+    private Rendered renderTree(byte[] bytes, MessageLayout layout, int index) {
+        Framing framing = DecodedFrame.framingOf(bytes);
+        List<Framing.Record> records = framing != null ? framing.records : null;
+        byte[] body = records == null ? DecodedFrame.protobufBody(bytes) : null;
+        boolean reassembled = records == null && body == null && (records = streams.completedBy(bytes)) != null;
+        if (records == null) {
+            if (body == null) throw new IllegalArgumentException("Not a protobuf message");
+            String note = body == bytes ? null
+                    : Compression.detect(bytes, 0, bytes.length) != null ? "compressed" : "base64-wrapped";
+            return Rendered.tree(ProtoTreeModel.of(body, 0, body.length, note, layout), 1);
+        }
+        List<Framing.Record> messages = new ArrayList<>(records.size());
+        for (Framing.Record r : records) if (Framing.isMessage(r)) messages.add(r);
+        if (messages.isEmpty()) throw new IllegalArgumentException("Not a protobuf message");
+        int k = Math.min(index, messages.size() - 1);
+        Framing.Record r = messages.get(k);
+        String note = "message " + (k + 1) + " of " + messages.size() + (reassembled ? ", reassembled" : "");
+        if (r.isCompressed()) {
+            byte[] inflated = Compression.detect(r.buf, r.offset, r.end()).inflate(r.buf, r.offset, r.end());
+            if (inflated == null) throw new IllegalArgumentException("Corrupt compressed message");
+            return Rendered.tree(ProtoTreeModel.of(inflated, 0, inflated.length, note + ", compressed", layout),
+                    messages.size());
+        }
+        return Rendered.tree(ProtoTreeModel.of(r.buf, r.offset, r.end(), note, layout), messages.size());
+    }
+
+    /** The text view over {@code leaves}; fills {@code textIndexes} with the leaves it shows, one per line. */
+    private String textView(List<ProtoWire.NodePath> leaves, List<Integer> textIndexes) {
+        // Collect ONLY printable UTF-8 leaves and packed arrays (no base64 shown)
+        List<String> values = new ArrayList<>();
+        boolean onlyStrings = true;
+        for (int i = 0; i < leaves.size(); i++) {
+            ProtoWire.NodePath np = leaves.get(i);
+            if (np.utf8) {
+                values.add(new String(np.node.buf, np.node.offset, np.node.length, StandardCharsets.UTF_8));
+                textIndexes.add(i); // index into editableLeaves
+            } else if (np.node.packed != null) {
+                values.add(np.node.packed.toString()); // one line: "[1, 2, 3]"
+                textIndexes.add(i);
+                onlyStrings = false;
+            }
+        }
+
+        if (values.isEmpty()) {
+            return "(No printable UTF-8 string or packed array fields found in this protobuf payload.)";
+        }
+        if (values.size() == 1) {
+            String view = values.get(0);
+            // Pretty-print JSON ONLY in Proxy
+            if (isProxy && onlyStrings) {
+                String pretty = tryPrettyJson(view);
+                if (pretty != null) view = pretty;
+            }
+            return view;
+        }
+        // Join by newline for multi-string payloads
+        // For multiple strings, we don't pretty-print (ambiguous which one is JSON).
+        return String.join("\n", values);
+    }
+    /** Runs on the EDT; drops results for anything but the current selection and view. */
+    private void apply(long gen, Rendered r) {
+        if (gen != generation) return;
+        pending = null;
+        if (r.error == null) showChooser(r.messageCount);
+        if (r.treeView) {
+            treeStale = false;
+            tree.setModel(r.error != null ? ProtoTreeModel.message("Failed to parse as protobuf: " + r.error) : r.tree);
+            return;
+        }
+        textStale = false;
+        if (r.error != null) {
+            textArea.setText("Failed to parse as protobuf: " + r.error);
             textArea.setEditable(false);
             modified = false;
+            return;
         }
+        this.frame = r.frame;
+        this.selected = r.message;
+        this.root = r.message.root();
+        this.editableLeaves = r.leaves;
+        this.textLeafIndexes = r.textLeafIndexes;
+        this.textTruncated = r.truncated;
+
+        textArea.setText(r.text);
+        textArea.setCaretPosition(0);
+        // enforce again in case tool changed; messages begun in earlier frames cannot be rewritten
+        textArea.setEditable(isRepeater && !r.frame.reassembled);
+        modified = false;
     }
 
-    @Override
-    public ByteArray getMessage() {
-        if (root == null) return byteArray(new byte[0]);
+    /** Usually a cache hit; frames that only make sense with their predecessors come from the stream tracker. */
+    private DecodedFrame decode(byte[] bytes, MessageLayout layout) {
+        DecodedFrame decoded = cache.decode(bytes, layout);
+        if (decoded.isProtobuf()) return decoded;
+        List<Framing.Record> records = streams.completedBy(bytes);
+        return records != null ? DecodedFrame.reassembled(bytes, records, layout) : decoded;
+    }
 
-        // Proxy is read-only -> never modify outbound bytes
-        if (!isRepeater) {
-            byte[] unchanged = ProtoWire.serialize(root);
-            return payloadWasBase64
-                    ? byteArray(java.util.Base64.getEncoder().encodeToString(unchanged))
-                    : byteArray(unchanged);
+    private void showChooser(int count) {
+        updatingChooser = true;
+        try {
+            if (count > 1 && messageChooser.getItemCount() != count) {
+                messageChooser.removeAllItems();
+                for (int i = 1; i <= count; i++) messageChooser.addItem("Message " + i + " of " + count);
+            }
+            if (count > 1) messageChooser.setSelectedIndex(Math.min(messageIndex, count - 1));
+            messageChooser.setVisible(count > 1);
+        } finally {
+            updatingChooser = false;
         }
+    }
 
-        if (!modified || editableLeaves == null || editableLeaves.isEmpty()) {
-            byte[] unchanged = ProtoWire.serialize(root);
-            return payloadWasBase64
-                    ? byteArray(java.util.Base64.getEncoder().encodeToString(unchanged))
-                    : byteArray(unchanged);
+    /** Root type the schema registry maps this frame's endpoint and direction to, if any. */
+    private MessageLayout layoutFor(WebSocketMessage message) {
+        try {
+            return schemas.resolve(message.upgradeRequest().url(), message.direction());
+        } catch (Exception e) {
+            return null; // no upgrade request available (e.g. a detached message); decode heuristically
+        }
+    }
+
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) throw new IllegalStateException("Decode cancelled");
+    }
+
+    @Override
+    public ByteArray getMessage() {
+        if (root == null) return originalPayload != null ? originalPayload : byteArray(new byte[0]);
+
+        // Proxy is read-only -> never modify outbound bytes; unmodified -> nothing to re-encode
+        if (!isRepeater || !modified || frame.reassembled || editableLeaves == null || editableLeaves.isEmpty()) {
+            return originalPayload;
         }
 
         try {
             // Repeater path: user edited raw decoded text. We only map back to the UTF-8 leaves we showed.
             String body = textArea.getText();
+            if (textTruncated && body.startsWith(TRUNCATED_MARKER + "\n")) {
+                body = body.substring(TRUNCATED_MARKER.length() + 1); // not a field
+            }
             List<String> parts;
-            if (utf8LeafIndexes.size() <= 1) {
+            if (textLeafIndexes.size() <= 1) {
                 parts = List.of(body);
             } else {
                 // Split lines back to individual string fields
@@ -160,10 +465,10 @@ class ProtobufWsEditor implements ExtensionProvidedWebSocketMessageEditor {
                 parts = new ArrayList<>();
                 for (String l : lines) parts.add(l);
                 // If user added more lines than tracked leaves, merge extras into the last field
-                if (parts.size() > utf8LeafIndexes.size()) {
+                if (parts.size() > textLeafIndexes.size()) {
                     List<String> merged = new ArrayList<>();
-                    for (int i = 0; i < utf8LeafIndexes.size(); i++) {
-                        if (i < utf8LeafIndexes.size() - 1) {
+                    for (int i = 0; i < textLeafIndexes.size(); i++) {
+                        if (i < textLeafIndexes.size() - 1) {
                             merged.add(i < parts.size() ? parts.get(i) : "");
                         } else {
                             // last one gets the rest joined by \n
@@ -176,32 +481,41 @@ class ProtobufWsEditor implements ExtensionProvidedWebSocketMessageEditor {
                         }
                     }
                     parts = merged;
-                } else if (parts.size() < utf8LeafIndexes.size()) {
+                } else if (parts.size() < textLeafIndexes.size()) {
                     // pad missing lines with empty strings
                     List<String> padded = new ArrayList<>(parts);
-                    while (padded.size() < utf8LeafIndexes.size()) padded.add("");
+                    while (padded.size() < textLeafIndexes.size()) padded.add("");
                     parts = padded;
                 }
             }
 
-            // Apply edited parts back to the corresponding leaves
-            for (int k = 0; k < utf8LeafIndexes.size(); k++) {
-                int leafIdx = utf8LeafIndexes.get(k);
-                ProtoWire.Node target = editableLeaves.get(leafIdx).node;
-                String content = parts.get(k);
-                target.lengthDelimited = content.getBytes(StandardCharsets.UTF_8);
+            // Apply edited parts to a private copy: the decoded tree is shared through the cache
+            ProtoWire.Node working = ProtoWire.copy(root);
+            List<ProtoWire.NodePath> workingLeaves = ProtoWire.collectEditableLeaves(working);
+            for (int k = 0; k < textLeafIndexes.size(); k++) {
+                int leafIdx = textLeafIndexes.get(k);
+                ProtoWire.Node target = workingLeaves.get(leafIdx).node;
+                if (target.packed != null) {
+                    PackedArray edited = target.packed.parse(parts.get(k)); // malformed numbers abort the re-encode
+                    if (!edited.sameValues(target.packed)) target.setPacked(edited);
+                    continue;
+                }
+                byte[] content = parts.get(k).getBytes(StandardCharsets.UTF_8);
+                if (!Arrays.equals(content, 0, content.length, target.buf, target.offset, target.offset + target.length)) {
+                    target.setValue(content); // only edited leaves are materialized (and marked dirty)
+                }
             }
+            if (!working.dirty) return originalPayload;
 
-            byte[] rebuilt = ProtoWire.serialize(root);
-            return payloadWasBase64
-                    ? byteArray(java.util.Base64.getEncoder().encodeToString(rebuilt))
-                    : byteArray(rebuilt);
+            byte[] rebuilt = ProtoWire.serialize(working);
+            // same base64 alphabet/padding and envelope, or the same framing, as received
+            Metrics.Span span = Metrics.start(Metrics.Stage.REWRAP);
+            byte[] wire = frame.rewrap(selected, rebuilt);
+            span.end(rebuilt.length);
+            return byteArray(wire);
         } catch (Exception e) {
             api.logging().logToError("[WS Protobuf Tab] Re-encode failed: " + e.getMessage());
-            byte[] fallback = ProtoWire.serialize(root);
-            return payloadWasBase64
-                    ? byteArray(java.util.Base64.getEncoder().encodeToString(fallback))
-                    : byteArray(fallback);
+            return originalPayload;
         }
     }
 
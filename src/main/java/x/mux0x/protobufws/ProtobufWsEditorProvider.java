@@ -6,13 +6,27 @@ import burp.api.montoya.ui.editor.extension.ExtensionProvidedWebSocketMessageEdi
 import burp.api.montoya.ui.editor.extension.WebSocketMessageEditorProvider;
 import burp.api.montoya.ui.editor.extension.EditorMode;   // <-- add this
 
+import java.util.concurrent.ExecutorService;
+
 public class ProtobufWsEditorProvider implements WebSocketMessageEditorProvider {
     private final MontoyaApi api;
-    public ProtobufWsEditorProvider(MontoyaApi api) { this.api = api; }
+    private final DecodeCache cache;
+    private final ExecutorService decodeExecutor;
+    private final SchemaRegistry schemas;
+    private final FramedStreams streams;
+
+    public ProtobufWsEditorProvider(MontoyaApi api, DecodeCache cache, ExecutorService decodeExecutor,
+                                    SchemaRegistry schemas, FramedStreams streams) {
+        this.api = api;
+        this.cache = cache;
+        this.decodeExecutor = decodeExecutor;
+        this.schemas = schemas;
+        this.streams = streams;
+    }
 
     @Override
     public ExtensionProvidedWebSocketMessageEditor provideMessageEditor(EditorCreationContext ctx) {
         EditorMode mode = ctx.editorMode();  // READ_ONLY (Proxy) or DEFAULT (Repeater)
-        return new ProtobufWsEditor(api, mode);
+        return new ProtobufWsEditor(api, cache, decodeExecutor, schemas, streams, mode);
     }
 }
@@ -3,11 +3,87 @@ package x.mux0x.protobufws;
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.MontoyaApi;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class ProtobufWsExtension implements BurpExtension {
+    private static final long DECODE_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int DECODE_QUEUE_CAPACITY = 32;
+    private static final long FRAMED_STREAM_BYTES = 32L * 1024 * 1024;
+
+    // Shared by every editor instance so history frames are decoded once per process
+    private final DecodeCache decodeCache = new DecodeCache(DECODE_CACHE_BYTES);
+    // Large frames are decoded here instead of on the Swing event thread
+    private final ExecutorService decodeExecutor = newDecodeExecutor();
+    // Descriptor sets and endpoint mappings for schema-aware decoding
+    private final SchemaRegistry schemas = new SchemaRegistry();
+    // Length-prefixed messages that span several proxied frames
+    private final FramedStreams streams = new FramedStreams(FRAMED_STREAM_BYTES);
+    // Field rewrite rules applied to live Proxy traffic
+    private final RewriteHandler rewriter = new RewriteHandler();
+
     @Override
     public void initialize(MontoyaApi api) {
         api.extension().setName("Sockobof");
-        api.userInterface().registerWebSocketMessageEditorProvider(new ProtobufWsEditorProvider(api));
+        for (String error : schemas.restore(api.persistence().preferences())) {
+            api.logging().logToError("[Sockobof] Descriptor set not reloaded: " + error);
+        }
+        schemas.addChangeListener(decodeCache::clear); // cached trees were decoded against the old schemas
+        ParseBudget.limits = ParseBudget.Limits.restore(api.persistence().preferences());
+        api.proxy().registerWebSocketCreationHandler(streams);
+        try {
+            rewriter.setRules(RewriteRules.compile(RewriteRules.restore(api.persistence().preferences())));
+        } catch (IllegalArgumentException e) {
+            api.logging().logToError("[Sockobof] Rewrite rules not reloaded: " + e.getMessage());
+        }
+        api.proxy().registerWebSocketCreationHandler(rewriter);
+        api.userInterface().registerContextMenuItemsProvider(new FrameDiffMenu(api, schemas));
+        IntruderPayloads intruder = new IntruderPayloads(api);
+        intruder.register();
+        api.userInterface().registerWebSocketMessageEditorProvider(
+                new ProtobufWsEditorProvider(api, decodeCache, decodeExecutor, schemas, streams));
+
+        ExportPanel export = new ExportPanel(api, schemas);
+        IndexPanel search = new IndexPanel(api, schemas);
+        SockoBufTab tab = new SockoBufTab();
+        tab.addPanel("Schemas", new SchemaPanel(api, schemas));
+        tab.addPanel("Search", search);
+        tab.addPanel("Export", export);
+        RewritePanel rewrite = new RewritePanel(api, rewriter);
+        tab.addPanel("Rewrite", rewrite);
+        tab.addPanel("Intruder", new IntruderPanel(intruder));
+        tab.addPanel("Limits", new LimitsPanel(api, decodeCache::clear));
+        MetricsPanel metrics = new MetricsPanel();
+        tab.addPanel("Metrics", metrics);
+        tab.register(api);
+
+        api.extension().registerUnloadingHandler(() -> {
+            export.cancel();
+            search.stop();
+            metrics.stop();
+            rewrite.stop();
+            rewriter.setRules(null);
+            decodeExecutor.shutdownNow();
+            decodeCache.clear();
+            streams.clear();
+        });
         api.logging().logToOutput("[Sockobof] loaded.");
     }
+
+    /** Small bounded pool of daemon threads; a full queue leaves the editor showing a retry note. */
+    private static ExecutorService newDecodeExecutor() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(DECODE_QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "sockobuf-decode-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 }
@@ -0,0 +1,90 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.proxy.websocket.BinaryMessageReceivedAction;
+import burp.api.montoya.proxy.websocket.BinaryMessageToBeSentAction;
+import burp.api.montoya.proxy.websocket.InterceptedBinaryMessage;
+import burp.api.montoya.proxy.websocket.InterceptedTextMessage;
+import burp.api.montoya.proxy.websocket.ProxyMessageHandler;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreation;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreationHandler;
+import burp.api.montoya.proxy.websocket.TextMessageReceivedAction;
+import burp.api.montoya.proxy.websocket.TextMessageToBeSentAction;
+import burp.api.montoya.websocket.Direction;
+
+/**
+ * Applies the current {@link RewriteRules} to binary frames as Proxy receives them, before
+ * interception, in both directions. Each socket keeps the per-direction tries it built for the
+ * rules it last saw, so the per-frame cost with no matching rule is one volatile read; with
+ * rules, one scan of the fields they name.
+ */
+final class RewriteHandler implements ProxyWebSocketCreationHandler {
+
+    private volatile RewriteRules rules; // null = rewriting off
+
+    void setRules(RewriteRules rules) {
+        this.rules = rules != null && rules.activeRules() > 0 ? rules : null;
+    }
+
+    RewriteRules rules() { return rules; }
+
+    /** Tries built for one socket against one rules instance. */
+    private static final class SocketRules {
+        final RewriteRules source;
+        final RewriteRules.Trie toServer;
+        final RewriteRules.Trie toClient;
+
+        SocketRules(RewriteRules source, String url) {
+            this.source = source;
+            this.toServer = source.trieFor(url, Direction.CLIENT_TO_SERVER);
+            this.toClient = source.trieFor(url, Direction.SERVER_TO_CLIENT);
+        }
+    }
+
+    @Override
+    public void handleWebSocketCreation(ProxyWebSocketCreation creation) {
+        String url = creation.upgradeRequest() != null ? creation.upgradeRequest().url() : null;
+        creation.proxyWebSocket().registerProxyMessageHandler(new ProxyMessageHandler() {
+            private volatile SocketRules cached;
+
+            @Override
+            public BinaryMessageReceivedAction handleBinaryMessageReceived(InterceptedBinaryMessage message) {
+                RewriteRules current = rules;
+                if (current == null) return BinaryMessageReceivedAction.continueWith(message);
+                SocketRules s = cached;
+                if (s == null || s.source != current) cached = s = new SocketRules(current, url);
+                RewriteRules.Trie trie = message.direction() == Direction.CLIENT_TO_SERVER ? s.toServer : s.toClient;
+                if (trie == null) return BinaryMessageReceivedAction.continueWith(message);
+
+                byte[] payload = message.payload().getBytes();
+                Metrics.Span span = Metrics.start(Metrics.Stage.REWRITE);
+                byte[] rewritten;
+                try {
+                    rewritten = current.apply(trie, payload);
+                } catch (RuntimeException e) {
+                    rewritten = null; // a rule must never break the socket
+                } finally {
+                    span.end(payload.length);
+                }
+                return rewritten != null
+                        ? BinaryMessageReceivedAction.continueWith(ByteArray.byteArray(rewritten))
+                        : BinaryMessageReceivedAction.continueWith(message);
+            }
+
+            @Override
+            public BinaryMessageToBeSentAction handleBinaryMessageToBeSent(InterceptedBinaryMessage message) {
+                return BinaryMessageToBeSentAction.continueWith(message);
+            }
+
+            @Override
+            public TextMessageReceivedAction handleTextMessageReceived(InterceptedTextMessage message) {
+                return TextMessageReceivedAction.continueWith(message);
+            }
+
+            @Override
+            public TextMessageToBeSentAction handleTextMessageToBeSent(InterceptedTextMessage message) {
+                return TextMessageToBeSentAction.continueWith(message);
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.websocket.Direction;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Edits the {@link RewriteRules} applied to live Proxy traffic. Every edit is compiled at once;
+ * a rule that does not compile leaves the previous rules running and is reported instead.
+ */
+final class RewritePanel extends JPanel {
+
+    private static final String BOTH = "Both";
+    private static final int REFRESH_INTERVAL_MS = 1000;
+
+    private final MontoyaApi api;
+    private final RewriteHandler handler;
+    private final JLabel status = new JLabel(" ");
+    private final DefaultTableModel rules = new DefaultTableModel(
+            new Object[]{"Enabled", "URL pattern", "Direction", "Field path", "Match (regex)", "Action", "Replacement"}, 0) {
+        @Override public Class<?> getColumnClass(int c) { return c == 0 ? Boolean.class : String.class; }
+    };
+    private final Timer refresh = new Timer(REFRESH_INTERVAL_MS, e -> refreshStatus());
+    private String error; // why the last edit did not compile, or null
+    private boolean loading;
+
+    RewritePanel(MontoyaApi api, RewriteHandler handler) {
+        super(new BorderLayout(0, 6));
+        this.api = api;
+        this.handler = handler;
+
+        JTable table = new JTable(rules);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(2).setCellEditor(new DefaultCellEditor(new JComboBox<>(
+                new String[]{BOTH, Direction.CLIENT_TO_SERVER.name(), Direction.SERVER_TO_CLIENT.name()})));
+        JComboBox<String> actions = new JComboBox<>();
+        for (RewriteRules.Action a : RewriteRules.Action.values()) actions.addItem(a.name());
+        table.getColumnModel().getColumn(5).setCellEditor(new DefaultCellEditor(actions));
+        rules.addTableModelListener(e -> { if (!loading) applyRules(); });
+
+        // New rows start disabled: an empty SET would otherwise blank the field in every frame until filled in
+        JButton add = new JButton("Add rule");
+        add.addActionListener(e -> rules.addRow(new Object[]{false, "", BOTH, "1", "", RewriteRules.Action.SET.name(), ""}));
+        JButton remove = new JButton("Remove");
+        remove.addActionListener(e -> {
+            int[] rows = table.getSelectedRows();
+            if (table.isEditing()) table.getCellEditor().stopCellEditing();
+            for (int i = rows.length - 1; i >= 0; i--) rules.removeRow(rows[i]);
+        });
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        top.add(add);
+        top.add(remove);
+        top.add(status);
+
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(new JLabel("<html>Binary frames passing through Proxy are rewritten before interception. Paths use the "
+                + "editor's format (2.1.3, '*' = any field); an empty URL pattern or match applies everywhere. SET writes "
+                + "the replacement as the value, REPLACE substitutes regex matches ($1 for groups), DROP removes the "
+                + "field. Numeric fields match and take decimal values. New rules start disabled; tick Enabled once filled in.</html>"), BorderLayout.SOUTH);
+
+        RewriteRules current = handler.rules();
+        loading = true;
+        for (RewriteRules.Rule r : current != null ? current.rules() : RewriteRules.restore(api.persistence().preferences())) {
+            rules.addRow(new Object[]{r.enabled, r.urlPattern, r.direction == null ? BOTH : r.direction.name(), r.path,
+                    r.match, r.action.name(), r.replacement});
+        }
+        loading = false;
+        refreshStatus();
+
+        addHierarchyListener(e -> {
+            if (isShowing()) refresh.start();
+            else refresh.stop();
+        });
+    }
+
+    /** Stops refreshing; called when the extension unloads. */
+    void stop() {
+        refresh.stop();
+    }
+
+    private void applyRules() {
+        List<RewriteRules.Rule> list = new ArrayList<>();
+        for (int i = 0; i < rules.getRowCount(); i++) {
+            String dir = String.valueOf(rules.getValueAt(i, 2));
+            list.add(new RewriteRules.Rule(Boolean.TRUE.equals(rules.getValueAt(i, 0)), text(i, 1).trim(),
+                    BOTH.equals(dir) ? null : Direction.valueOf(dir), text(i, 3).trim(), text(i, 4),
+                    RewriteRules.Action.valueOf(String.valueOf(rules.getValueAt(i, 5))), text(i, 6)));
+        }
+        try {
+            RewriteRules compiled = RewriteRules.compile(list);
+            handler.setRules(compiled);
+            compiled.save(api.persistence().preferences());
+            error = null;
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage() + " (previous rules still active)";
+        }
+        refreshStatus();
+    }
+
+    private String text(int row, int col) {
+        Object v = rules.getValueAt(row, col);
+        return v != null ? String.valueOf(v) : "";
+    }
+
+    private void refreshStatus() {
+        RewriteRules current = handler.rules();
+        String counts = current == null ? "Rewriting off (no enabled rules)"
+                : String.format("%d rule(s) active — %,d frames, %,d fields rewritten",
+                        current.activeRules(), current.framesRewritten.sum(), current.fieldsRewritten.sum());
+        status.setText(error != null ? error + " — " + counts : counts);
+    }
+}
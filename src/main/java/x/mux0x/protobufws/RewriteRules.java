@@ -0,0 +1,464 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.persistence.Preferences;
+import burp.api.montoya.websocket.Direction;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Field-path rewrite rules ("field {@code 1.4.2} matching X → set / replace / drop"), compiled
+ * once into a trie of field numbers and applied straight to wire bytes. A frame is scanned level
+ * by level, descending only into fields the trie names; nothing is copied until the first change,
+ * and then only the changed fields are re-encoded (with their enclosing length prefixes) while
+ * every other byte run is copied verbatim. No tree is built.
+ *
+ * Instances are immutable and shared by every proxied socket; editing the rules compiles a new one.
+ */
+final class RewriteRules {
+
+    enum Action { SET, REPLACE, DROP }
+
+    /** One rule as the user wrote it. */
+    static final class Rule {
+        final boolean enabled;
+        final String urlPattern;    // glob as in SchemaRegistry; empty = every socket
+        final Direction direction;  // null = both
+        final String path;          // dotted field numbers, '*' for any field at that level
+        final String match;         // regex found in the value's text; empty = any value
+        final Action action;
+        final String replacement;   // new value (SET) or regex replacement (REPLACE)
+
+        Rule(boolean enabled, String urlPattern, Direction direction, String path, String match, Action action,
+             String replacement) {
+            this.enabled = enabled;
+            this.urlPattern = urlPattern;
+            this.direction = direction;
+            this.path = path;
+            this.match = match;
+            this.action = action;
+            this.replacement = replacement;
+        }
+    }
+
+    /** A rule ready to run: regexes compiled, path split. */
+    private static final class Compiled {
+        final Rule rule;
+        final Pattern url;
+        final int[] path;           // -1 = any field
+        final Pattern match;        // null = any value
+
+        Compiled(Rule rule, Pattern url, int[] path, Pattern match) {
+            this.rule = rule;
+            this.url = url;
+            this.path = path;
+            this.match = match;
+        }
+    }
+
+    /** Rules keyed by field path for one socket and direction; a node's rules apply to fields ending there. */
+    static final class Trie {
+        private int[] numbers = new int[0];
+        private Trie[] next = new Trie[0];
+        private Trie any;                                       // '*'
+        private Compiled[] rules = new Compiled[0];
+
+        private Trie exact(int field) {
+            int[] n = numbers;
+            for (int i = 0; i < n.length; i++) if (n[i] == field) return next[i];
+            return null;
+        }
+
+        private void add(Compiled c, int depth) {
+            if (depth == c.path.length) {
+                rules = Arrays.copyOf(rules, rules.length + 1);
+                rules[rules.length - 1] = c;
+                return;
+            }
+            int field = c.path[depth];
+            Trie t;
+            if (field < 0) {
+                t = any != null ? any : (any = new Trie());
+            } else {
+                int i = 0;
+                while (i < numbers.length && numbers[i] != field) i++;
+                if (i == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, i + 1);
+                    next = Arrays.copyOf(next, i + 1);
+                    numbers[i] = field;
+                    next[i] = new Trie();
+                }
+                t = next[i];
+            }
+            t.add(c, depth + 1);
+        }
+
+        private boolean hasChildren() { return numbers.length > 0 || any != null; }
+    }
+
+    private static final String PREF_RULES = "sockobuf.rewriteRules";
+
+    // Marks a level that does not tokenize as a message (as opposed to null: a message left unchanged)
+    private static final byte[] NOT_A_MESSAGE = new byte[0];
+
+    private final List<Rule> rules;
+    private final List<Compiled> compiled;
+    final LongAdder framesRewritten = new LongAdder();
+    final LongAdder fieldsRewritten = new LongAdder();
+
+    private RewriteRules(List<Rule> rules, List<Compiled> compiled) {
+        this.rules = rules;
+        this.compiled = compiled;
+    }
+
+    /** Compiles {@code rules}; a bad path or regex fails the whole set with the rule's row number. */
+    static RewriteRules compile(List<Rule> rules) {
+        List<Compiled> out = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Rule r = rules.get(i);
+            if (!r.enabled) continue;
+            try {
+                Pattern match = r.match.isEmpty() ? null : Pattern.compile(r.match);
+                if (r.action == Action.REPLACE && match == null) throw new IllegalArgumentException("Replace needs a match regex");
+                out.add(new Compiled(r, r.urlPattern.isEmpty() ? null : SchemaRegistry.glob(r.urlPattern), path(r.path), match));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Rule " + (i + 1) + ": " + e.getDescription() + " in /" + r.match + "/");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Rule " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return new RewriteRules(List.copyOf(rules), out);
+    }
+
+    List<Rule> rules() { return rules; }
+
+    /** Stores the rules (one per line, tab-separated, tabs and newlines escaped) in Burp's preferences. */
+    void save(Preferences prefs) {
+        StringBuilder lines = new StringBuilder();
+        for (Rule r : rules) {
+            lines.append(r.enabled).append('\t').append(r.direction == null ? "BOTH" : r.direction.name()).append('\t')
+                 .append(escape(r.urlPattern)).append('\t').append(escape(r.path)).append('\t')
+                 .append(r.action.name()).append('\t').append(escape(r.match)).append('\t')
+                 .append(escape(r.replacement)).append('\n');
+        }
+        prefs.setString(PREF_RULES, lines.toString());
+    }
+
+    /** The rules {@link #save} stored, uncompiled; rows that no longer parse are dropped. */
+    static List<Rule> restore(Preferences prefs) {
+        List<Rule> out = new ArrayList<>();
+        String lines = prefs.getString(PREF_RULES);
+        if (lines == null) return out;
+        for (String line : lines.split("\n")) {
+            String[] cols = line.split("\t", -1);
+            if (cols.length != 7) continue;
+            try {
+                out.add(new Rule(Boolean.parseBoolean(cols[0]), unescape(cols[2]),
+                        cols[1].equals("BOTH") ? null : Direction.valueOf(cols[1]), unescape(cols[3]),
+                        unescape(cols[5]), Action.valueOf(cols[4]), unescape(cols[6])));
+            } catch (IllegalArgumentException e) {
+                // written by a different version: skip the row
+            }
+        }
+        return out;
+    }
+
+    int activeRules() { return compiled.size(); }
+
+    /** The rules that apply to frames in {@code direction} on the socket opened by {@code url}; null if none. */
+    Trie trieFor(String url, Direction direction) {
+        Trie root = null;
+        for (Compiled c : compiled) {
+            if (c.rule.direction != null && c.rule.direction != direction) continue;
+            if (c.url != null && (url == null || !c.url.matcher(url).matches())) continue;
+            if (root == null) root = new Trie();
+            root.add(c, 0);
+        }
+        return root;
+    }
+
+    /**
+     * The payload with the rules applied, or null when nothing matched (the usual case, which
+     * allocates nothing). Plain messages and gRPC-web / varint-delimited records are handled;
+     * compressed records and trailers are left alone.
+     */
+    byte[] apply(Trie trie, byte[] payload) {
+        byte[] out = rewrite(payload, 0, payload.length, trie);
+        if (out != NOT_A_MESSAGE) {
+            if (out != null) framesRewritten.increment();
+            return out;
+        }
+        Framing framing = Framing.split(payload);
+        if (framing == null) return null;
+        byte[][] bodies = null;
+        for (int i = 0; i < framing.records.size(); i++) {
+            Framing.Record r = framing.records.get(i);
+            if (r.isTrailers() || r.isCompressed()) continue;
+            byte[] body = rewrite(r.buf, r.offset, r.end(), trie);
+            if (body == null || body == NOT_A_MESSAGE) continue;
+            if (bodies == null) bodies = new byte[framing.records.size()][];
+            bodies[i] = body;
+        }
+        if (bodies == null) return null;
+        framesRewritten.increment();
+        return framing.reframe(bodies);
+    }
+
+    /** One message level: null if unchanged, NOT_A_MESSAGE if [off, end) is not a message, else the new bytes. */
+    private byte[] rewrite(byte[] a, int off, int end, Trie trie) {
+        if (off == end) return NOT_A_MESSAGE;
+        WireReader r = new WireReader(a, off);
+        WireWriter out = null;
+        int copied = off;
+        while (r.pos < end) {
+            int fieldStart = r.pos;
+            long key = r.readVarint64(end);
+            if (r.failed()) return NOT_A_MESSAGE;
+            int field = (int) (key >>> 3), wireType = (int) (key & 7);
+            if (field == 0 || (key >>> 3) > Integer.MAX_VALUE) return NOT_A_MESSAGE;
+            int keyEnd = r.pos;
+            long number = 0;
+            int valueStart, valueEnd;
+            switch (wireType) {
+                case 0:
+                    number = r.readVarint64(end);
+                    valueStart = keyEnd;
+                    valueEnd = r.pos;
+                    break;
+                case 1:
+                    if (end - r.pos < 8) return NOT_A_MESSAGE;
+                    number = littleEndian(a, r.pos, 8);
+                    valueStart = r.pos;
+                    valueEnd = r.pos += 8;
+                    break;
+                case 2: {
+                    long len = r.readVarint64(end);
+                    if (r.failed() || len < 0 || len > end - r.pos) return NOT_A_MESSAGE;
+                    valueStart = r.pos;
+                    valueEnd = r.pos += (int) len;
+                    break;
+                }
+                case 5:
+                    if (end - r.pos < 4) return NOT_A_MESSAGE;
+                    number = littleEndian(a, r.pos, 4);
+                    valueStart = r.pos;
+                    valueEnd = r.pos += 4;
+                    break;
+                default:
+                    return NOT_A_MESSAGE;
+            }
+            if (r.failed()) return NOT_A_MESSAGE;
+
+            // Rules under the field's number run first, then those under '*'
+            Trie exact = trie.exact(field);
+            if (exact == null && trie.any == null) continue;
+            Field f = new Field(wireType, number, a, valueStart, valueEnd);
+            boolean changed = exact != null && visit(exact, f);
+            if (trie.any != null && !f.dropped) changed |= visit(trie.any, f);
+            if (!changed) continue;
+
+            if (out == null) out = new WireWriter(end - off + 16);
+            out.write(a, copied, fieldStart - copied);
+            if (!f.dropped) {
+                out.write(a, fieldStart, keyEnd - fieldStart); // the original key
+                f.writeValue(out);
+            }
+            copied = r.pos;
+        }
+        if (out == null) return null;
+        out.write(a, copied, end - copied);
+        return out.toByteArray();
+    }
+
+    /** The rules ending at {@code t}, then the ones below it if the field is an embedded message. */
+    private boolean visit(Trie t, Field f) {
+        f.message = f.wireType == 2 && t.hasChildren();
+        boolean changed = applyRules(t, f);
+        if (!f.dropped && f.wireType == 2 && t.hasChildren()) {
+            byte[] nested = rewrite(f.bytes, f.offset, f.end, t);
+            if (nested != null && nested != NOT_A_MESSAGE) {
+                f.setBytes(nested);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Runs the rules ending at {@code t} over one field in order; true if any changed it. */
+    private boolean applyRules(Trie t, Field f) {
+        boolean changed = false;
+        for (Compiled c : t.rules) {
+            String text = null;
+            Matcher m = null;
+            if (c.match != null) {
+                text = f.text();
+                m = c.match.matcher(text);
+                if (!m.find()) continue;
+            }
+            switch (c.rule.action) {
+                case DROP:
+                    f.dropped = true;
+                    fieldsRewritten.increment();
+                    return true;
+                case SET:
+                    if (f.setText(c.rule.replacement)) changed = true;
+                    break;
+                case REPLACE:
+                    m.reset();
+                    if (f.setText(m.replaceAll(c.rule.replacement))) changed = true;
+                    break;
+            }
+        }
+        if (changed) fieldsRewritten.increment();
+        return changed;
+    }
+
+    /** The value of one field while rules run over it: a view until a rule replaces it. */
+    private static final class Field {
+        final int wireType;
+        long number;                // varint / fixed values
+        byte[] bytes;               // length-delimited content
+        int offset, end;
+        boolean dropped;
+        boolean message;            // rules continue below it, so its bytes are never read as text
+        private Charset charset;    // how text() read the length-delimited value; null until it has
+
+        Field(int wireType, long number, byte[] a, int offset, int end) {
+            this.wireType = wireType;
+            this.number = number;
+            this.bytes = a;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        /**
+         * Well-formed UTF-8 strings as text, numbers as unsigned decimal (as the search index shows
+         * them). Any other length-delimited value (binary, or a message the rules descend into) is
+         * read as ISO-8859-1, one char per byte, so a match or replacement works on the raw bytes.
+         */
+        String text() {
+            if (wireType != 2) return Long.toUnsignedString(number);
+            if (charset == null) {
+                boolean utf8 = !message && ProtoWire.isUtf8(bytes, offset, end - offset);
+                charset = utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            }
+            return new String(bytes, offset, end - offset, charset);
+        }
+
+        /**
+         * Sets the value from text, encoded the way {@link #text} read it; numbers accept signed or
+         * unsigned decimal. False if unchanged or unusable, including text that does not encode
+         * back (a char above U+00FF in a binary value, an unpaired surrogate).
+         */
+        boolean setText(String text) {
+            if (wireType == 2) {
+                if (charset == null) text();
+                if (!encodes(text, charset == StandardCharsets.ISO_8859_1)) return false;
+                byte[] v = text.getBytes(charset);
+                if (Arrays.equals(v, 0, v.length, bytes, offset, end)) return false;
+                setBytes(v);
+                return true;
+            }
+            long v;
+            try {
+                String s = text.trim();
+                v = s.startsWith("-") ? Long.parseLong(s) : Long.parseUnsignedLong(s);
+            } catch (NumberFormatException e) {
+                return false; // not a number: leave the field alone
+            }
+            if (wireType == 5) v &= 0xFFFFFFFFL;
+            if (v == number) return false;
+            number = v;
+            return true;
+        }
+
+        /** False if {@code text} would not survive encoding: a char above U+00FF in bytes, or an unpaired surrogate. */
+        private static boolean encodes(String text, boolean latin1) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (latin1) {
+                    if (c > 0xFF) return false;
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void setBytes(byte[] v) {
+            bytes = v;
+            offset = 0;
+            end = v.length;
+        }
+
+        void writeValue(WireWriter out) {
+            switch (wireType) {
+                case 0:
+                    out.writeVarint(number);
+                    break;
+                case 2:
+                    out.writeVarint(end - offset);
+                    out.write(bytes, offset, end - offset);
+                    break;
+                default: {
+                    int n = wireType == 1 ? 8 : 4;
+                    byte[] le = new byte[n];
+                    for (int i = 0; i < n; i++) le[i] = (byte) (number >>> (8 * i));
+                    out.write(le, 0, n);
+                }
+            }
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                out.append(c);
+                continue;
+            }
+            char n = s.charAt(++i);
+            out.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+        }
+        return out.toString();
+    }
+
+    private static long littleEndian(byte[] a, int p, int n) {
+        long v = 0;
+        for (int i = n - 1; i >= 0; i--) v = (v << 8) | (a[p + i] & 0xFF);
+        return v;
+    }
+
+    private static int[] path(String path) {
+        String[] parts = path.trim().split("\\.");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String p = parts[i].trim();
+            if (p.equals("*")) {
+                out[i] = -1;
+                continue;
+            }
+            try {
+                out[i] = Integer.parseInt(p);
+            } catch (NumberFormatException e) {
+                out[i] = 0;
+            }
+            if (out[i] <= 0) throw new IllegalArgumentException("Bad field path '" + path + "'");
+        }
+        return out;
+    }
+}
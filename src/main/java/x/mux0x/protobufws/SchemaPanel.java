@@ -0,0 +1,122 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.websocket.Direction;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads descriptor sets into the {@link SchemaRegistry} and edits the endpoint → message type
+ * mappings. Every change is applied immediately and saved to Burp's preferences.
+ */
+final class SchemaPanel extends JPanel {
+
+    private static final String BOTH = "Both";
+
+    private final MontoyaApi api;
+    private final SchemaRegistry schemas;
+    private final JLabel summary = new JLabel();
+    private final DefaultTableModel mappings =
+            new DefaultTableModel(new Object[]{"URL pattern", "Direction", "Message type"}, 0);
+    private final JComboBox<String> typeChoices = new JComboBox<>();
+    private boolean loading;
+
+    SchemaPanel(MontoyaApi api, SchemaRegistry schemas) {
+        super(new BorderLayout(0, 6));
+        this.api = api;
+        this.schemas = schemas;
+
+        JButton load = new JButton("Load descriptor set…");
+        load.addActionListener(e -> chooseAndLoad());
+        JButton clear = new JButton("Clear schemas");
+        clear.addActionListener(e -> {
+            schemas.clear();
+            schemas.save(api.persistence().preferences());
+            refreshSummary();
+        });
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        top.add(load);
+        top.add(clear);
+        top.add(summary);
+
+        JTable table = new JTable(mappings);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(1).setCellEditor(new DefaultCellEditor(new JComboBox<>(
+                new String[]{BOTH, Direction.CLIENT_TO_SERVER.name(), Direction.SERVER_TO_CLIENT.name()})));
+        typeChoices.setEditable(true);
+        table.getColumnModel().getColumn(2).setCellEditor(new DefaultCellEditor(typeChoices));
+        mappings.addTableModelListener(e -> { if (!loading) applyMappings(); });
+
+        JButton add = new JButton("Add mapping");
+        add.addActionListener(e -> mappings.addRow(new Object[]{"wss://*", BOTH, ""}));
+        JButton remove = new JButton("Remove");
+        remove.addActionListener(e -> {
+            int[] rows = table.getSelectedRows();
+            if (table.isEditing()) table.getCellEditor().stopCellEditing();
+            for (int i = rows.length - 1; i >= 0; i--) mappings.removeRow(rows[i]);
+        });
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        bottom.add(add);
+        bottom.add(remove);
+        bottom.add(new JLabel("Frames on WebSockets whose upgrade URL matches a pattern ('*' = anything) "
+                + "are decoded as that message type; the first matching row wins."));
+
+        setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(bottom, BorderLayout.SOUTH);
+
+        loading = true;
+        for (SchemaRegistry.Mapping m : schemas.mappings()) {
+            mappings.addRow(new Object[]{m.urlPattern, m.direction == null ? BOTH : m.direction.name(), m.messageType});
+        }
+        loading = false;
+        refreshSummary();
+    }
+
+    private void chooseAndLoad() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileFilter(new FileNameExtensionFilter("Descriptor sets (protoc --descriptor_set_out)", "desc", "pb", "protoset", "bin"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        List<String> errors = new ArrayList<>();
+        for (File f : chooser.getSelectedFiles()) {
+            try {
+                schemas.load(f.toPath());
+            } catch (Exception e) {
+                errors.add(f.getName() + ": " + e.getMessage());
+            }
+        }
+        schemas.save(api.persistence().preferences());
+        refreshSummary();
+        if (!errors.isEmpty()) {
+            JOptionPane.showMessageDialog(this, String.join("\n", errors), "Some descriptor sets failed to load",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    private void applyMappings() {
+        List<SchemaRegistry.Mapping> list = new ArrayList<>();
+        for (int i = 0; i < mappings.getRowCount(); i++) {
+            String pattern = String.valueOf(mappings.getValueAt(i, 0)).trim();
+            String dir = String.valueOf(mappings.getValueAt(i, 1));
+            String type = String.valueOf(mappings.getValueAt(i, 2)).trim();
+            if (pattern.isEmpty() || type.isEmpty()) continue;
+            list.add(new SchemaRegistry.Mapping(pattern, BOTH.equals(dir) ? null : Direction.valueOf(dir), type));
+        }
+        schemas.setMappings(list);
+        schemas.save(api.persistence().preferences());
+    }
+
+    private void refreshSummary() {
+        List<String> types = schemas.messageTypes();
+        summary.setText(schemas.files().size() + " descriptor set(s), " + types.size() + " message type(s)");
+        typeChoices.setModel(new DefaultComboBoxModel<>(types.toArray(new String[0])));
+    }
+}
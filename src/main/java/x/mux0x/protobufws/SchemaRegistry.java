@@ -0,0 +1,210 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.persistence.Preferences;
+import burp.api.montoya.websocket.Direction;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Descriptor sets loaded from {@code .desc} files (protoc --descriptor_set_out, ideally with
+ * --include_imports) plus the endpoint → root message type mappings. Each message type is
+ * compiled into a {@link MessageLayout} the first time it is needed and reused afterwards.
+ */
+final class SchemaRegistry {
+
+    /** "Frames on WebSockets whose upgrade URL matches {@code urlPattern} are {@code messageType}". */
+    static final class Mapping {
+        final String urlPattern;     // glob: '*' matches any run of characters
+        final Direction direction;   // null = both directions
+        final String messageType;    // fully-qualified, e.g. "chat.v1.Envelope"
+        private final Pattern compiled;
+
+        Mapping(String urlPattern, Direction direction, String messageType) {
+            this.urlPattern = urlPattern;
+            this.direction = direction;
+            this.messageType = messageType;
+            this.compiled = glob(urlPattern);
+        }
+
+        boolean matches(String url, Direction dir) {
+            return (direction == null || direction == dir) && compiled.matcher(url).matches();
+        }
+    }
+
+    private static final String PREF_FILES = "sockobuf.descriptorFiles";
+    private static final String PREF_MAPPINGS = "sockobuf.endpointMappings";
+
+    // Well-known types that descriptor sets built without --include_imports still refer to
+    private static final Map<String, Descriptors.FileDescriptor> WELL_KNOWN = new HashMap<>();
+    static {
+        for (Descriptors.FileDescriptor fd : List.of(
+                com.google.protobuf.AnyProto.getDescriptor(),
+                com.google.protobuf.DurationProto.getDescriptor(),
+                com.google.protobuf.EmptyProto.getDescriptor(),
+                com.google.protobuf.FieldMaskProto.getDescriptor(),
+                com.google.protobuf.StructProto.getDescriptor(),
+                com.google.protobuf.TimestampProto.getDescriptor(),
+                com.google.protobuf.WrappersProto.getDescriptor(),
+                com.google.protobuf.DescriptorProtos.getDescriptor())) {
+            WELL_KNOWN.put(fd.getName(), fd);
+        }
+    }
+
+    private final List<Path> files = new CopyOnWriteArrayList<>();
+    private final Map<String, Descriptors.Descriptor> types = new ConcurrentHashMap<>();
+    private final Map<Descriptors.Descriptor, MessageLayout> compiled = new HashMap<>(); // guarded by this
+    private volatile List<Mapping> mappings = List.of();
+    private final Map<String, Optional<MessageLayout>> resolved = new ConcurrentHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /** Loads every message type in a serialized FileDescriptorSet. */
+    void load(Path file) throws IOException, Descriptors.DescriptorValidationException {
+        DescriptorProtos.FileDescriptorSet set = DescriptorProtos.FileDescriptorSet.parseFrom(Files.readAllBytes(file));
+        Map<String, DescriptorProtos.FileDescriptorProto> protos = new HashMap<>();
+        for (DescriptorProtos.FileDescriptorProto p : set.getFileList()) protos.put(p.getName(), p);
+
+        Map<String, Descriptors.FileDescriptor> built = new HashMap<>();
+        for (String name : protos.keySet()) build(name, protos, built);
+        for (Descriptors.FileDescriptor fd : built.values()) {
+            for (Descriptors.Descriptor d : fd.getMessageTypes()) register(d);
+        }
+        if (!files.contains(file)) files.add(file);
+        changed();
+    }
+
+    void clear() {
+        files.clear();
+        types.clear();
+        synchronized (this) { compiled.clear(); }
+        changed();
+    }
+
+    List<Path> files() { return Collections.unmodifiableList(files); }
+
+    /** All known message types, sorted by name. */
+    List<String> messageTypes() {
+        return new ArrayList<>(new TreeMap<>(types).keySet());
+    }
+
+    List<Mapping> mappings() { return mappings; }
+
+    void setMappings(List<Mapping> newMappings) {
+        mappings = List.copyOf(newMappings);
+        changed();
+    }
+
+    /** Called whenever a decode could turn out differently (schemas or mappings changed). */
+    void addChangeListener(Runnable listener) { listeners.add(listener); }
+
+    /** Root type for frames on {@code url} going {@code direction}, or null to decode heuristically. */
+    MessageLayout resolve(String url, Direction direction) {
+        if (url == null || mappings.isEmpty()) return null;
+        return resolved.computeIfAbsent(direction + " " + url, k -> {
+            for (Mapping m : mappings) {
+                if (m.matches(url, direction)) return Optional.ofNullable(layout(m.messageType));
+            }
+            return Optional.empty();
+        }).orElse(null);
+    }
+
+    /** Compiled layout for a fully-qualified message type, or null if it is not loaded. */
+    synchronized MessageLayout layout(String messageType) {
+        Descriptors.Descriptor d = types.get(messageType);
+        return d != null ? MessageLayout.compile(d, compiled) : null;
+    }
+
+    /** Stores the loaded file paths and the mappings (one per line, tab-separated) in Burp's preferences. */
+    void save(Preferences prefs) {
+        StringBuilder paths = new StringBuilder();
+        for (Path f : files) paths.append(f).append('\n');
+        StringBuilder lines = new StringBuilder();
+        for (Mapping m : mappings) {
+            lines.append(m.direction == null ? "BOTH" : m.direction.name()).append('\t')
+                 .append(m.urlPattern).append('\t').append(m.messageType).append('\n');
+        }
+        prefs.setString(PREF_FILES, paths.toString());
+        prefs.setString(PREF_MAPPINGS, lines.toString());
+    }
+
+    /** Reloads what {@link #save} stored; returns one message per descriptor file that no longer loads. */
+    List<String> restore(Preferences prefs) {
+        List<String> errors = new ArrayList<>();
+        String paths = prefs.getString(PREF_FILES);
+        if (paths != null) {
+            for (String p : paths.split("\n")) {
+                if (p.isBlank()) continue;
+                try {
+                    load(Paths.get(p));
+                } catch (Exception e) {
+                    errors.add(p + ": " + e.getMessage());
+                }
+            }
+        }
+        String lines = prefs.getString(PREF_MAPPINGS);
+        if (lines != null) {
+            List<Mapping> restored = new ArrayList<>();
+            for (String line : lines.split("\n")) {
+                String[] cols = line.split("\t", -1);
+                if (cols.length != 3) continue;
+                Direction dir = cols[0].equals("BOTH") ? null : Direction.valueOf(cols[0]);
+                restored.add(new Mapping(cols[1], dir, cols[2]));
+            }
+            setMappings(restored);
+        }
+        return errors;
+    }
+
+    private void register(Descriptors.Descriptor d) {
+        types.put(d.getFullName(), d);
+        for (Descriptors.Descriptor nested : d.getNestedTypes()) register(nested);
+    }
+
+    private static Descriptors.FileDescriptor build(String name, Map<String, DescriptorProtos.FileDescriptorProto> protos,
+                                                    Map<String, Descriptors.FileDescriptor> built)
+            throws Descriptors.DescriptorValidationException {
+        Descriptors.FileDescriptor done = built.get(name);
+        if (done != null) return done;
+        DescriptorProtos.FileDescriptorProto proto = protos.get(name);
+        if (proto == null) {
+            Descriptors.FileDescriptor wk = WELL_KNOWN.get(name);
+            if (wk != null) return wk;
+            throw new IllegalArgumentException("Missing dependency " + name + " (rebuild with protoc --include_imports)");
+        }
+        List<Descriptors.FileDescriptor> deps = new ArrayList<>();
+        for (String dep : proto.getDependencyList()) deps.add(build(dep, protos, built));
+        Descriptors.FileDescriptor fd = Descriptors.FileDescriptor.buildFrom(proto, deps.toArray(new Descriptors.FileDescriptor[0]));
+        built.put(name, fd);
+        return fd;
+    }
+
+    private void changed() {
+        resolved.clear();
+        for (Runnable l : listeners) l.run();
+    }
+
+    /** Case-insensitive whole-string matcher for a glob where '*' matches any run of characters. */
+    static Pattern glob(String pattern) {
+        String[] parts = pattern.split("\\*", -1);
+        StringBuilder re = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) re.append(".*");
+            if (!parts[i].isEmpty()) re.append(Pattern.quote(parts[i]));
+        }
+        return Pattern.compile(re.toString(), Pattern.CASE_INSENSITIVE);
+    }
+}
@@ -0,0 +1,24 @@
+package x.mux0x.protobufws;
+
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.*;
+import java.awt.*;
+
+/** The extension's suite tab: one sub-tab per tool panel. */
+final class SockoBufTab {
+
+    private final JTabbedPane tabs = new JTabbedPane();
+
+    void addPanel(String title, Component panel) {
+        tabs.addTab(title, panel);
+    }
+
+    Component uiComponent() { return tabs; }
+
+    /** Registers the tab with Burp once every panel has been added. */
+    void register(MontoyaApi api) {
+        api.userInterface().applyThemeToComponent(tabs);
+        api.userInterface().registerSuiteTab("SockoBuf", tabs);
+    }
+}
@@ -0,0 +1,34 @@
+package x.mux0x.protobufws;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one {@link Metrics.Stage} run, so slow frames can be lined up with GC pauses
+ * in a recording. Committed only while a recording is running; {@code jfr print --events
+ * x.mux0x.sockobuf.Stage} lists them.
+ */
+@Name("x.mux0x.sockobuf.Stage")
+@Label("SockoBuf Stage")
+@Category("SockoBuf")
+@Description("One decode or encode stage of a WebSocket frame")
+@StackTrace(false)
+final class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread during the stage; -1 when not tracked")
+    @DataAmount
+    long allocated;
+}
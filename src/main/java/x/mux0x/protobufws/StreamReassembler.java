@@ -0,0 +1,162 @@
+package x.mux0x.protobufws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental framing decoder for one direction of one WebSocket: fed every frame in order, it
+ * recognises gRPC-web or varint-delimited framing and yields the records each frame completes,
+ * including records whose header or body began in earlier frames.
+ *
+ * A record that lies entirely inside the current frame is returned as a view into that frame.
+ * Only a record split across frames is assembled, into one exactly-sized array as its pieces
+ * arrive, so every byte is copied at most once. Not thread-safe; callers feed one frame at a time.
+ */
+final class StreamReassembler {
+
+    /** What one frame contributed. */
+    static final class Result {
+        final List<Framing.Record> completed;
+        final boolean selfContained;    // started and ended on record boundaries: Framing.split sees it all
+
+        Result(List<Framing.Record> completed, boolean selfContained) {
+            this.completed = completed;
+            this.selfContained = selfContained;
+        }
+    }
+
+    private static final int MAX_VARINT_HEADER = 5; // enough for MAX_MESSAGE_BYTES
+
+    private Framing.Kind kind;       // null until detected
+    private boolean unframed;        // the stream carries plain messages: stop looking
+
+    private final byte[] header = new byte[Framing.GRPC_HEADER_BYTES];
+    private int headerFill;
+    private int flag;
+    private byte[] body;             // record being assembled across frames
+    private int bodyFill;
+    private int headerEnd;           // scratch: where readHeader stopped
+
+    /** Feeds the next frame; returns null when the stream is not (or not yet known to be) framed. */
+    Result feed(byte[] frame) {
+        if (unframed) return null;
+        boolean atBoundary = headerFill == 0 && body == null;
+        if (kind == null && !detect(frame)) return null;
+
+        List<Framing.Record> completed = new ArrayList<>(2);
+        int pos = 0;
+        while (pos < frame.length) {
+            if (body == null) {
+                int len = readHeader(frame, pos);
+                if (len == -2) return resync(completed);
+                pos = headerEnd;
+                if (len < 0) break; // header continues in the next frame
+                headerFill = 0;
+                if (len <= frame.length - pos) {
+                    completed.add(new Framing.Record(flag, frame, pos, len)); // whole body in this frame: a view
+                    pos += len;
+                    continue;
+                }
+                body = new byte[len];
+                bodyFill = 0;
+            }
+            int n = Math.min(body.length - bodyFill, frame.length - pos);
+            System.arraycopy(frame, pos, body, bodyFill, n);
+            bodyFill += n;
+            pos += n;
+            if (bodyFill == body.length) {
+                completed.add(new Framing.Record(flag, body, 0, body.length));
+                body = null;
+            }
+        }
+        boolean endsAtBoundary = headerFill == 0 && body == null;
+        return new Result(completed, atBoundary && endsAtBoundary);
+    }
+
+    /**
+     * Consumes header bytes from {@code frame} at {@code pos} (setting {@link #headerEnd}). Returns
+     * the record length, -1 if the header is still incomplete, or -2 if it is not a valid header.
+     */
+    private int readHeader(byte[] frame, int pos) {
+        if (kind == Framing.Kind.GRPC_WEB) {
+            int n = Math.min(Framing.GRPC_HEADER_BYTES - headerFill, frame.length - pos);
+            System.arraycopy(frame, pos, header, headerFill, n);
+            headerFill += n;
+            headerEnd = pos + n;
+            if (headerFill < Framing.GRPC_HEADER_BYTES) return -1;
+            flag = header[0] & 0xFF;
+            int len = Framing.grpcLength(header, 0);
+            return len >= 0 ? len : -2;
+        }
+        while (pos < frame.length) {
+            byte b = frame[pos++];
+            header[headerFill++] = b;
+            if (b >= 0) {
+                headerEnd = pos;
+                long len = new WireReader(header, 0).readVarint64(headerFill);
+                flag = 0;
+                return len <= Framing.MAX_MESSAGE_BYTES ? (int) len : -2;
+            }
+            if (headerFill == MAX_VARINT_HEADER) return -2;
+        }
+        headerEnd = pos;
+        return -1;
+    }
+
+    /**
+     * Decides the framing from the first frame of the stream. A frame that {@link Framing#split}s
+     * fixes the kind, unless it only splits as varint-delimited records and also reads as gRPC-web
+     * cut off mid-record; a plain protobuf message marks the stream unframed; otherwise a plausible
+     * header whose record runs past the frame is taken as the start of a split record.
+     */
+    private boolean detect(byte[] frame) {
+        Framing split = Framing.split(frame);
+        boolean cutGrpcWeb = cutGrpcWeb(frame);
+        if (split != null && (split.kind == Framing.Kind.GRPC_WEB || !cutGrpcWeb)) {
+            kind = split.kind;
+            return true;
+        }
+        if (ProtoWire.looksLikeMessage(frame, 0, frame.length)) {
+            unframed = true;
+            return false;
+        }
+        if (cutGrpcWeb) {
+            kind = Framing.Kind.GRPC_WEB;
+            return true;
+        }
+        WireReader r = new WireReader(frame, 0);
+        long len = r.readVarint64(Math.min(frame.length, MAX_VARINT_HEADER));
+        if (!r.failed() && len > frame.length - r.pos && len <= Framing.MAX_MESSAGE_BYTES
+                && frame.length - r.pos >= 2 && plausibleKey(frame[r.pos])) {
+            kind = Framing.Kind.VARINT_DELIMITED;
+            return true;
+        }
+        return false;
+    }
+
+    /** Whole gRPC-web records (possibly none) followed by a record or header that runs past the frame. */
+    private static boolean cutGrpcWeb(byte[] frame) {
+        int pos = 0;
+        while (frame.length - pos >= Framing.GRPC_HEADER_BYTES) {
+            int len = Framing.grpcLength(frame, pos);
+            if (len < 0) return false;
+            if (len > frame.length - pos - Framing.GRPC_HEADER_BYTES) return true;
+            pos += Framing.GRPC_HEADER_BYTES + len;
+        }
+        return pos > 0 && pos < frame.length && Framing.isGrpcFlag(frame[pos] & 0xFF);
+    }
+
+    /** First byte of a message: field number 1-15 and a supported wire type. */
+    private static boolean plausibleKey(byte b) {
+        int wireType = b & 0x7;
+        return b > 7 && (wireType == 0 || wireType == 1 || wireType == 2 || wireType == 5);
+    }
+
+    /** Lost sync (garbage header): drop partial state and re-detect from the next frame. */
+    private Result resync(List<Framing.Record> completed) {
+        kind = null;
+        headerFill = 0;
+        body = null;
+        return new Result(completed, false);
+    }
+}
@@ -0,0 +1,102 @@
+package x.mux0x.protobufws;
+
+/**
+ * Cursor over a byte array that decodes wire-format primitives without allocating.
+ * Malformed input does not throw: the cursor is parked at {@link #FAILED} and the caller
+ * checks {@link #failed()} after each read, which keeps speculative parsing exception-free.
+ */
+final class WireReader {
+
+    static final int FAILED = -1;
+
+    final byte[] buf;
+    int pos;
+
+    WireReader(byte[] buf, int pos) {
+        this.buf = buf;
+        this.pos = pos;
+    }
+
+    boolean failed() { return pos == FAILED; }
+
+    /**
+     * Reads a varint ending before {@code limit}. The single-byte case (every key for fields 1-15
+     * and most small lengths) returns immediately; longer varints are decoded fully unrolled
+     * when ten bytes are available, falling back to a bounded loop near the end of the range.
+     */
+    long readVarint64(int limit) {
+        fast:
+        {
+            int p = pos;
+            if (p < 0 || p >= limit) break fast;
+            final byte[] a = buf;
+            long x;
+            int y;
+            if ((y = a[p++]) >= 0) {
+                pos = p;
+                return y;
+            } else if (limit - p < 9) {
+                break fast;
+            } else if ((y ^= (a[p++] << 7)) < 0) {
+                x = y ^ (~0 << 7);
+            } else if ((y ^= (a[p++] << 14)) >= 0) {
+                x = y ^ ((~0 << 7) ^ (~0 << 14));
+            } else if ((y ^= (a[p++] << 21)) < 0) {
+                x = y ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+            } else if ((x = y ^ ((long) a[p++] << 28)) >= 0L) {
+                x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28);
+            } else if ((x ^= ((long) a[p++] << 35)) < 0L) {
+                x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35);
+            } else if ((x ^= ((long) a[p++] << 42)) >= 0L) {
+                x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42);
+            } else if ((x ^= ((long) a[p++] << 49)) < 0L) {
+                x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+                        ^ (~0L << 49);
+            } else {
+                x ^= ((long) a[p++] << 56);
+                x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+                        ^ (~0L << 49) ^ (~0L << 56);
+                if (x < 0L && a[p++] < 0) break fast; // more than ten bytes
+            }
+            pos = p;
+            return x;
+        }
+        return readVarint64Slow(limit);
+    }
+
+    private long readVarint64Slow(int limit) {
+        if (pos < 0) return 0;
+        long val = 0;
+        int p = pos;
+        for (int shift = 0; shift < 64 && p < limit; shift += 7) {
+            int b = buf[p++];
+            val |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                pos = p;
+                return val;
+            }
+        }
+        pos = FAILED; // malformed or truncated
+        return 0;
+    }
+
+    /** Advances past a varint without decoding it. */
+    void skipVarint(int limit) {
+        int p = pos;
+        if (p < 0) return;
+        int max = Math.min(limit, p + 10);
+        while (p < max) {
+            if (buf[p++] >= 0) {
+                pos = p;
+                return;
+            }
+        }
+        pos = FAILED;
+    }
+
+    /** Advances {@code n} bytes, failing if that would cross {@code limit}. */
+    void skip(int n, int limit) {
+        if (pos < 0) return;
+        pos = (n < 0 || n > limit - pos) ? FAILED : pos + n;
+    }
+}
@@ -0,0 +1,67 @@
+package x.mux0x.protobufws;
+
+import java.util.Arrays;
+
+/**
+ * Growable, unsynchronized output buffer for wire-format writes. Unlike ByteArrayOutputStream
+ * there is no per-byte lock, and when the buffer was presized exactly, {@link #toByteArray}
+ * hands it over without a final copy.
+ */
+final class WireWriter {
+
+    private byte[] buf;
+    private int pos;
+
+    WireWriter(int capacity) {
+        this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    int size() { return pos; }
+
+    void writeVarint(long v) {
+        if (buf.length - pos < 10) ensure(varintSize(v)); // keeps exactly presized buffers exact
+        byte[] a = buf;
+        int p = pos;
+        if ((v & ~0x7FL) == 0) {
+            a[p] = (byte) v;
+            pos = p + 1;
+            return;
+        }
+        if ((v & ~0x3FFFL) == 0) {
+            a[p] = (byte) (v | 0x80);
+            a[p + 1] = (byte) (v >>> 7);
+            pos = p + 2;
+            return;
+        }
+        while ((v & ~0x7FL) != 0) {
+            a[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        a[p++] = (byte) v;
+        pos = p;
+    }
+
+    void write(byte[] src, int off, int len) {
+        ensure(len);
+        System.arraycopy(src, off, buf, pos, len);
+        pos += len;
+    }
+
+    /** The backing array, without copying; only the first {@link #size()} bytes are meaningful. */
+    byte[] array() { return buf; }
+
+    /** Returns the written bytes; the internal array itself when it is exactly full. */
+    byte[] toByteArray() {
+        return pos == buf.length ? buf : Arrays.copyOf(buf, pos);
+    }
+
+    static int varintSize(long v) {
+        return v == 0 ? 1 : (63 - Long.numberOfLeadingZeros(v)) / 7 + 1;
+    }
+
+    private void ensure(int extra) {
+        if (extra > buf.length - pos) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package x.mux0x.protobufws;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CompressionTest {
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void inflatesBodiesFarLargerThanThePresize() throws IOException {
+        byte[] body = new byte[4 << 20]; // compresses about 1000:1
+        for (int i = 0; i < body.length; i += 4096) body[i] = (byte) i;
+        byte[] gz = gzip(body);
+        Compression c = Compression.detect(gz, 0, gz.length);
+        assertNotNull(c);
+        assertArrayEquals(body, c.inflate(gz, 0, gz.length));
+    }
+
+    @Test
+    void rejectsForgedSizeTrailer() throws IOException {
+        byte[] gz = gzip(new byte[0]);
+        gz[gz.length - 1] = 0x01; // ISIZE now claims 16 MB
+        Compression c = Compression.detect(gz, 0, gz.length);
+        assertNotNull(c);
+        assertNull(c.inflate(gz, 0, gz.length));
+    }
+}
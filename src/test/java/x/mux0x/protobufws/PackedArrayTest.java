@@ -0,0 +1,50 @@
+package x.mux0x.protobufws;
+
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PackedArrayTest {
+
+    private static PackedArray guess(String hex) {
+        byte[] a = HexFormat.of().parseHex(hex);
+        return PackedArray.guess(a, 0, a.length);
+    }
+
+    @Test
+    void shortBinaryIsNotGuessedAsArray() {
+        assertNull(guess("010203"));
+        assertNull(guess("00000000000000000000000000000000")); // two zero doubles
+        assertNull(guess("0000000000000000"));                 // eight zero varints
+    }
+
+    @Test
+    void guessesLongVarintRun() {
+        PackedArray p = guess("0102030405060708");
+        assertNotNull(p);
+        assertEquals("[1, 2, 3, 4, 5, 6, 7, 8]", p.toString());
+    }
+
+    @Test
+    void guessesDoubleRun() {
+        // 1.0, 2.0, 0.0, -0.5
+        PackedArray p = guess("000000000000f03f" + "0000000000000040" + "0000000000000000" + "000000000000e0bf");
+        assertNotNull(p);
+        assertEquals("[1.0, 2.0, 0.0, -0.5]", p.toString());
+    }
+
+    @Test
+    void boolAcceptsOnlyBooleanLiterals() {
+        PackedArray bools = PackedArray.decode(new byte[]{1, 0}, 0, 2, Type.BOOL);
+        assertEquals("[true, false]", bools.toString());
+        assertEquals("[false, true, true, false]", bools.parse("[false, true, 1, 0]").toString());
+        assertThrows(NumberFormatException.class, () -> bools.parse("[true, yes]"));
+        assertThrows(NumberFormatException.class, () -> bools.parse("[2]"));
+    }
+}
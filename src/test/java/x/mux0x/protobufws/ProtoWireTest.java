@@ -0,0 +1,87 @@
+package x.mux0x.protobufws;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProtoWireTest {
+
+    private static final byte[] NESTED = HexFormat.of().parseHex("0a030a0161"); // 1 { 1: "a" }
+
+    @AfterEach
+    void restoreLimits() {
+        ParseBudget.limits = ParseBudget.Limits.DEFAULT;
+    }
+
+    /** {@code Outer { Inner inner = 1; }}, {@code Inner { string s = 1; }} */
+    private static MessageLayout outer() throws Descriptors.DescriptorValidationException {
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("t.proto")
+                .addMessageType(DescriptorProto.newBuilder().setName("Inner")
+                        .addField(field("s", FieldDescriptorProto.Type.TYPE_STRING, null)))
+                .addMessageType(DescriptorProto.newBuilder().setName("Outer")
+                        .addField(field("inner", FieldDescriptorProto.Type.TYPE_MESSAGE, ".Inner")))
+                .build();
+        Descriptors.FileDescriptor fd = Descriptors.FileDescriptor.buildFrom(file, new Descriptors.FileDescriptor[0]);
+        return MessageLayout.compile(fd.findMessageTypeByName("Outer"), new HashMap<>());
+    }
+
+    private static FieldDescriptorProto.Builder field(String name, FieldDescriptorProto.Type type, String typeName) {
+        FieldDescriptorProto.Builder f = FieldDescriptorProto.newBuilder().setName(name).setNumber(1).setType(type)
+                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+        return typeName != null ? f.setTypeName(typeName) : f;
+    }
+
+    @Test
+    void heuristicDepthZeroKeepsGuessedMessagesAsLeaves() {
+        ParseBudget.limits = new ParseBudget.Limits(0, 1 << 20, 64L << 20, 1_000_000, 200);
+        ProtoWire.Node field = ProtoWire.tryParse(NESTED).root.children.get(0);
+        assertNull(field.children);
+    }
+
+    @Test
+    void heuristicDepthZeroStillDescendsIntoDeclaredMessages() throws Exception {
+        ParseBudget.limits = new ParseBudget.Limits(0, 1 << 20, 64L << 20, 1_000_000, 200);
+        ProtoWire.Node field = ProtoWire.tryParse(NESTED, outer()).root.children.get(0);
+        assertNotNull(field.children);
+        assertEquals("s", field.children.get(0).fieldName);
+    }
+
+    @Test
+    void shallowParseReadsOneLevel() throws Exception {
+        ProtoWire.Node field = ProtoWire.tryParseShallow(NESTED, outer()).root.children.get(0);
+        assertNull(field.children);
+    }
+
+    @Test
+    void nodeLimitLeavesRestAsUnparsedSpan() {
+        ParseBudget.limits = new ParseBudget.Limits(5, 1 << 20, 64L << 20, 2, 200);
+        ProtoWire.ParseResult parsed = ProtoWire.tryParse(HexFormat.of().parseHex("0801100218031804"));
+        assertTrue(ProtoWire.hasUnparsed(parsed.root));
+        assertFalse(parsed.timedOut); // a size limit: the same every time, so the decode may be cached
+        assertFalse(ProtoWire.hasUnparsed(ProtoWire.tryParse(NESTED).root));
+    }
+
+    @Test
+    void isUtf8AcceptsWellFormedTextOnly() {
+        byte[] ok = "control\u0001 chars and h\u00e9llo \ud83d\ude00 past eight bytes".getBytes(StandardCharsets.UTF_8);
+        assertTrue(ProtoWire.isUtf8(ok, 0, ok.length));
+        for (String bad : new String[]{"ff", "6162c3", "eda080", "c0af", "f4908080"}) {
+            byte[] b = HexFormat.of().parseHex(bad);
+            assertFalse(ProtoWire.isUtf8(b, 0, b.length), bad);
+        }
+    }
+}
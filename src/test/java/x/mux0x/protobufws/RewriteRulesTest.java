@@ -0,0 +1,86 @@
+package x.mux0x.protobufws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RewriteRulesTest {
+
+    private static final HexFormat HEX = HexFormat.ofDelimiter(" ");
+
+    /** Applies one rule (any socket, both directions) to {@code hex}; the result as hex, or null if unchanged. */
+    private static String apply(String path, String match, RewriteRules.Action action, String replacement, String hex) {
+        RewriteRules rules = RewriteRules.compile(List.of(
+                new RewriteRules.Rule(true, "", null, path, match, action, replacement)));
+        byte[] out = rules.apply(rules.trieFor("wss://example.test/", null), HEX.parseHex(hex));
+        return out == null ? null : HEX.formatHex(out);
+    }
+
+    @Test
+    void replacesUtf8Text() {
+        assertEquals("0a 01 65 10 07",
+                apply("1", "é", RewriteRules.Action.REPLACE, "e", "0a 02 c3 a9 10 07"));
+    }
+
+    @Test
+    void unmatchedFrameIsLeftAlone() {
+        assertNull(apply("1", "foo", RewriteRules.Action.REPLACE, "bar", "0a 05 68 65 6c 6c 6f 10 07"));
+    }
+
+    @Test
+    void setsNumbers() {
+        assertEquals("0a 02 68 69 10 09", apply("2", "", RewriteRules.Action.SET, "9", "0a 02 68 69 10 07"));
+        assertNull(apply("2", "", RewriteRules.Action.SET, "nine", "0a 02 68 69 10 07"));
+    }
+
+    @Test
+    void replacesInsideBinaryValueByteForByte() {
+        // Not UTF-8 (the 0xff): matched as raw bytes, which are otherwise left exactly as they were
+        assertEquals("0a 09 12 02 ff 61 1a 03 62 61 72",
+                apply("*", "foo", RewriteRules.Action.REPLACE, "bar", "0a 09 12 02 ff 61 1a 03 66 6f 6f"));
+    }
+
+    @Test
+    void skipsTextThatDoesNotFitBinaryValue() {
+        assertNull(apply("1", "a", RewriteRules.Action.REPLACE, "€", "0a 02 ff 61"));
+    }
+
+    @Test
+    void rewritesNestedFieldAndItsPrefixes() {
+        assertEquals("0a 0c 12 02 ff 61 1a 06 62 61 72 62 61 7a",
+                apply("1.3", "foo", RewriteRules.Action.REPLACE, "barbaz", "0a 09 12 02 ff 61 1a 03 66 6f 6f"));
+    }
+
+    @Test
+    void dropsNestedField() {
+        assertEquals("0a 04 12 02 ff 61 10 01",
+                apply("1.3", "", RewriteRules.Action.DROP, "", "0a 09 12 02 ff 61 1a 03 66 6f 6f 10 01"));
+    }
+
+    @Test
+    void messageRulesDescendIntoIsMatchedAsBytes() {
+        // Field 1 is valid UTF-8 too, but as a message its bytes are replaced one for one, not re-encoded
+        RewriteRules rules = RewriteRules.compile(List.of(
+                new RewriteRules.Rule(true, "", null, "1", "o", RewriteRules.Action.REPLACE, "\u00e9"),
+                new RewriteRules.Rule(true, "", null, "1.3", "f", RewriteRules.Action.REPLACE, "g")));
+        byte[] out = rules.apply(rules.trieFor(null, null), HEX.parseHex("0a 05 1a 03 66 6f 6f"));
+        assertEquals("0a 05 1a 03 67 e9 e9", HEX.formatHex(out));
+    }
+
+    @Test
+    void rewritesGrpcWebRecords() {
+        assertEquals("00 00 00 00 06 0a 04 71 75 75 78 00 00 00 00 02 10 01",
+                apply("1", "foo", RewriteRules.Action.REPLACE, "quux",
+                        "00 00 00 00 05 0a 03 66 6f 6f 00 00 00 00 02 10 01"));
+    }
+
+    @Test
+    void rewritesVarintDelimitedRecords() {
+        assertEquals("06 0a 04 71 75 75 78 02 10 01",
+                apply("1", "foo", RewriteRules.Action.REPLACE, "quux", "05 0a 03 66 6f 6f 02 10 01"));
+    }
+}
@@ -0,0 +1,56 @@
+package x.mux0x.protobufws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StreamReassemblerTest {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static List<String> feed(StreamReassembler s, String hex) {
+        StreamReassembler.Result r = s.feed(HEX.parseHex(hex));
+        if (r == null) return null;
+        List<String> bodies = new ArrayList<>();
+        for (Framing.Record rec : r.completed) bodies.add(HEX.formatHex(rec.buf, rec.offset, rec.end()));
+        return bodies;
+    }
+
+    @Test
+    void grpcWebFrameCutInsideNextHeader() {
+        StreamReassembler s = new StreamReassembler();
+        assertEquals(List.of("0a03666f6f"), feed(s, "00000000050a03666f6f" + "0000"));
+        assertEquals(List.of("0801"), feed(s, "0000020801"));
+    }
+
+    @Test
+    void grpcWebRecordSplitAcrossFrames() {
+        StreamReassembler s = new StreamReassembler();
+        assertEquals(List.of(), feed(s, "00000000050a03"));
+        assertEquals(List.of("0a03666f6f"), feed(s, "666f6f"));
+    }
+
+    @Test
+    void varintDelimitedFrames() {
+        StreamReassembler s = new StreamReassembler();
+        assertEquals(List.of("0a03666f6f", "0801"), feed(s, "050a03666f6f020801"));
+        assertEquals(List.of("0802"), feed(s, "020802"));
+    }
+
+    @Test
+    void plainMessagesAreNotFramed() {
+        StreamReassembler s = new StreamReassembler();
+        assertNull(feed(s, "0a03666f6f"));
+        assertNull(feed(s, "050a03666f6f020801"));
+    }
+
+    @Test
+    void emptyDelimitedRecordsDoNotSplit() {
+        assertNull(Framing.split(HEX.parseHex("00050a03666f6f")));
+    }
+}